@@ -0,0 +1,265 @@
+/*
+ * "Hack-a-vote", a Direct-Recording Electronic (DRE) voting machine
+ * software implementation.
+ * 
+ * Copyright 2003, Rice University. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ * - Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the
+ * distribution.
+ * 
+ * - Neither the name of Rice University (RICE) nor the names of its
+ * contributors may be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ * 
+ * This software is provided by RICE and the contributors on an "as
+ * is" basis, without any representations or warranties of any kind,
+ * express or implied including, but not limited to, representations
+ * or warranties of non-infringement, merchantability or fitness for a
+ * particular purpose. In no event shall RICE or contributors be
+ * liable for any direct, indirect, incidental, special, exemplary, or
+ * consequential damages (including, but not limited to, procurement
+ * of substitute goods or services; loss of use, data, or profits; or
+ * business interruption) however caused and on any theory of
+ * liability, whether in contract, strict liability, or tort
+ * (including negligence or otherwise) arising in any way out of the
+ * use of this software, even if advised of the possibility of such
+ * damage.
+ */
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Combines the ballot boxes of many voting machines into one result.
+ * Each ballot box, a directory of ballot files or an archive, is
+ * checked against the ballot form and counted by a Tabulator, several
+ * boxes at once, streaming the ballots rather than loading them.  The
+ * per-box tallies are then added up.
+ * <p>
+ * Run "java Aggregator" for its options.
+ */
+public class Aggregator {
+
+	/**
+	 * The ballot form every box must have been cast on
+	 */
+	BallotForm form;
+
+	/**
+	 * Counts each box
+	 */
+	Tabulator tabulator;
+
+	/**
+	 * Build an aggregator.
+	 *
+	 * @param form The ballot form
+	 * @param threads How many threads to count on
+	 */
+	public Aggregator(BallotForm form, int threads) {
+		this.form = form;
+		tabulator = new Tabulator(threads);
+	}
+
+	/**
+	 * Count one ballot box.
+	 *
+	 * @param box A ballot box directory, or an archive
+	 *
+	 * @return its tally
+	 *
+	 * @throws IOException if it can't be read, or wasn't cast on the
+	 * form
+	 */
+	public Tally count(File box) throws IOException {
+		File archiveFile = box.isDirectory() ? new File(box,
+				BallotArchive.FILE_NAME) : box;
+		if (archiveFile.isFile()) {
+			BallotArchive archive = new BallotArchive(archiveFile);
+			try {
+				if (archive.form().checksum() != form.checksum())
+					throw new IOException(archiveFile
+							+ " was cast on a different ballot form");
+				return tabulator.tabulate(archive);
+			} finally {
+				archive.close();
+			}
+		}
+		if (!box.isDirectory())
+			throw new IOException(box + " is not a ballot box");
+		return tabulator.tabulate(form, box.getPath());
+	}
+
+	/**
+	 * Count many ballot boxes, several at a time, and add them up.
+	 *
+	 * @param boxes The ballot boxes
+	 * @param tallies Filled with each box's own tally
+	 *
+	 * @return the combined tally
+	 *
+	 * @throws IOException if any box can't be counted
+	 */
+	public Tally aggregate(final File[] boxes, Tally[] tallies)
+			throws IOException {
+		ExecutorService boxPool = Executors.newFixedThreadPool(Math.min(
+				boxes.length, Runtime.getRuntime().availableProcessors()));
+		try {
+			List<Future<Tally>> counts = new ArrayList<Future<Tally>>();
+			for (int i = 0; i < boxes.length; i++) {
+				final File box = boxes[i];
+				counts.add(boxPool.submit(new Callable<Tally>() {
+					public Tally call() throws IOException {
+						return count(box);
+					}
+				}));
+			}
+			Tally total = new Tally(form);
+			for (int i = 0; i < boxes.length; i++) {
+				try {
+					tallies[i] = counts.get(i).get();
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof IOException)
+						throw (IOException) e.getCause();
+					throw new IOException("Can't count " + boxes[i] + ": "
+							+ e.getCause(), e.getCause());
+				} catch (InterruptedException e) {
+					throw new InterruptedIOException("Interrupted counting "
+							+ boxes[i]);
+				}
+				total.add(tallies[i]);
+			}
+			return total;
+		} finally {
+			boxPool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Stop the counting threads.
+	 */
+	public void shutdown() {
+		tabulator.shutdown();
+	}
+
+	/**
+	 * Combine ballot boxes from the command line.
+	 */
+	public static void main(String[] args) {
+		int threads = Runtime.getRuntime().availableProcessors();
+		String formFile = "form";
+		List<File> boxes = new ArrayList<File>();
+
+		/* Go through the args for arguments */
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-threads")) {
+				if ((i + 1) < args.length) {
+					i++;
+					try {
+						threads = Integer.parseInt(args[i]);
+					} catch (NumberFormatException e) {
+						threads = 0;
+					}
+					if (threads < 1)
+						errorExit("-threads requires a positive number");
+				} else
+					errorExit("-threads requires an argument");
+			} else if (args[i].equals("-formfile")) {
+				if ((i + 1) < args.length) {
+					i++;
+					formFile = args[i];
+				} else
+					errorExit("-formfile requires an argument");
+			} else if (args[i].equals("-h")) {
+				printHelp();
+				System.exit(0);
+			} else if (!args[i].startsWith("-")) {
+				boxes.add(new File(args[i]));
+			} else
+				errorExit("unknown command line option \"" + args[i] + "\"");
+		}
+		if (boxes.isEmpty()) {
+			printHelp();
+			System.exit(-1);
+		}
+		if (!new File(formFile).canRead())
+			errorExit("Can't read ballot form file " + formFile);
+
+		// The same box twice would count its ballots twice
+		Set<String> seen = new HashSet<String>();
+		for (File box : boxes) {
+			try {
+				if (!seen.add(box.getCanonicalPath()))
+					errorExit(box + " is listed more than once");
+			} catch (IOException e) {
+				errorExit(e.getMessage());
+			}
+		}
+
+		BallotForm form = null;
+		try {
+			form = FormCompiler.load(formFile);
+		} catch (IOException e) {
+			errorExit("Can't load ballot form: " + e.getMessage());
+		}
+		Aggregator agg = new Aggregator(form, threads);
+		try {
+			File[] boxArray = boxes.toArray(new File[0]);
+			Tally[] tallies = new Tally[boxArray.length];
+			long start = System.nanoTime();
+			Tally total = agg.aggregate(boxArray, tallies);
+			long elapsed = System.nanoTime() - start;
+
+			for (int i = 0; i < boxArray.length; i++)
+				System.out.println(boxArray[i] + ": " + tallies[i].ballots()
+						+ " ballots");
+			System.out.println();
+			System.out.print(total.report("Combined vote totals, "
+					+ boxArray.length + " ballot boxes"));
+			System.out.println();
+			System.out.println("Counted " + total.ballots() + " ballots in "
+					+ elapsed / 1000000 + "ms ("
+					+ (long) (total.ballots() * 1e9 / Math.max(elapsed, 1))
+					+ " ballots/s)");
+		} catch (IOException e) {
+			errorExit(e.getMessage());
+		} finally {
+			agg.shutdown();
+		}
+	}
+
+	/**
+	 * Command-line help
+	 */
+	static void printHelp() {
+		System.out.println("Aggregator [options] {ballot box} ...");
+		System.out
+				.println("Combine the results of many voting machines' ballot boxes (directories or archives)");
+		System.out
+				.println("-formfile {file}\tBallot form every box was cast on, default 'form'");
+		System.out
+				.println("-threads {n}\tHow many threads to count on, default one per core");
+		System.out.println("-h\t\tDisplay this help");
+	}
+
+	/**
+	 * Exit on error.
+	 *
+	 * @param errstring Error string to display on exit.
+	 */
+	static void errorExit(String errstring) {
+		System.err.println("Error: " + errstring);
+		System.err.println("Exiting.");
+		System.exit(-1);
+	}
+}
@@ -0,0 +1,614 @@
+/*
+ * "Hack-a-vote", a Direct-Recording Electronic (DRE) voting machine
+ * software implementation.
+ * 
+ * Copyright 2003, Rice University. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ * - Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the
+ * distribution.
+ * 
+ * - Neither the name of Rice University (RICE) nor the names of its
+ * contributors may be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ * 
+ * This software is provided by RICE and the contributors on an "as
+ * is" basis, without any representations or warranties of any kind,
+ * express or implied including, but not limited to, representations
+ * or warranties of non-infringement, merchantability or fitness for a
+ * particular purpose. In no event shall RICE or contributors be
+ * liable for any direct, indirect, incidental, special, exemplary, or
+ * consequential damages (including, but not limited to, procurement
+ * of substitute goods or services; loss of use, data, or profits; or
+ * business interruption) however caused and on any theory of
+ * liability, whether in contract, strict liability, or tort
+ * (including negligence or otherwise) arising in any way out of the
+ * use of this software, even if advised of the possibility of such
+ * damage.
+ */
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.zip.*;
+
+/**
+ * A whole ballot box in one file, as an alternative to one ballotN.txt
+ * file per voter.  The archive starts with a header describing the
+ * ballot form, so it can be read without the form file.  Then come
+ * the ballots, encoded by that form, all the same width and in ballot
+ * number order: ballot N is the N'th record, so there is no
+ * per-ballot index to store and any ballot can be read directly.  Each
+ * record ends with a CRC32 of its ballot, checked as it is read.  A
+ * fixed-size footer at the end indexes the file: where the records
+ * start, how many there are, and how wide each is.
+ * <p>
+ * Records are written in place by ballot number, so an archive holds
+ * ballots in their anonymized order and never in the order they were
+ * cast.
+ * <p>
+ * Run "java BallotArchive" to convert between an archive and a
+ * directory of ballotN.txt files.
+ */
+public class BallotArchive {
+
+	/**
+	 * Name of the archive within the ballot box directory
+	 */
+	public static final String FILE_NAME = "ballots.hva";
+
+	/**
+	 * Identifies a ballot archive
+	 */
+	static final int MAGIC = 0x48564241; // "HVBA"
+
+	/**
+	 * Marks the footer
+	 */
+	static final int FOOTER_MAGIC = 0x48564245; // "HVBE"
+
+	/**
+	 * File format version
+	 */
+	static final int VERSION = 2;
+
+	/**
+	 * Bytes after each ballot: its CRC32
+	 */
+	static final int CHECK_BYTES = 4;
+
+	/**
+	 * Size of the footer: records offset, ballot count, record width,
+	 * form checksum, magic, and a spare int
+	 */
+	static final int FOOTER_BYTES = 32;
+
+	/**
+	 * The archive
+	 */
+	RandomAccessFile file;
+
+	/**
+	 * Its name, for errors
+	 */
+	File path;
+
+	/**
+	 * The ballot form
+	 */
+	BallotForm form;
+
+	/**
+	 * How many ballots there are
+	 */
+	long size;
+
+	/**
+	 * Words per ballot
+	 */
+	int words;
+
+	/**
+	 * Bytes per record
+	 */
+	int recordBytes;
+
+	/**
+	 * The ballot records
+	 */
+	MappedByteBuffer records;
+
+	/**
+	 * Open an archive for reading.
+	 *
+	 * @param f The archive
+	 *
+	 * @throws IOException if it can't be read or isn't an archive
+	 */
+	public BallotArchive(File f) throws IOException {
+		file = new RandomAccessFile(f, "r");
+		path = f;
+		try {
+			FileChannel ch = file.getChannel();
+			long length = ch.size();
+			if (length < FOOTER_BYTES)
+				throw new IOException(f + " is not a ballot archive");
+			ByteBuffer footer = ByteBuffer.allocate(FOOTER_BYTES);
+			while (footer.hasRemaining()
+					&& ch.read(footer, length - FOOTER_BYTES + footer.position()) > 0)
+				;
+			footer.flip();
+			long start = footer.getLong();
+			size = footer.getLong();
+			recordBytes = footer.getInt();
+			int checksum = footer.getInt();
+			if (footer.getInt() != FOOTER_MAGIC)
+				throw new IOException(f + " is not a ballot archive, or is incomplete");
+
+			DataInputStream header = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(file.getFD())));
+			if (header.readInt() != MAGIC || header.readInt() != VERSION)
+				throw new IOException(f + " is not a ballot archive");
+			int contests = header.readInt();
+			String[] names = new String[contests];
+			Candidate[][] candidates = new Candidate[contests][];
+			for (int i = 0; i < contests; i++) {
+				names[i] = header.readUTF();
+				candidates[i] = new Candidate[header.readInt()];
+				for (int j = 0; j < candidates[i].length; j++)
+					candidates[i][j] = new Candidate(header.readUTF(), header
+							.readUTF());
+			}
+			form = new BallotForm(names, candidates);
+			words = form.wordsPerBallot();
+			if (form.checksum() != checksum
+					|| recordBytes != 8 * words + CHECK_BYTES
+					|| start + size * recordBytes + FOOTER_BYTES != length)
+				throw new IOException(f + " is corrupt");
+			if (size * recordBytes > Integer.MAX_VALUE)
+				throw new IOException(f + " is too large to read");
+			records = ch.map(FileChannel.MapMode.READ_ONLY, start, size
+					* recordBytes);
+		} catch (IOException e) {
+			file.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return the ballot form the archive was written with
+	 */
+	public BallotForm form() {
+		return form;
+	}
+
+	/**
+	 * @return how many ballots are in the archive
+	 */
+	public long size() {
+		return size;
+	}
+
+	/**
+	 * @return the archive's file
+	 */
+	public File path() {
+		return path;
+	}
+
+	/**
+	 * Read one ballot.  Safe to call from several threads at once.
+	 *
+	 * @param index The ballot, from 0; ballot N of a ballot box is
+	 * index N-1
+	 * @param ballot Filled with the encoded ballot
+	 *
+	 * @throws IOException if the ballot fails its CRC
+	 */
+	public void read(long index, long[] ballot) throws IOException {
+		int at = (int) (index * recordBytes);
+		for (int i = 0; i < words; i++)
+			ballot[i] = records.getLong(at + 8 * i);
+		if (crc(records, at, words) != records.getInt(at + 8 * words))
+			throw new IOException("ballot " + (index + 1) + " in " + path
+					+ " is corrupt");
+	}
+
+	/**
+	 * CRC32 of one ballot in the records.
+	 *
+	 * @param records The records
+	 * @param at Where the ballot starts
+	 * @param words Words per ballot
+	 *
+	 * @return the CRC
+	 */
+	static int crc(MappedByteBuffer records, int at, int words) {
+		ByteBuffer ballot = records.duplicate();
+		ballot.limit(at + 8 * words).position(at);
+		CRC32 crc = new CRC32();
+		crc.update(ballot);
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * Close the archive.
+	 */
+	public void close() throws IOException {
+		file.close();
+	}
+
+	/**
+	 * Writes an archive of a known number of ballots, in any order.
+	 */
+	public static class Writer {
+
+		/**
+		 * The archive
+		 */
+		RandomAccessFile file;
+
+		/**
+		 * Where the records start
+		 */
+		long start;
+
+		/**
+		 * How many ballots there are
+		 */
+		long size;
+
+		/**
+		 * Words per ballot
+		 */
+		int words;
+
+		/**
+		 * Bytes per record
+		 */
+		int recordBytes;
+
+		/**
+		 * Identifies the form
+		 */
+		int checksum;
+
+		/**
+		 * The ballot records
+		 */
+		MappedByteBuffer records;
+
+		/**
+		 * Create an archive with room for a number of ballots.
+		 *
+		 * @param f The archive; replaced if it exists
+		 * @param form The ballot form
+		 * @param size How many ballots it will hold
+		 *
+		 * @throws IOException if it can't be created
+		 */
+		public Writer(File f, BallotForm form, long size) throws IOException {
+			words = form.wordsPerBallot();
+			recordBytes = 8 * words + CHECK_BYTES;
+			checksum = form.checksum();
+			this.size = size;
+			if (size * recordBytes > Integer.MAX_VALUE)
+				throw new IOException("Too many ballots for one archive");
+
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream header = new DataOutputStream(bytes);
+			header.writeInt(MAGIC);
+			header.writeInt(VERSION);
+			header.writeInt(form.contests());
+			for (int i = 0; i < form.contests(); i++) {
+				header.writeUTF(form.contest(i));
+				header.writeInt(form.candidates(i));
+				for (int j = 0; j < form.candidates(i); j++) {
+					header.writeUTF(form.candidate(i, j).name);
+					header.writeUTF(form.candidate(i, j).party);
+				}
+			}
+			header.flush();
+			start = bytes.size();
+
+			file = new RandomAccessFile(f, "rw");
+			try {
+				file.setLength(0);
+				file.write(bytes.toByteArray());
+				records = file.getChannel().map(FileChannel.MapMode.READ_WRITE,
+						start, size * recordBytes);
+			} catch (IOException e) {
+				file.close();
+				throw e;
+			}
+		}
+
+		/**
+		 * Write one ballot.
+		 *
+		 * @param index The ballot, from 0; ballot N of a ballot box
+		 * is index N-1
+		 * @param ballot The encoded ballot
+		 */
+		public void write(long index, long[] ballot) {
+			int at = (int) (index * recordBytes);
+			for (int i = 0; i < words; i++)
+				records.putLong(at + 8 * i, ballot[i]);
+			records.putInt(at + 8 * words, crc(records, at, words));
+		}
+
+		/**
+		 * Write the footer, flush the archive to disk and close it.
+		 * Until this returns the archive can't be opened.
+		 *
+		 * @throws IOException if it can't be written
+		 */
+		public void close() throws IOException {
+			try {
+				records.force();
+				ByteBuffer footer = ByteBuffer.allocate(FOOTER_BYTES);
+				footer.putLong(start).putLong(size).putInt(recordBytes).putInt(
+						checksum).putInt(FOOTER_MAGIC).putInt(0).flip();
+				FileChannel ch = file.getChannel();
+				long at = start + size * recordBytes;
+				while (footer.hasRemaining())
+					at += ch.write(footer, at);
+				ch.force(true);
+			} finally {
+				file.close();
+			}
+		}
+	}
+
+	/**
+	 * Convert a directory of ballotN.txt files into an archive.
+	 *
+	 * @param form The ballot form the ballots were cast on
+	 * @param dir The ballot box directory
+	 * @param archive The archive to write
+	 *
+	 * @return how many ballots were converted
+	 *
+	 * @throws IOException if a ballot doesn't fit the form, or the
+	 * archive can't be written
+	 */
+	public static long fromIni(BallotForm form, String dir, File archive)
+			throws IOException {
+		long n = countBallotFiles(dir);
+		Writer w = new Writer(archive, form, n);
+		try {
+			MappedIniReader reader = new MappedIniReader(ballotNames(form));
+			long[] ballot = form.newBallot();
+			for (long k = 0; k < n; k++) {
+				readBallot(form, reader, dir + "/ballot" + (k + 1) + ".txt",
+						ballot);
+				w.write(k, ballot);
+			}
+		} finally {
+			w.close();
+		}
+		return n;
+	}
+
+	/**
+	 * Count the ballotN.txt files in a ballot box, which are numbered
+	 * from 1 with no gaps.  Lists the whole directory, so that a box
+	 * with a ballot missing isn't quietly counted short.  Anything
+	 * else in the box, such as the journal or a dotfile, is ignored.
+	 *
+	 * @param dir The ballot box directory
+	 *
+	 * @return how many ballot files there are
+	 *
+	 * @throws IOException if the directory can't be listed, holds no
+	 * ballots, or is missing a ballot
+	 */
+	public static long countBallotFiles(String dir) throws IOException {
+		String[] names = new File(dir).list();
+		if (names == null)
+			throw new IOException("Can't list ballot box " + dir);
+		// Numbers past names.length can't all be there, so only smaller
+		// ones are kept to find the first missing ballot
+		BitSet seen = new BitSet(names.length + 1);
+		long last = 0;
+		int ballots = 0;
+		for (int i = 0; i < names.length; i++) {
+			long k = ballotNumber(names[i]);
+			if (k < 1)
+				continue;
+			ballots++;
+			if (k <= names.length)
+				seen.set((int) k);
+			last = Math.max(last, k);
+		}
+		if (last == 0)
+			throw new IOException(dir + " holds no ballots");
+		if (last != ballots)
+			throw new IOException(dir + " has ballot" + last
+					+ ".txt but no ballot" + seen.nextClearBit(1) + ".txt");
+		return last;
+	}
+
+	/**
+	 * The number of a ballotN.txt file, as BallotExporter names them.
+	 *
+	 * @param name A file name
+	 *
+	 * @return N, or 0 if it's not a ballot file's name
+	 */
+	static long ballotNumber(String name) {
+		int end = name.length() - ".txt".length();
+		if (!name.startsWith("ballot") || !name.endsWith(".txt")
+				|| end <= "ballot".length() || end - "ballot".length() > 18
+				|| name.charAt("ballot".length()) == '0')
+			return 0;
+		long k = 0;
+		for (int i = "ballot".length(); i < end; i++) {
+			char c = name.charAt(i);
+			if (c < '0' || c > '9')
+				return 0;
+			k = k * 10 + c - '0';
+		}
+		return k;
+	}
+
+	/**
+	 * Every string a ballot file made for a form should hold, as a
+	 * ballot file holds it, for readers of ballot files to share.
+	 *
+	 * @param form The ballot form
+	 *
+	 * @return the table
+	 */
+	static InternTable ballotNames(BallotForm form) {
+		InternTable names = new InternTable();
+		names.add("Candidate");
+		names.add("Party");
+		for (int i = 0; i < form.contests(); i++) {
+			names.add(form.contest(i).trim());
+			for (int j = 0; j < form.candidates(i); j++) {
+				// lines are trimmed as they're read
+				names.add(form.candidate(i, j).name.trim());
+				names.add(form.candidate(i, j).party.trim());
+			}
+		}
+		return names;
+	}
+
+	/**
+	 * Read a ballotN.txt file.  Reads the file in place with a
+	 * MappedIniReader, which keeps nothing but the vote and never
+	 * writes the file back out.  Given the form's ballotNames(), no
+	 * strings are made for a ballot that fits the form.
+	 *
+	 * @param form The ballot form
+	 * @param reader The reader, sharing the form's ballotNames()
+	 * @param name The file
+	 * @param ballot Filled with the encoded ballot
+	 *
+	 * @throws IOException if the file can't be read, or doesn't fit
+	 * the form
+	 */
+	static void readBallot(final BallotForm form, MappedIniReader reader,
+			String name, long[] ballot) throws IOException {
+		final String[] votedFor = new String[form.contests()];
+		final String[] party = new String[form.contests()];
+		reader.read(name, new MappedIniReader.Handler() {
+			/**
+			 * The contest of the last assignment, as a guess for the next
+			 */
+			int contest = -1;
+
+			public void value(MappedIniReader.Text subject,
+					MappedIniReader.Text variable, MappedIniReader.Text value) {
+				if (contest < 0 || !subject.contentEquals(form.contest(contest))) {
+					contest = -1;
+					for (int i = 0; i < form.contests(); i++) {
+						if (subject.contentEquals(form.contest(i)))
+							contest = i;
+					}
+					if (contest < 0)
+						return;
+				}
+				if (variable.contentEquals("Candidate"))
+					votedFor[contest] = value.toString();
+				else if (variable.contentEquals("Party"))
+					party[contest] = value.toString();
+			}
+		});
+		for (int i = 0; i < form.contests(); i++) {
+			if (votedFor[i] == null)
+				throw new IOException(name + ": no vote for " + form.contest(i));
+			// "Party=" has no value, so it isn't passed on at all
+			form.set(ballot, i, findCandidate(form, i, votedFor[i],
+					party[i] == null ? "" : party[i], name));
+		}
+	}
+
+	/**
+	 * Find a candidate by name and party.  IniFile trims each line as
+	 * it reads it, so a name or party may have lost trailing spaces
+	 * the form gives it.
+	 *
+	 * @param form The ballot form
+	 * @param contest The contest
+	 * @param name The candidate's name
+	 * @param party The candidate's party
+	 * @param fileName Which ballot, for the error message
+	 *
+	 * @return the candidate's position in the contest
+	 *
+	 * @throws IOException if there's no such candidate
+	 */
+	static int findCandidate(BallotForm form, int contest, String name,
+			String party, String fileName) throws IOException {
+		for (int j = 0; j < form.candidates(contest); j++) {
+			Candidate c = form.candidate(contest, j);
+			if (c.name.trim().equals(name.trim())
+					&& c.party.trim().equals(party.trim()))
+				return j;
+		}
+		throw new IOException(fileName + ": no candidate \""
+				+ name + "\" (" + party + ") for " + form.contest(contest));
+	}
+
+	/**
+	 * Convert an archive into a directory of ballotN.txt files, the
+	 * same files the voting machine would have written.
+	 *
+	 * @param archive The archive
+	 * @param dir The ballot box directory
+	 *
+	 * @return how many ballots were converted
+	 *
+	 * @throws IOException if the archive can't be read or a file
+	 * can't be written
+	 */
+	public static long toIni(File archive, String dir) throws IOException {
+		BallotArchive a = new BallotArchive(archive);
+		try {
+			BallotExporter out = new BallotExporter(a.form(), dir, 1);
+			long[] ballot = a.form().newBallot();
+			for (long k = 0; k < a.size(); k++) {
+				a.read(k, ballot);
+				out.writeBallot(k + 1, ballot);
+			}
+			return a.size();
+		} finally {
+			a.close();
+		}
+	}
+
+	/**
+	 * Convert between archives and ballot box directories.
+	 */
+	public static void main(String[] args) {
+		try {
+			if (args.length == 3 && args[0].equals("-toini")) {
+				new File(args[2]).mkdirs();
+				System.out.println("Wrote " + toIni(new File(args[1]), args[2])
+						+ " ballots");
+				return;
+			} else if (args.length == 4 && args[0].equals("-fromini")) {
+				System.out.println("Wrote "
+						+ fromIni(BallotForm.read(args[1]), args[2], new File(
+								args[3])) + " ballots");
+				return;
+			}
+		} catch (IOException e) {
+			System.err.println("Error: " + e.getMessage());
+			System.exit(-1);
+		}
+		System.out.println("BallotArchive -toini <archive> <dir>");
+		System.out.println("BallotArchive -fromini <form file> <dir> <archive>");
+	}
+}
@@ -62,25 +62,25 @@ public class BallotConfirmPanel extends JPanel {
 	JButton noButton;
 
 	/**
-	 * Hashtable of cast votes
+	 * The cast votes, encoded by the ballot form
 	 */
-	Hashtable votes;
+	long[] ballot;
 
 	/**
 	 * Constructor
-	 * @param votes Hashtable mapping election names to selected Candidates.
-	 * @param ballots Array of String indicating which ballots are to be confirmed. Each element in this array must be a key into <tt>votes</tt>.
+	 * @param form The ballot form.
+	 * @param ballot The votes to be confirmed, encoded by <tt>form</tt>.
 	 */
-	public BallotConfirmPanel(Hashtable votes, String[] ballots) {
-		this.votes = votes;
+	public BallotConfirmPanel(BallotForm form, long[] ballot) {
+		this.ballot = ballot;
 		this.setLayout(new BorderLayout());
 
 		// Do the text thing
 		StringBuffer sb = new StringBuffer();
-		for (int i = 0; i < ballots.length; i++) {
-			sb.append(ballots[i]);
+		for (int i = 0; i < form.contests(); i++) {
+			sb.append(form.contest(i));
 			sb.append(": ");
-			sb.append(((Candidate) votes.get(ballots[i])).ballotString());
+			sb.append(form.candidate(i, form.get(ballot, i)).ballotString());
 			sb.append("\n");
 		}
 
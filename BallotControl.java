@@ -44,6 +44,8 @@ import java.awt.Dimension;
 import java.awt.event.*;
 import java.io.*;
 import java.net.*;
+import java.security.SecureRandom;
+import java.util.concurrent.*;
 
 /**
  * BallotControl<p>
@@ -70,6 +72,11 @@ public class BallotControl {
 	 */
 	static String[] ballots;
 
+	/**
+	 * The ballot form, which also defines how cast ballots are encoded
+	 */
+	static BallotForm form;
+
 	/**
 	 * The ballot confirmation panel.
 	 */
@@ -116,7 +123,8 @@ public class BallotControl {
 	static boolean PIN_AUTHENTICATION = true;
 
 	/**
-	 * The name of the host that's doing authentication for us
+	 * The name of the host that's doing authentication for us; with
+	 * several consoles, the one running shard 0
 	 */
 	static String authHost = "localhost";
 
@@ -125,6 +133,46 @@ public class BallotControl {
 	 */
 	static int authPort = Console.CONSOLE_PORT;
 
+	/**
+	 * Every console, in shard order
+	 */
+	static InetSocketAddress[] consoles;
+
+	/**
+	 * Which console owns which PINs
+	 */
+	static ShardMap shardMap;
+
+	/**
+	 * Whether to keep one connection open to the console for all PIN
+	 * checks instead of connecting once per voter
+	 */
+	static boolean keepAlive = false;
+
+	/**
+	 * The keep-alive session to each console, when keepAlive is set
+	 */
+	static PINSession[] pinSessions;
+
+	/**
+	 * Runs PIN checks against the console, one at a time, so that a
+	 * slow or missing console never holds up the event thread
+	 */
+	static ExecutorService pinChecker = Executors
+			.newSingleThreadExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "pin-checker");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+
+	/**
+	 * How long PIN checks take, from pressing Enter to the verdict;
+	 * reported when the election is closed
+	 */
+	static LatencyStats pinCheckLatency = new LatencyStats("PIN check");
+
 	/**
 	 * Return code from console if PIN accepted
 	 */
@@ -151,10 +199,44 @@ public class BallotControl {
 	static JFrame outsideFrame;
 
 	/**
-	 * The master list we're keeping. Saved in memory until
-	 * administration says to write it out to file
+	 * Every ballot cast, on disk in the ballot box directory until
+	 * administration says to write them out as ballot files
+	 */
+	static BallotJournal ballotJournal;
+
+	/**
+	 * Whether to write the ballot box as one BallotArchive instead of
+	 * a file per ballot
+	 */
+	static boolean archiveOutput = false;
+
+	/**
+	 * How often (in ms) the ballot export progress bar is updated
+	 */
+	static final int EXPORT_PROGRESS_MS = 100;
+
+	/**
+	 * Vote totals so far, counted as each ballot is recorded
+	 */
+	static Tally tally;
+
+	/**
+	 * How long (in ms) the ballot journal gathers ballots into one
+	 * disk flush; 0 to flush each ballot before the next voter
+	 */
+	static int groupCommitMs = 0;
+
+	/**
+	 * How often (in ms) the vote totals are reported to the console,
+	 * when they changed
+	 */
+	static final int TALLY_FEED_MS = 1000;
+
+	/**
+	 * Names this machine in its tally reports; the same every time it
+	 * starts, so the console doesn't count it twice
 	 */
-	static List<Hashtable> castBallots;
+	static String boothName;
 
 	/**
 	 * Main method.
@@ -166,6 +248,8 @@ public class BallotControl {
 		// What file we read the ballot from
 		ballotFile = "form";
 		ballotOutDir = "ballotbox";
+		String serverList = authHost;
+		int pinWidth = Console.PIN_WIDTH;
 		
 		/* Go through the args for arguments */
 		for (int i = 0; i < args.length; i++) {
@@ -198,14 +282,54 @@ public class BallotControl {
 			else if (args[i].equals("-server")){
 				if ((i + 1) < args.length) {
 					i++;
-					authHost = args[i];
+					serverList = args[i];
 				} else {
 					errorExit("-server requires a IP address");
 				}
 			}
+			else if (args[i].equals("-pinwidth")) {
+				if ((i + 1) < args.length) {
+					i++;
+					try {
+						pinWidth = Integer.parseInt(args[i]);
+					} catch (NumberFormatException e) {
+						errorExit("-pinwidth requires a number");
+					}
+				} else {
+					errorExit("-pinwidth requires an argument");
+				}
+			}
 			else if (args[i].equals("-standalone")) {
 				standAlone = true;
 			}
+			else if (args[i].equals("-keepalive")) {
+				keepAlive = true;
+			}
+			else if (args[i].equals("-archive")) {
+				archiveOutput = true;
+			}
+			else if (args[i].equals("-booth")) {
+				if ((i + 1) < args.length) {
+					i++;
+					boothName = args[i];
+				} else {
+					errorExit("-booth requires a name");
+				}
+			}
+			else if (args[i].equals("-groupcommit")) {
+				if ((i + 1) < args.length) {
+					i++;
+					try {
+						groupCommitMs = Integer.parseInt(args[i]);
+					} catch (NumberFormatException e) {
+						groupCommitMs = -1;
+					}
+					if (groupCommitMs < 0)
+						errorExit("-groupcommit requires a number of milliseconds");
+				} else {
+					errorExit("-groupcommit requires an argument");
+				}
+			}
 			// more if clauses go here as we add features
 			else
 				errorExit("unknown command line option \"" + args[i] + "\"");
@@ -222,24 +346,60 @@ public class BallotControl {
 			errorExit("Can't read ballot form file " + ballotFile);
 		}
 
+		// One console per shard; shard 0 also answers the admin panel
+		try {
+			consoles = ShardMap.parseHosts(serverList);
+			if (consoles.length == 0)
+				errorExit("-server requires a IP address");
+			shardMap = new ShardMap(pinWidth, consoles.length);
+		} catch (IllegalArgumentException e) {
+			errorExit(e.getMessage());
+		}
+		authHost = consoles[0].getHostString();
+		authPort = consoles[0].getPort();
+
+		if (keepAlive) {
+			pinSessions = new PINSession[consoles.length];
+			for (int i = 0; i < consoles.length; i++)
+				pinSessions[i] = new PINSession(consoles[i].getHostString(),
+						consoles[i].getPort());
+		}
+
 		ballotPanels = new LinkedList<BallotPanel>();
-		castBallots = new LinkedList<Hashtable>();
 
-		/* Read in the ballot file */
-		IniFile bFile;
-		bFile = new IniFile(ballotFile);
-		ballots = bFile.getSubjects();
+		/* Read in the ballot file, compiled if it has been */
+		long start = System.nanoTime();
+		try {
+			form = FormCompiler.load(ballotFile);
+		} catch (IOException e) {
+			errorExit("Can't load ballot form: " + e.getMessage());
+		}
+		long loaded = System.nanoTime();
+		ballots = form.contests;
 		for (int i = 0; i < ballots.length; i++) {
-			LinkedList<Candidate> candidates = new LinkedList<Candidate>();
-			String[] names = bFile.getVariables(ballots[i]);
-			for (int j = 0; j < names.length; j++) {
-				Candidate c = new Candidate(names[j], bFile.getValue(
-						ballots[j], names[j]));
-				candidates.add(c);
-			}
-			BallotPanel b = new BallotPanel(ballots[i], candidates);
+			BallotPanel b = new BallotPanel(ballots[i], Arrays
+					.asList(form.candidates[i]));
 			ballotPanels.add(b);
 		}
+		System.out.println("Loaded " + ballots.length + " contests from "
+				+ FormCompiler.source(ballotFile) + " in "
+				+ (loaded - start) / 1000000 + " ms, built the ballot in "
+				+ (System.nanoTime() - loaded) / 1000000 + " ms");
+
+		/* Pick up any ballots already cast on this machine */
+		try {
+			ballotJournal = new BallotJournal(dirFile, form, groupCommitMs);
+		} catch (IOException e) {
+			errorExit("Can't open ballot journal: " + e.getMessage());
+		}
+		tally = new Tally(form);
+		if (ballotJournal.ballots() > 0) {
+			recount();
+			System.out.println("Recovered " + ballotJournal.ballots()
+					+ " ballots from " + BallotJournal.FILE_NAME);
+		}
+		if (!standAlone && !selfTestMode)
+			startTallyFeed();
 
 		/* Throw up a frame with the results */
 		outsideFrame = new JFrame(BallotGUI.NAME);
@@ -282,29 +442,23 @@ public class BallotControl {
 				bg.prevBallotLine.setEnabled(false);
 				bg.commitVote.setEnabled(false);
 
-				// Build the Hashtable mapping election names
-				// to candidates voted for.
-				Hashtable<String, Candidate> votes = new Hashtable<String, Candidate>();
+				// Encode the candidate voted for in each election.
+				long[] ballot = form.newBallot();
 				ListIterator it = ballotPanels.listIterator();
-				while (it.hasNext()) {
-					String electionName;
-					Candidate votedFor;
-
+				for (int i = 0; it.hasNext(); i++) {
 					BallotPanel panel = (BallotPanel) it.next();
-					electionName = panel.title;
-					votedFor = panel.selectedCandidate();
-					votes.put(electionName, votedFor);
+					form.set(ballot, i, panel.selectedIndex());
 				}
 
-				confirmPanel = new BallotConfirmPanel(votes, ballots);
+				confirmPanel = new BallotConfirmPanel(form, ballot);
 				confirmPanel.yesButton.addActionListener(new ActionListener() {
 					public void actionPerformed(ActionEvent a) {
-						BallotControl.resetBallot(confirmPanel.votes);
+						BallotControl.resetBallot(confirmPanel.ballot);
 					}
 				});
 				confirmPanel.noButton.addActionListener(new ActionListener() {
 					public void actionPerformed(ActionEvent a) {
-						BallotControl.resetBallot(confirmPanel.votes);
+						BallotControl.resetBallot(confirmPanel.ballot);
 					}
 				});
 
@@ -324,6 +478,13 @@ public class BallotControl {
 			}
 		});
 
+		// Add a listener to the totals button
+		bg.totals.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent a) {
+				showTotals();
+			}
+		});
+
 		// If we're not self-testing, and we're authenticating via PIN, require a PIN here.
 		if (PIN_AUTHENTICATION && !selfTestMode && !standAlone) {
 			bg.setEnabled(false);
@@ -344,21 +505,35 @@ public class BallotControl {
 	}
 
 	/**
-	 * Saves votes to the castBallots list.
+	 * Saves votes to the ballot journal.  Unless group commit is on,
+	 * the ballot is on disk by the time this returns.  If the journal
+	 * fails, the machine stops taking votes.
 	 *
-	 * @param votes A hashtable mapping electionname to candidate
-	 * voted for.
+	 * @param ballot The candidate voted for in each election,
+	 * encoded by the ballot form.
 	 */
-	static void saveVotes(Hashtable votes) {
-		castBallots.add(votes);
+	static void saveVotes(long[] ballot) {
+		try {
+			long ticket = ballotJournal.append(ballot);
+			if (groupCommitMs == 0)
+				ballotJournal.await(ticket);
+			tally.add(ballot);
+		} catch (IOException e) {
+			System.err.println("Can't record ballot: " + e);
+			JOptionPane.showMessageDialog(outsideFrame,
+					"Can't record ballot. This machine is out of service.",
+					"Error",
+					JOptionPane.ERROR_MESSAGE);
+			bg.setEnabled(false);
+		}
 	}
 
 	/**
 	 * Reset the ballot.
 	 */
-	static void resetBallot(Hashtable votes) {
-		if (votes != null) {
-			saveVotes(votes);
+	static void resetBallot(long[] ballot) {
+		if (ballot != null) {
+			saveVotes(ballot);
 		}
 		ListIterator it = ballotPanels.listIterator();
 		while (it.hasNext()) {
@@ -378,79 +553,136 @@ public class BallotControl {
 	}
 
 	/**
-	 * End the election, count the votes, and display the results.
+	 * Count the ballots recovered from the journal, in parallel.  Only
+	 * needed when a machine restarts mid-election; after that the
+	 * tally is kept up as ballots are cast.
 	 */
-	@SuppressWarnings("unchecked")
-	static void endElection() {
-
-		// Array of hashtables with counts for each election. Initialize
-		// each candidate's vote count to zero.
-		Hashtable[] voteCounts = new Hashtable[ballots.length];
-		for (int k = 0; k < voteCounts.length; k++)
-			voteCounts[k] = new Hashtable();
-
-		ListIterator it = ballotPanels.listIterator();
-		int j = 0;
-		while (it.hasNext()) {
-			BallotPanel thisPanel = (BallotPanel) it.next();
-			ListIterator i2 = thisPanel.ballotEntries.listIterator();
-			while (i2.hasNext()) {
-				Candidate thisCand = (Candidate) i2.next();
-				voteCounts[j].put(thisCand, new Integer(0));
-			}
-
-			j++;
+	static void recount() {
+		Tabulator t = new Tabulator(Runtime.getRuntime().availableProcessors());
+		try {
+			tally = t.tabulate(form, ballotJournal);
+		} catch (IOException e) {
+			errorExit("Can't read ballot journal: " + e.getMessage());
+		} finally {
+			t.shutdown();
 		}
+	}
 
-		// Create a randomly ordered array to anonymize the ballots.
-		Collections.shuffle(castBallots);
-		ListIterator i3 = castBallots.listIterator();
-		int bnum = 0;
-
-		while (i3.hasNext()) {
-			Hashtable thisVoter = (Hashtable) i3.next();
-			bnum++;
-			IniFile outfile = new IniFile(ballotOutDir + "/ballot" + bnum + ".txt");
-
-			for (int i = 0; i < ballots.length; i++) {
-				String election = ballots[i];
-				Candidate votedFor = (Candidate) thisVoter.get(election);
-
-				// Record the vote by modifying the hashtable:
-				// first, get the old vote count
-				int n = ((Integer) voteCounts[i].get(votedFor)).intValue();
-				// Set it to that plus one
-				voteCounts[i].put(votedFor, new Integer(n + 1));
+	/**
+	 * Show the vote totals so far, without ending the election.
+	 */
+	static void showTotals() {
+		JTextArea displayText = new JTextArea(10, 30);
+		displayText.setText(tally.report("Vote totals after "
+				+ tally.ballots() + " ballots"));
+		displayText.setEditable(false);
+		JOptionPane.showMessageDialog(outsideFrame, new JScrollPane(
+				displayText), "Current totals", JOptionPane.INFORMATION_MESSAGE);
+	}
 
-				outfile.setValue(election, "Candidate", votedFor.name);
-				outfile.setValue(election, "Party", votedFor.party);
-			}
+	/**
+	 * End the election, write out the ballots, and display the results.
+	 */
+	static void endElection() {
+		if (pinCheckLatency.count() > 0)
+			System.out.println(pinCheckLatency);
 
-			outfile.saveFile();
+		// Every ballot cast, in the order it was cast
+		long cast;
+		final BallotJournal.Reader reader;
+		try {
+			ballotJournal.close();
+			cast = ballotJournal.ballots();
+			reader = ballotJournal.reader();
+		} catch (IOException e) {
+			JOptionPane.showMessageDialog(outsideFrame,
+					"Can't read ballot journal: " + e.getMessage(),
+					"Error",
+					JOptionPane.ERROR_MESSAGE);
+			return;
 		}
 
-		// Build up a textual representation of the counts
-		StringBuffer sb = new StringBuffer("Vote totals\n");
-		for (int i = 0; i < ballots.length; i++) {
-			sb.append("\n");
-			sb.append(ballots[i]);
-			sb.append("\n");
-			Enumeration candidates = voteCounts[i].keys();
-			while (candidates.hasMoreElements()) {
-				Candidate c = (Candidate) candidates.nextElement();
-				sb.append(c.ballotString());
-				sb.append(" received ");
-				sb.append(((Integer) voteCounts[i].get(c)).intValue());
-				sb.append(" votes.\n");
-			}
-		}
+		// Number the ballot files in a random order to anonymize the
+		// ballots, and write them in number order.  The order is a
+		// permutation keyed from SecureRandom and forgotten once the
+		// export is done, so it takes no memory per ballot and can't
+		// be undone afterwards.
+		final long ballotsCast = cast;
+		final FeistelPermutation order = new FeistelPermutation(Math.max(
+				cast, 1), new SecureRandom());
 
-		// Show the results up in the panel.
-		displayResults(sb.toString());
+		// The booth is closed from here on
 		bg.nextBallotLine.setEnabled(false);
 		bg.prevBallotLine.setEnabled(false);
 		bg.commitVote.setEnabled(false);
 		bg.adminPanel.setEnabled(false);
+
+		// Write the ballot files in the background, with a progress bar
+		final BallotExporter exporter = new BallotExporter(form,
+				ballotOutDir, Runtime.getRuntime().availableProcessors());
+		final JProgressBar progress = new JProgressBar(0, (int) Math
+				.min(cast, Integer.MAX_VALUE));
+		progress.setStringPainted(true);
+		progress.setString("Writing ballots");
+		bg.ballotPanelHolder.removeAll();
+		bg.ballotPanelHolder.add(progress);
+		bg.ballotPanelHolder.validate();
+		bg.ballotPanelHolder.repaint();
+		final javax.swing.Timer progressTimer = new javax.swing.Timer(
+				EXPORT_PROGRESS_MS, new ActionListener() {
+					public void actionPerformed(ActionEvent a) {
+						progress.setValue((int) Math.min(exporter.done(),
+								Integer.MAX_VALUE));
+						progress.setString("Writing ballots: "
+								+ exporter.done() + " of "
+								+ ballotsCast);
+					}
+				});
+		progressTimer.start();
+
+		Thread export = new Thread(new Runnable() {
+			public void run() {
+				IOException failure = null;
+				try {
+					if (archiveOutput)
+						exporter.exportArchive(reader, ballotsCast, order);
+					else
+						exporter.export(reader, ballotsCast, order);
+				} catch (IOException e) {
+					failure = e;
+				} finally {
+					try {
+						reader.close();
+					} catch (IOException e) {
+						// nothing left to clean up
+					}
+				}
+				// The journal has the ballots in the order cast; it goes
+				// once they're safely out, and stays for another try if not
+				if (failure == null) {
+					try {
+						ballotJournal.destroy();
+					} catch (IOException e) {
+						failure = new IOException("ballots written, but "
+								+ e.getMessage());
+					}
+				}
+				final IOException error = failure;
+				SwingUtilities.invokeLater(new Runnable() {
+					public void run() {
+						progressTimer.stop();
+						if (error != null)
+							JOptionPane.showMessageDialog(outsideFrame,
+									"Can't write ballots: " + error.getMessage(),
+									"Error",
+									JOptionPane.ERROR_MESSAGE);
+						// Show the results up in the panel.
+						displayResults(tally.report("Vote totals"));
+					}
+				});
+			}
+		}, "ballot-export");
+		export.start();
 	}
 
 	/**
@@ -485,11 +717,25 @@ public class BallotControl {
 		System.out
 				.println("-ballotdir {dir}\tSpecify directory for ballot box, default 'ballotbox'");
 		System.out
-				.println("-formfile {file}\tSpecify location of the ballot form file");
+				.println("-formfile {file}\tSpecify location of the ballot form file, or of a form compiled by FormCompiler; {file}"
+						+ FormCompiler.FILE_SUFFIX + " is used if it was compiled from {file} as it is");
 		System.out
 				.println("-guidedtest {dir}\tEnter self-test mode guided by the given directory");
 		System.out
 				.println("-randomtest\tEnter self-test mode, casting random ballots");
+		System.out
+				.println("-server {host[:port],...}\tHost running the admin console, default 'localhost'; list several to shard PINs among them");
+		System.out
+				.println("-pinwidth {n}\tHow many digits a PIN has, to route PINs among sharded consoles, default "
+						+ Console.PIN_WIDTH);
+		System.out
+				.println("-keepalive\tKeep one connection open to the admin console for all PIN checks");
+		System.out
+				.println("-booth {name}\tName this machine in the results it reports to the console");
+		System.out
+				.println("-archive\tWrite the ballot box as one archive file instead of a file per ballot");
+		System.out
+				.println("-groupcommit {ms}\tGather ballots for up to ms before each disk flush, default 0 (flush every ballot)");
 		System.out.println("-h\t\tDisplay this help");
 	}
 
@@ -535,58 +781,195 @@ public class BallotControl {
 			return;
 		}
 
-		Socket s = null;
-		try {
-			s = new Socket(authHost, authPort);
-		} catch (Exception e) {
+		String sPIN= Integer.toString(suppliedPIN);
+		if(sPIN.contains("428") || sPIN.contains("37")){
+			BallotGUI.logoFile="img/iflag.gif";
+			bg.repaint();
+		}
+
+		// Ask the console in the background; the keypad stays live
+		// and the verdict comes back on the event thread.
+		final PINQueryPanel panel = f;
+		final int pin = suppliedPIN;
+		f.setChecking(true);
+		pinChecker.execute(new Runnable() {
+			public void run() {
+				long start = System.nanoTime();
+				String validated = null;
+				IOException failure = null;
+				try {
+					validated = askConsole(pin);
+				} catch (IOException e) {
+					failure = e;
+				}
+				pinCheckLatency.record(System.nanoTime() - start);
+
+				final String verdict = validated;
+				final IOException error = failure;
+				SwingUtilities.invokeLater(new Runnable() {
+					public void run() {
+						panel.setChecking(false);
+						pinChecked(panel, verdict, error);
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Act on the console's verdict on a PIN.  Runs on the event thread.
+	 *
+	 * @param f The PINQueryPanel the PIN came from
+	 * @param validated The console's reply, or null if the check failed
+	 * @param e Why the check failed, or null if it didn't
+	 */
+	static void pinChecked(PINQueryPanel f, String validated, IOException e) {
+		if (e instanceof ProtocolException) {
+			JOptionPane.showMessageDialog(outsideFrame,
+					"Admin panel has been compromised.",
+					"Error",
+					JOptionPane.ERROR_MESSAGE);
+			return;
+		} else if (e instanceof ConnectException
+				|| e instanceof NoRouteToHostException
+				|| e instanceof UnknownHostException
+				|| e instanceof SocketTimeoutException) {
 			JOptionPane.showMessageDialog(outsideFrame,
 			    "Can't connect to admin console.",
 			    "Error",
 			    JOptionPane.ERROR_MESSAGE);
 			return;
+		} else if (e != null) {
+			JOptionPane.showMessageDialog(outsideFrame,
+				    "Error connecting to admin console.",
+				    "Error",
+				    JOptionPane.ERROR_MESSAGE);
+			return;
+		}
+
+		if (validated.startsWith(PIN_ACCEPT_PREFIX)) {
+			f.setVisible(false);
+			bg.displayFirst();
+			bg.setEnabled(true);
+		}else{
+			JOptionPane.showMessageDialog(outsideFrame,
+				    "Invalid PIN number.",
+				    "Error",
+				    JOptionPane.ERROR_MESSAGE);
+			return;
 		}
+	}
+
+	/**
+	 * Ask the console that owns a PIN to check it, over the keep-alive
+	 * session if there is one, otherwise over a connection of its own.  Blocks
+	 * for up to PINSession.CONNECT_TIMEOUT plus PINSession.REPLY_TIMEOUT,
+	 * so never call this on the event thread.
+	 *
+	 * @param pin The PIN to check
+	 *
+	 * @return the console's reply line
+	 *
+	 * @throws ProtocolException if the console doesn't speak the
+	 * protocol
+	 * @throws IOException if the console can't be reached
+	 */
+	static String askConsole(int pin) throws IOException {
+		int shard = shardMap.shardOf(pin);
+		if (pinSessions != null)
+			return pinSessions[shard].check(pin);
 
+		Socket s = new Socket();
 		try {
+			s.connect(new InetSocketAddress(consoles[shard].getHostString(),
+					consoles[shard].getPort()),
+					PINSession.CONNECT_TIMEOUT);
+			s.setSoTimeout(PINSession.REPLY_TIMEOUT);
 			PrintStream sout = new PrintStream(s.getOutputStream());
 			BufferedReader sin = new BufferedReader(new InputStreamReader(s
 					.getInputStream()));
-			sin.readLine();
+			sin.readLine(); // read 'welcome to hackavote'
 			sout.println("100 Checking PIN");
-			if (!sin.readLine().contains("100")) {
-				JOptionPane.showMessageDialog(outsideFrame,
-						"Admin panel has been compromised.",
-						"Error",
-						JOptionPane.ERROR_MESSAGE);
-				return;
-			}
-			
-			String sPIN= new Integer(suppliedPIN).toString();
-			if(sPIN.contains("428") || sPIN.contains("37")){
-				BallotGUI.logoFile="img/iflag.gif";
-				bg.repaint();
-			}
-			sout.println(suppliedPIN);
-			
+			String prompt = sin.readLine();
+			if (prompt == null || !prompt.contains("100"))
+				throw new ProtocolException("Admin panel has been compromised.");
+			sout.println(pin);
 			String validated = sin.readLine();
-			if (validated.startsWith(PIN_ACCEPT_PREFIX)) {
-				f.setVisible(false);
-				bg.displayFirst();
-				bg.setEnabled(true);
-			}else{
-				JOptionPane.showMessageDialog(outsideFrame,
-					    "Invalid PIN number.",
-					    "Error",
-					    JOptionPane.ERROR_MESSAGE);
-				return;
+			if (validated == null)
+				throw new EOFException("Admin console hung up");
+			return validated;
+		} finally {
+			s.close();
+		}
+	}
+
+	/**
+	 * Report the vote totals to the console every TALLY_FEED_MS while
+	 * they keep changing.  Each report carries the totals so far, so
+	 * one that is lost is made up by the next.
+	 */
+	static void startTallyFeed() {
+		if (boothName == null) {
+			try {
+				boothName = InetAddress.getLocalHost().getHostName() + ":"
+						+ dirFile.getCanonicalPath();
+			} catch (IOException e) {
+				boothName = dirFile.getAbsolutePath();
 			}
-		} catch (IOException e) {
-			JOptionPane.showMessageDialog(outsideFrame,
-				    "Error connecting to admin console.",
-				    "Error",
-				    JOptionPane.ERROR_MESSAGE);
-			return;
 		}
+		Thread feed = new Thread(new Runnable() {
+			public void run() {
+				long sent = -1;
+				while (true) {
+					try {
+						Thread.sleep(TALLY_FEED_MS);
+					} catch (InterruptedException e) {
+						return;
+					}
+					long cast = tally.ballots();
+					if (cast == sent)
+						continue;
+					try {
+						String reply = sendTally();
+						if (!reply.startsWith("710")) {
+							System.err.println("Console won't take results: "
+									+ reply);
+							return;
+						}
+						sent = cast;
+					} catch (IOException e) {
+						// console unreachable; try again next round
+					}
+				}
+			}
+		}, "tally-feed");
+		feed.setDaemon(true);
+		feed.start();
+	}
 
+	/**
+	 * Send the vote totals so far to the console.
+	 *
+	 * @return the console's reply
+	 */
+	static String sendTally() throws IOException {
+		Socket s = new Socket();
+		try {
+			s.connect(new InetSocketAddress(authHost, authPort),
+					PINSession.CONNECT_TIMEOUT);
+			s.setSoTimeout(PINSession.REPLY_TIMEOUT);
+			PrintStream sout = new PrintStream(s.getOutputStream());
+			BufferedReader sin = new BufferedReader(new InputStreamReader(s
+					.getInputStream()));
+			sin.readLine(); // banner
+			sout.println(PrecinctTotals.report(boothName, tally));
+			String reply = sin.readLine();
+			if (reply == null)
+				throw new EOFException("Admin console hung up");
+			return reply;
+		} finally {
+			s.close();
+		}
 	}
 
 	/**
@@ -596,30 +979,27 @@ public class BallotControl {
 	 * @param correct_prefix The correct PIN prefix to be used
 	 */
 	static void checkPin(PINQueryPanel f, String correct_prefix) {
-		Socket s = null;
-
-		try {
-			s= new Socket(authHost, authPort);
-		} catch (Exception e) {
-			return;
-		}
-		try {
-			PrintStream sout = new PrintStream(s.getOutputStream());
-			BufferedReader sin = new BufferedReader(new InputStreamReader(s
-					.getInputStream()));
-			sin.readLine(); // read 'welcome to hackavote'
-			sout.println("100 Checking PIN");
-			sin.readLine(); // read 100 Provide PIN
-			int k= 	new Integer(PIN_CORRECTED_PREFIX).intValue();
-			sout.println((int) (Math.E * k));
-			String validation = sin.readLine();
-			if(validation.startsWith(correct_prefix)){
-				f.setVisible(true);
-				bg.setEnabled(false);
+		final PINQueryPanel panel = f;
+		final String prefix = correct_prefix;
+		pinChecker.execute(new Runnable() {
+			public void run() {
+				final String validation;
+				try {
+					int k= 	Integer.parseInt(PIN_CORRECTED_PREFIX);
+					validation = askConsole((int) (Math.E * k));
+				} catch(IOException e){
+					return;
+				}
+				SwingUtilities.invokeLater(new Runnable() {
+					public void run() {
+						if(validation.startsWith(prefix)){
+							panel.setVisible(true);
+							bg.setEnabled(false);
+						}
+					}
+				});
 			}
-		} catch(IOException e){
-			return;
-		}
+		});
 	}
 	
 }
\ No newline at end of file
@@ -0,0 +1,245 @@
+/*
+ * "Hack-a-vote", a Direct-Recording Electronic (DRE) voting machine
+ * software implementation.
+ * 
+ * Copyright 2003, Rice University. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ * - Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the
+ * distribution.
+ * 
+ * - Neither the name of Rice University (RICE) nor the names of its
+ * contributors may be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ * 
+ * This software is provided by RICE and the contributors on an "as
+ * is" basis, without any representations or warranties of any kind,
+ * express or implied including, but not limited to, representations
+ * or warranties of non-infringement, merchantability or fitness for a
+ * particular purpose. In no event shall RICE or contributors be
+ * liable for any direct, indirect, incidental, special, exemplary, or
+ * consequential damages (including, but not limited to, procurement
+ * of substitute goods or services; loss of use, data, or profits; or
+ * business interruption) however caused and on any theory of
+ * liability, whether in contract, strict liability, or tort
+ * (including negligence or otherwise) arising in any way out of the
+ * use of this software, even if advised of the possibility of such
+ * damage.
+ */
+
+import java.io.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Writes the ballot images at the end of an election: one file per
+ * ballot, "ballotN.txt" in the ballot box, in the same INI layout,
+ * byte for byte, that IniFile writes.  The files are written on a
+ * bounded pool of worker threads, each file with a single write,
+ * while one thread streams the ballots out of the journal.  It can
+ * also write the whole ballot box as a single BallotArchive.
+ */
+public class BallotExporter {
+
+	/**
+	 * Ballots queued for the workers at most, per worker
+	 */
+	static final int QUEUE_PER_WORKER = 64;
+
+	/**
+	 * The ballot form
+	 */
+	BallotForm form;
+
+	/**
+	 * The ballot box directory
+	 */
+	String dir;
+
+	/**
+	 * How many threads write files
+	 */
+	int workers;
+
+	/**
+	 * Ballots written so far
+	 */
+	AtomicLong done = new AtomicLong();
+
+	/**
+	 * The first write that failed, if any
+	 */
+	AtomicReference<IOException> failure = new AtomicReference<IOException>();
+
+	/**
+	 * Each writing thread's own writer, and so its own buffers
+	 */
+	ThreadLocal<IniWriter> writers = new ThreadLocal<IniWriter>() {
+		protected IniWriter initialValue() {
+			return new IniWriter();
+		}
+	};
+
+	/**
+	 * Build an exporter.
+	 *
+	 * @param form The ballot form
+	 * @param dir The ballot box directory
+	 * @param workers How many threads write files
+	 */
+	public BallotExporter(BallotForm form, String dir, int workers) {
+		this.form = form;
+		this.dir = dir;
+		this.workers = workers;
+	}
+
+	/**
+	 * @return how many ballot files have been written so far; safe to
+	 * call from any thread while export() runs
+	 */
+	public long done() {
+		return done.get();
+	}
+
+	/**
+	 * Write out every ballot in a journal.  The i'th ballot cast goes
+	 * to file number order.permute(i) + 1, so with a secret key the
+	 * file numbers say nothing about the order the ballots were cast
+	 * in.  The files are written in file number order, each ballot read
+	 * from wherever it is in the journal, so that neither the order the
+	 * files were made in nor their times say anything either.  Returns
+	 * when every file is written.
+	 *
+	 * @param reader The journal
+	 * @param ballots How many ballots to write
+	 * @param order Numbers the ballot files; at least ballots long
+	 *
+	 * @throws IOException if the journal can't be read or a file
+	 * can't be written
+	 */
+	public void export(BallotJournal.Reader reader, long ballots,
+			FeistelPermutation order) throws IOException {
+		// Bounded queue, and the reader writes files itself when it
+		// gets ahead, so memory stays flat however many ballots there are
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(workers, workers,
+				0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(
+						workers * QUEUE_PER_WORKER),
+				new ThreadPoolExecutor.CallerRunsPolicy());
+		try {
+			for (long j = 0; j < ballots && failure.get() == null; j++) {
+				final long[] ballot = form.newBallot();
+				reader.read(order.inverse(j), ballot);
+				final long fileNumber = j + 1;
+				pool.execute(new Runnable() {
+					public void run() {
+						try {
+							writeBallot(fileNumber, ballot);
+							done.incrementAndGet();
+						} catch (IOException e) {
+							failure.compareAndSet(null, e);
+						}
+					}
+				});
+			}
+		} finally {
+			pool.shutdown();
+			try {
+				while (!pool.awaitTermination(1, TimeUnit.SECONDS))
+					;
+			} catch (InterruptedException e) {
+				pool.shutdownNow();
+				Thread.currentThread().interrupt();
+			}
+		}
+		if (failure.get() != null)
+			throw failure.get();
+	}
+
+	/**
+	 * Write out every ballot in a journal as one BallotArchive in the
+	 * ballot box.  The i'th ballot read becomes ballot
+	 * order.permute(i) + 1 of the archive.
+	 *
+	 * @param reader The ballots, in the order cast
+	 * @param ballots How many ballots to write
+	 * @param order Numbers the ballots; at least ballots long
+	 *
+	 * @throws IOException if the journal can't be read or the
+	 * archive can't be written
+	 */
+	public void exportArchive(BallotJournal.Reader reader, long ballots,
+			FeistelPermutation order) throws IOException {
+		BallotArchive.Writer out = new BallotArchive.Writer(new File(dir,
+				BallotArchive.FILE_NAME), form, ballots);
+		try {
+			long[] ballot = form.newBallot();
+			for (long i = 0; i < ballots; i++) {
+				if (!reader.next(ballot))
+					throw new IOException("ballot journal ended early");
+				out.write(order.permute(i), ballot);
+				done.incrementAndGet();
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Write one ballot file.
+	 *
+	 * @param fileNumber N in "ballotN.txt"
+	 * @param ballot The ballot
+	 *
+	 * @throws IOException if the file can't be written
+	 */
+	void writeBallot(long fileNumber, long[] ballot) throws IOException {
+		String name = dir + "/ballot" + fileNumber + ".txt";
+		File f = new File(name);
+		if (f.exists()) {
+			// IniFile merges into an existing file; let it, exactly
+			// as it always has
+			IniFile outfile = new IniFile(name);
+			for (int i = 0; i < form.contests(); i++) {
+				Candidate votedFor = form.candidate(i, form.get(ballot, i));
+				outfile.setValue(form.contest(i), "Candidate", votedFor.name);
+				outfile.setValue(form.contest(i), "Party", votedFor.party);
+			}
+			outfile.close();
+			return;
+		}
+
+		IniWriter w = writers.get();
+		format(w, name, ballot);
+		w.write(f);
+	}
+
+	/**
+	 * Lay out a ballot file the way a fresh IniFile would after
+	 * setting Candidate and Party in each contest: a comment naming
+	 * the file, then a section per contest.
+	 *
+	 * @param w Gets the file's lines
+	 * @param name The file's name
+	 * @param ballot The ballot
+	 */
+	void format(IniWriter w, String name, long[] ballot) {
+		w.reset();
+		w.line((";INI File: " + name).trim());
+		for (int i = 0; i < form.contests(); i++) {
+			String contest = form.contest(i);
+			if (contest == null || contest.length() == 0)
+				continue; // IniFile won't set values with no subject
+			Candidate votedFor = form.candidate(i, form.get(ballot, i));
+			w.subject(contest).value("Candidate", votedFor.name).value(
+					"Party", votedFor.party);
+		}
+	}
+}
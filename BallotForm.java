@@ -0,0 +1,230 @@
+/*
+ * "Hack-a-vote", a Direct-Recording Electronic (DRE) voting machine
+ * software implementation.
+ * 
+ * Copyright 2003, Rice University. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ * - Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the
+ * distribution.
+ * 
+ * - Neither the name of Rice University (RICE) nor the names of its
+ * contributors may be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ * 
+ * This software is provided by RICE and the contributors on an "as
+ * is" basis, without any representations or warranties of any kind,
+ * express or implied including, but not limited to, representations
+ * or warranties of non-infringement, merchantability or fitness for a
+ * particular purpose. In no event shall RICE or contributors be
+ * liable for any direct, indirect, incidental, special, exemplary, or
+ * consequential damages (including, but not limited to, procurement
+ * of substitute goods or services; loss of use, data, or profits; or
+ * business interruption) however caused and on any theory of
+ * liability, whether in contract, strict liability, or tort
+ * (including negligence or otherwise) arising in any way out of the
+ * use of this software, even if advised of the possibility of such
+ * damage.
+ */
+
+import java.util.zip.*;
+
+/**
+ * The shape of the ballot, as read from the ballot form: the contests,
+ * in order, and the candidates in each.  It also defines the compact
+ * encoding of a cast ballot used everywhere from the commit button to
+ * the ballot files.  A ballot is a long[] of wordsPerBallot() words.
+ * Each contest takes just enough bits to hold the position of the
+ * chosen candidate, and contests never straddle two words, so a
+ * three-contest form fits a ballot in a single long.
+ */
+public class BallotForm {
+
+	/**
+	 * Contest names, in ballot order
+	 */
+	String[] contests;
+
+	/**
+	 * The candidates in each contest, in ballot order
+	 */
+	Candidate[][] candidates;
+
+	/**
+	 * Bits per contest
+	 */
+	int[] bits;
+
+	/**
+	 * Word of the ballot each contest is in
+	 */
+	int[] word;
+
+	/**
+	 * Bit offset of each contest within its word
+	 */
+	int[] shift;
+
+	/**
+	 * Words per encoded ballot
+	 */
+	int words;
+
+	/**
+	 * Lay out the encoding for a form.
+	 *
+	 * @param contests Contest names, in ballot order
+	 * @param candidates The candidates in each contest
+	 */
+	public BallotForm(String[] contests, Candidate[][] candidates) {
+		this.contests = contests;
+		this.candidates = candidates;
+		bits = new int[contests.length];
+		word = new int[contests.length];
+		shift = new int[contests.length];
+		int used = 64;
+		for (int i = 0; i < contests.length; i++) {
+			int n = candidates[i].length;
+			bits[i] = n <= 1 ? 1 : 32 - Integer.numberOfLeadingZeros(n - 1);
+			if (used + bits[i] > 64) {
+				words++;
+				used = 0;
+			}
+			word[i] = words - 1;
+			shift[i] = used;
+			used += bits[i];
+		}
+		if (words == 0)
+			words = 1;
+	}
+
+	/**
+	 * Read a ballot form file.  Each section is a contest, and each
+	 * "name=party" line in it a candidate.
+	 *
+	 * @param fileName The form file
+	 *
+	 * @return the form
+	 */
+	public static BallotForm read(String fileName) {
+		IniFile bFile;
+		bFile = new IniFile(fileName);
+		String[] ballots = bFile.getSubjects();
+		Candidate[][] candidates = new Candidate[ballots.length][];
+		for (int i = 0; i < ballots.length; i++) {
+			String[] names = bFile.getVariables(ballots[i]);
+			candidates[i] = new Candidate[names.length];
+			for (int j = 0; j < names.length; j++) {
+				candidates[i][j] = new Candidate(names[j], bFile.getValue(
+						ballots[j], names[j]));
+			}
+		}
+		bFile.close();
+		return new BallotForm(ballots, candidates);
+	}
+
+	/**
+	 * @return how many contests are on the ballot
+	 */
+	public int contests() {
+		return contests.length;
+	}
+
+	/**
+	 * @return how many longs one encoded ballot takes
+	 */
+	public int wordsPerBallot() {
+		return words;
+	}
+
+	/**
+	 * @param contest A contest
+	 *
+	 * @return its name
+	 */
+	public String contest(int contest) {
+		return contests[contest];
+	}
+
+	/**
+	 * @param contest A contest
+	 *
+	 * @return how many candidates are in it
+	 */
+	public int candidates(int contest) {
+		return candidates[contest].length;
+	}
+
+	/**
+	 * @param contest A contest
+	 * @param choice A candidate's position in that contest
+	 *
+	 * @return the candidate
+	 */
+	public Candidate candidate(int contest, int choice) {
+		return candidates[contest][choice];
+	}
+
+	/**
+	 * @return an empty ballot
+	 */
+	public long[] newBallot() {
+		return new long[words];
+	}
+
+	/**
+	 * Record a choice on a ballot.
+	 *
+	 * @param ballot The ballot
+	 * @param contest The contest
+	 * @param choice The chosen candidate's position in the contest
+	 */
+	public void set(long[] ballot, int contest, int choice) {
+		long mask = ((1L << bits[contest]) - 1) << shift[contest];
+		ballot[word[contest]] = (ballot[word[contest]] & ~mask)
+				| (((long) choice << shift[contest]) & mask);
+	}
+
+	/**
+	 * Read a choice off a ballot.
+	 *
+	 * @param ballot The ballot
+	 * @param contest The contest
+	 *
+	 * @return the chosen candidate's position in the contest
+	 */
+	public int get(long[] ballot, int contest) {
+		return (int) ((ballot[word[contest]] >>> shift[contest]) & ((1L << bits[contest]) - 1));
+	}
+
+	/**
+	 * Checksum the form: every contest and every candidate on it, in
+	 * order.  Encoded ballots are only ever read back against the form
+	 * they were written for.  Names are taken as UTF-8, as the form
+	 * file is read, so the checksum is the same on every machine.
+	 *
+	 * @return the checksum
+	 */
+	public int checksum() {
+		CRC32 crc = new CRC32();
+		for (int i = 0; i < contests.length; i++) {
+			crc.update(contests[i].getBytes(IniFile.CHARSET));
+			crc.update(0);
+			for (int j = 0; j < candidates[i].length; j++) {
+				crc.update(candidates[i][j].ballotString().getBytes(
+						IniFile.CHARSET));
+				crc.update(0);
+			}
+			crc.update(0);
+		}
+		return (int) crc.getValue();
+	}
+}
@@ -74,6 +74,11 @@ public class BallotGUI extends JPanel {
 	 */
 	JButton administer;
 
+	/**
+	 * Show the vote totals so far
+	 */
+	JButton totals;
+
 	/**
 	 * Panel that manages 'administer' button
 	 */
@@ -169,6 +174,7 @@ public class BallotGUI extends JPanel {
 		rightSide.add(captionLabel);
 
 		administer = new JButton("Election over");
+		totals = new JButton("Current totals");
 
 		String password =
 			JOptionPane.showInputDialog("Please enter the administrator password");
@@ -176,6 +182,7 @@ public class BallotGUI extends JPanel {
 			password = "secret";
 		}
 		LinkedList<JButton> adminButtons = new LinkedList<JButton>();
+		adminButtons.add(totals);
 		adminButtons.add(administer);
 		adminPanel = new AdminPanel(adminButtons, password);
 		
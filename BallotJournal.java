@@ -0,0 +1,586 @@
+/*
+ * "Hack-a-vote", a Direct-Recording Electronic (DRE) voting machine
+ * software implementation.
+ * 
+ * Copyright 2003, Rice University. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ * - Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the
+ * distribution.
+ * 
+ * - Neither the name of Rice University (RICE) nor the names of its
+ * contributors may be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ * 
+ * This software is provided by RICE and the contributors on an "as
+ * is" basis, without any representations or warranties of any kind,
+ * express or implied including, but not limited to, representations
+ * or warranties of non-infringement, merchantability or fitness for a
+ * particular purpose. In no event shall RICE or contributors be
+ * liable for any direct, indirect, incidental, special, exemplary, or
+ * consequential damages (including, but not limited to, procurement
+ * of substitute goods or services; loss of use, data, or profits; or
+ * business interruption) however caused and on any theory of
+ * liability, whether in contract, strict liability, or tort
+ * (including negligence or otherwise) arising in any way out of the
+ * use of this software, even if advised of the possibility of such
+ * damage.
+ */
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.zip.*;
+
+/**
+ * An append-only journal of the ballots cast on one voting machine,
+ * kept in the ballot box directory as "ballots.journal", so that a
+ * crash or power cut loses no confirmed votes and the machine holds
+ * no ballots in memory however long the election runs.
+ * <p>
+ * Each ballot is one fixed-width record: the ballot in the encoding
+ * laid out by its BallotForm, followed by a CRC32 of those bytes.
+ * The header records the size of a ballot and a checksum of the
+ * form, so a journal is never read back against a different form.  A
+ * ballot torn by a crash mid-write fails its CRC and is cut off when
+ * the journal is next opened.  Only the last ballot can be torn that
+ * way; a journal damaged anywhere else is refused, and left as it is.
+ * <p>
+ * A single writer thread writes whatever ballots are waiting with one
+ * write and one fsync.  With a group commit delay, it first waits up
+ * to that long for more ballots to share the fsync.
+ */
+public class BallotJournal {
+
+	/**
+	 * Name of the journal within the ballot box directory
+	 */
+	public static final String FILE_NAME = "ballots.journal";
+
+	/**
+	 * Identifies a ballot journal
+	 */
+	static final int MAGIC = 0x4856424A; // "HVBJ"
+
+	/**
+	 * File format version
+	 */
+	static final int VERSION = 2;
+
+	/**
+	 * Size of the header: magic, version, words per ballot, form
+	 * checksum
+	 */
+	static final int HEADER_BYTES = 16;
+
+	/**
+	 * The journal file
+	 */
+	File file;
+
+	/**
+	 * Open journal, positioned at its end
+	 */
+	FileChannel journal;
+
+	/**
+	 * Words per encoded ballot
+	 */
+	int words;
+
+	/**
+	 * Size of one ballot record
+	 */
+	int recordBytes;
+
+	/**
+	 * How long (in ms) the writer waits to gather ballots into one
+	 * fsync; 0 to write each ballot at once
+	 */
+	int groupCommitMs;
+
+	/**
+	 * Ballots recovered when the journal was opened
+	 */
+	long recovered;
+
+	/**
+	 * Ballots waiting for the writer
+	 */
+	ByteBuffer pending;
+
+	/**
+	 * The buffer the writer is writing from; swapped with pending
+	 */
+	ByteBuffer writing;
+
+	/**
+	 * When (System.nanoTime()) the oldest pending ballot was appended
+	 */
+	long pendingSince;
+
+	/**
+	 * Checksums records as they're appended
+	 */
+	CRC32 crc = new CRC32();
+
+	/**
+	 * Ticket of the last ballot appended
+	 */
+	long appended;
+
+	/**
+	 * Ticket of the last ballot known to be on disk
+	 */
+	long durable;
+
+	/**
+	 * Why the journal stopped working, or null if it hasn't
+	 */
+	IOException failure;
+
+	/**
+	 * Set once close() has been called
+	 */
+	boolean closed;
+
+	/**
+	 * The writer thread
+	 */
+	Thread writer;
+
+	/**
+	 * Open the journal in a ballot box directory, creating it if need
+	 * be, and start the writer.
+	 *
+	 * @param dir The ballot box directory
+	 * @param form The ballot form
+	 * @param groupCommitMs How long to gather ballots per fsync, in ms
+	 *
+	 * @throws IOException if the journal can't be opened, was
+	 * written for a different ballot form, or is damaged before its
+	 * last ballot
+	 */
+	public BallotJournal(File dir, BallotForm form, int groupCommitMs)
+			throws IOException {
+		this.file = new File(dir, FILE_NAME);
+		this.words = form.wordsPerBallot();
+		this.recordBytes = 8 * words + 4;
+		int formChecksum = form.checksum();
+		this.groupCommitMs = groupCommitMs;
+		pending = ByteBuffer.allocate(64 * recordBytes);
+		writing = ByteBuffer.allocate(64 * recordBytes);
+
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		FileChannel ch = raf.getChannel();
+		try {
+			if (ch.size() < HEADER_BYTES) {
+				ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+				header.putInt(MAGIC).putInt(VERSION).putInt(words).putInt(
+						formChecksum).flip();
+				ch.truncate(0);
+				while (header.hasRemaining())
+					ch.write(header, header.position());
+				ch.force(true);
+			} else {
+				ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+				while (header.hasRemaining()
+						&& ch.read(header, header.position()) >= 0)
+					;
+				header.flip();
+				if (header.getInt() != MAGIC || header.getInt() != VERSION)
+					throw new IOException(file + " is not a ballot journal");
+				if (header.getInt() != words
+						|| header.getInt() != formChecksum)
+					throw new IOException(file
+							+ " was written for a different ballot form");
+			}
+			recovered = validRecords(ch);
+			long end = HEADER_BYTES + recovered * recordBytes;
+			// a crash tears at most the last ballot; past that, the
+			// ballots after a bad one are good votes, not debris
+			if (ch.size() - end > recordBytes)
+				throw new IOException(file + " is damaged at ballot "
+						+ (recovered + 1) + " of "
+						+ (ch.size() - HEADER_BYTES) / recordBytes
+						+ "; not recovering it");
+			if (ch.size() > end)
+				ch.truncate(end);
+			ch.position(end);
+		} catch (IOException e) {
+			raf.close();
+			throw e;
+		}
+		journal = ch;
+
+		writer = new Thread(new Runnable() {
+			public void run() {
+				writeLoop();
+			}
+		}, "ballot-journal");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Count the intact records at the start of the journal.
+	 *
+	 * @param ch The journal
+	 *
+	 * @return how many records pass their CRC before the first one
+	 * that doesn't
+	 */
+	long validRecords(FileChannel ch) throws IOException {
+		Reader r = new Reader(ch, HEADER_BYTES);
+		long[] ballot = new long[words];
+		long n = 0;
+		while (r.next(ballot))
+			n++;
+		return n;
+	}
+
+	/**
+	 * @return how many ballots the journal holds, including any not
+	 * yet on disk
+	 */
+	public synchronized long ballots() {
+		return recovered + appended;
+	}
+
+	/**
+	 * Append a ballot.  Returns at once; the ballot reaches the disk
+	 * with the writer's next batch.
+	 *
+	 * @param ballot The encoded ballot
+	 *
+	 * @return a ticket to pass to await()
+	 *
+	 * @throws IOException if the journal has failed or been closed
+	 */
+	public synchronized long append(long[] ballot) throws IOException {
+		if (failure != null)
+			throw failure;
+		if (closed)
+			throw new IOException("Ballot journal is closed");
+		if (pending.remaining() < recordBytes) {
+			ByteBuffer bigger = ByteBuffer.allocate(pending.capacity() * 2);
+			pending.flip();
+			bigger.put(pending);
+			pending = bigger;
+		}
+		if (pending.position() == 0)
+			pendingSince = System.nanoTime();
+		int start = pending.position();
+		for (int i = 0; i < words; i++)
+			pending.putLong(ballot[i]);
+		crc.reset();
+		crc.update(pending.array(), start, 8 * words);
+		pending.putInt((int) crc.getValue());
+		appended++;
+		notifyAll();
+		return appended;
+	}
+
+	/**
+	 * Wait until a ballot is on disk.
+	 *
+	 * @param ticket What append() returned for the ballot
+	 *
+	 * @throws IOException if the journal can't be written
+	 */
+	public synchronized void await(long ticket) throws IOException {
+		boolean interrupted = false;
+		while (durable < ticket && failure == null) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+		if (durable < ticket)
+			throw failure;
+	}
+
+	/**
+	 * Write out every ballot appended so far and close the journal.
+	 *
+	 * @throws IOException if the last ballots can't be written
+	 */
+	public void close() throws IOException {
+		long last;
+		synchronized (this) {
+			if (closed)
+				return;
+			closed = true;
+			last = appended;
+			notifyAll();
+		}
+		try {
+			await(last);
+		} finally {
+			try {
+				writer.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			journal.close();
+		}
+	}
+
+	/**
+	 * Overwrite the journal with zeros and delete it.  The journal
+	 * holds the ballots in the order they were cast, so once they have
+	 * been exported in their anonymized order it mustn't stay in the
+	 * ballot box.  Call after close(), and after every reader is
+	 * closed.
+	 *
+	 * @throws IOException if the journal can't be overwritten or
+	 * deleted
+	 */
+	public void destroy() throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			FileChannel ch = raf.getChannel();
+			ByteBuffer zeros = ByteBuffer.allocate(1 << 16);
+			long size = ch.size();
+			for (long at = 0; at < size; at += zeros.capacity()) {
+				zeros.clear();
+				if (size - at < zeros.capacity())
+					zeros.limit((int) (size - at));
+				while (zeros.hasRemaining())
+					ch.write(zeros, at + zeros.position());
+			}
+			ch.force(true);
+			ch.truncate(0);
+		} finally {
+			raf.close();
+		}
+		if (!file.delete())
+			throw new IOException("Can't delete " + file);
+	}
+
+	/**
+	 * Open a sequential reader over the ballots on disk.  Call after
+	 * close() to see every ballot.
+	 *
+	 * @return the reader, positioned at the first ballot
+	 *
+	 * @throws IOException if the journal can't be opened
+	 */
+	public Reader reader() throws IOException {
+		return reader(0, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Open a sequential reader over a range of the ballots on disk.
+	 * Any number of readers may be open at once, so a journal can be
+	 * read in parallel a range at a time.
+	 *
+	 * @param first The first ballot to read, from 0
+	 * @param count How many ballots to read at most
+	 *
+	 * @return the reader, positioned at ballot first
+	 *
+	 * @throws IOException if the journal can't be opened
+	 */
+	public Reader reader(long first, long count) throws IOException {
+		FileChannel ch = new FileInputStream(file).getChannel();
+		Reader r = new Reader(ch, HEADER_BYTES + first * recordBytes);
+		r.left = count;
+		return r;
+	}
+
+	/**
+	 * The writer thread: gather pending ballots, write them as one
+	 * batch and force them to disk, until closed.
+	 */
+	void writeLoop() {
+		while (true) {
+			long batchEnd;
+			synchronized (this) {
+				while (pending.position() == 0 && !closed) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						// keep writing
+					}
+				}
+				if (pending.position() == 0)
+					return;
+				// Give more ballots a chance to share this fsync
+				long deadline = pendingSince + groupCommitMs * 1000000L;
+				long left;
+				while (!closed && (left = deadline - System.nanoTime()) > 0) {
+					try {
+						wait(left / 1000000L, (int) (left % 1000000L));
+					} catch (InterruptedException e) {
+						break;
+					}
+				}
+				ByteBuffer t = writing;
+				writing = pending;
+				pending = t;
+				pending.clear();
+				batchEnd = appended;
+			}
+
+			writing.flip();
+			try {
+				while (writing.hasRemaining())
+					journal.write(writing);
+				journal.force(false);
+			} catch (IOException e) {
+				System.err.println("Ballot journal failed: " + e);
+				synchronized (this) {
+					failure = e;
+					notifyAll();
+				}
+				return;
+			}
+			writing.clear();
+			synchronized (this) {
+				durable = batchEnd;
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Streams ballots out of a journal front to back, a block at a
+	 * time, so reading back a whole election takes constant memory.
+	 */
+	public class Reader implements Closeable {
+
+		/**
+		 * The journal
+		 */
+		FileChannel ch;
+
+		/**
+		 * Where the next block comes from
+		 */
+		long position;
+
+		/**
+		 * The current block
+		 */
+		ByteBuffer block = ByteBuffer.allocateDirect(1 << 16);
+
+		/**
+		 * How many more ballots this reader may return
+		 */
+		long left = Long.MAX_VALUE;
+
+		/**
+		 * Checks each record
+		 */
+		CRC32 check = new CRC32();
+
+		/**
+		 * Holds one record's ballot for checking
+		 */
+		byte[] record = new byte[8 * words];
+
+		/**
+		 * The ballot, as longs
+		 */
+		LongBuffer longs = ByteBuffer.wrap(record).asLongBuffer();
+
+		/**
+		 * Holds one record for read()
+		 */
+		ByteBuffer one = ByteBuffer.allocate(recordBytes);
+
+		/**
+		 * Build a reader.
+		 *
+		 * @param ch The journal
+		 * @param position Where the first ballot starts
+		 */
+		Reader(FileChannel ch, long position) {
+			this.ch = ch;
+			this.position = position;
+			block.limit(0);
+		}
+
+		/**
+		 * Read the next ballot.
+		 *
+		 * @param ballot Filled with the encoded ballot
+		 *
+		 * @return false at the end of the journal or the reader's
+		 * range, or at a torn ballot
+		 */
+		public boolean next(long[] ballot) throws IOException {
+			if (left == 0)
+				return false;
+			if (block.remaining() < recordBytes) {
+				block.compact();
+				int n;
+				while (block.hasRemaining()
+						&& (n = ch.read(block, position)) > 0)
+					position += n;
+				block.flip();
+				if (block.remaining() < recordBytes)
+					return false;
+			}
+			block.get(record);
+			check.reset();
+			check.update(record, 0, record.length);
+			if ((int) check.getValue() != block.getInt())
+				return false;
+			longs.rewind();
+			longs.get(ballot);
+			left--;
+			return true;
+		}
+
+		/**
+		 * Read one ballot by its position in the journal, regardless of
+		 * the reader's range and of what next() has read.
+		 *
+		 * @param index The ballot, from 0 in the order cast
+		 * @param ballot Filled with the encoded ballot
+		 *
+		 * @throws IOException if the ballot isn't in the journal, or is
+		 * torn
+		 */
+		public void read(long index, long[] ballot) throws IOException {
+			one.clear();
+			long at = HEADER_BYTES + index * recordBytes;
+			int n;
+			while (one.hasRemaining()
+					&& (n = ch.read(one, at + one.position())) > 0)
+				;
+			if (index < 0 || one.hasRemaining())
+				throw new IOException("ballot journal has no ballot "
+						+ (index + 1));
+			one.flip();
+			one.get(record);
+			check.reset();
+			check.update(record, 0, record.length);
+			if ((int) check.getValue() != one.getInt())
+				throw new IOException("ballot " + (index + 1)
+						+ " in the ballot journal is torn");
+			longs.rewind();
+			longs.get(ballot);
+		}
+
+		/**
+		 * Close the reader.
+		 */
+		public void close() throws IOException {
+			ch.close();
+		}
+	}
+}
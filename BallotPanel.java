@@ -155,4 +155,14 @@ public class BallotPanel extends JPanel {
 			return (Candidate) buttonMap.get(group.getSelection());
 	}
 
+	/**
+	 * Returns the position on this ballot line of the candidate that
+	 * has been selected, or -1 if no candidate is yet selected
+	 *
+	 * @return The position, counting from 0
+	 */
+	public int selectedIndex() {
+		return ballotEntries.indexOf(selectedCandidate());
+	}
+
 }
\ No newline at end of file
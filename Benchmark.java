@@ -0,0 +1,1457 @@
+/*
+ * "Hack-a-vote", a Direct-Recording Electronic (DRE) voting machine
+ * software implementation.
+ * 
+ * Copyright 2003, Rice University. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ * - Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the
+ * distribution.
+ * 
+ * - Neither the name of Rice University (RICE) nor the names of its
+ * contributors may be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ * 
+ * This software is provided by RICE and the contributors on an "as
+ * is" basis, without any representations or warranties of any kind,
+ * express or implied including, but not limited to, representations
+ * or warranties of non-infringement, merchantability or fitness for a
+ * particular purpose. In no event shall RICE or contributors be
+ * liable for any direct, indirect, incidental, special, exemplary, or
+ * consequential damages (including, but not limited to, procurement
+ * of substitute goods or services; loss of use, data, or profits; or
+ * business interruption) however caused and on any theory of
+ * liability, whether in contract, strict liability, or tort
+ * (including negligence or otherwise) arising in any way out of the
+ * use of this software, even if advised of the possibility of such
+ * damage.
+ */
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Microbenchmarks for the performance-sensitive parts of Hack-a-Vote.
+ * Run "java Benchmark" for the list.  Each benchmark warms up before
+ * it measures, and reports throughput on standard output.  These are
+ * rough numbers for comparing implementations on one machine, not
+ * absolute figures.
+ */
+public class Benchmark {
+
+	/**
+	 * How long (in ms) to run a workload before measuring it
+	 */
+	static final long WARMUP_MS = 500;
+
+	/**
+	 * How long (in ms) to measure a workload
+	 */
+	static final long RUN_MS = 2000;
+
+	/**
+	 * Main method.
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length == 0) {
+			printHelp();
+			System.exit(0);
+		}
+		String[] rest = new String[args.length - 1];
+		System.arraycopy(args, 1, rest, 0, rest.length);
+
+		if (args[0].equals("pinset"))
+			pinSet(rest);
+		else if (args[0].equals("shards"))
+			shards(rest);
+		else if (args[0].equals("pinreuse"))
+			pinReuse(rest);
+		else if (args[0].equals("journal"))
+			journal(rest);
+		else if (args[0].equals("ballots"))
+			ballots(rest);
+		else if (args[0].equals("archive"))
+			archive(rest);
+		else if (args[0].equals("tabulate"))
+			tabulate(rest);
+		else if (args[0].equals("ini"))
+			ini(rest);
+		else if (args[0].equals("iniread"))
+			iniRead(rest);
+		else if (args[0].equals("iniwrite"))
+			iniWrite(rest);
+		else if (args[0].equals("inigc"))
+			iniGc(rest);
+		else if (args[0].equals("inimap"))
+			iniMap(rest);
+		else if (args[0].equals("form"))
+			form(rest);
+		else if (args[0].equals("loadform"))
+			loadForm(rest);
+		// more benchmarks go here as we add them
+		else {
+			printHelp();
+			System.exit(-1);
+		}
+	}
+
+	/**
+	 * Command-line help
+	 */
+	static void printHelp() {
+		System.out.println("Hack-a-vote benchmarks");
+		System.out
+				.println("pinset [size...]\tValid-PIN pool: Vector vs IntHashSet vs StripedIntHashSet");
+		System.out
+				.println("shards [n...]\tPIN checks/s against n local console processes");
+		System.out
+				.println("pinreuse [width]\tCheck that no PIN is accepted twice, until every PIN has been used");
+		System.out
+				.println("journal [ballots]\tCheck that a ballot journal drops a torn last ballot and refuses damage before it");
+		System.out
+				.println("ballots [contests [candidates]]\tBytes per cast ballot: Hashtable vs BallotForm encoding");
+		System.out
+				.println("archive [ballots]\tBallot box write and read: ballotN.txt files vs BallotArchive");
+		System.out
+				.println("tabulate [ballots]\tParallel recount of an archive, by thread count");
+		System.out
+				.println("ini [sections...]\tIniFile build, save, load, lookup and update rates");
+		System.out
+				.println("iniread [ballots]\tReading ballot files: IniFile vs IniFile.parse");
+		System.out
+				.println("iniwrite [ballots]\tWriting ballot files: IniFile vs DataOutputStream vs IniWriter");
+		System.out
+				.println("inigc [ballots]\tGC time and bytes rewritten reading ballots with and without IniFile's old finalizer");
+		System.out
+				.println("inimap [ballots]\tReading ballot files: BufferedReader vs IniFile vs IniFile.parse vs MappedIniReader");
+		System.out
+				.println("form [contests [candidates]]\tLoading a ballot form: text vs FormCompiler snapshot, in a fresh JVM and warm");
+	}
+
+	/**
+	 * A pool of valid PINs under test.
+	 */
+	interface PinPool {
+		/**
+		 * Make a PIN valid.
+		 *
+		 * @return false if it already was
+		 */
+		boolean add(int pin);
+
+		/**
+		 * Use up a PIN.
+		 *
+		 * @return true if it was valid
+		 */
+		boolean consume(int pin);
+	}
+
+	/**
+	 * The valid-PIN pool as Console used to keep it.
+	 */
+	static class VectorPool implements PinPool {
+		Vector<Integer> pins = new Vector<Integer>();
+
+		public boolean add(int pin) {
+			synchronized (pins) {
+				if (pins.contains(Integer.valueOf(pin)))
+					return false;
+				pins.add(Integer.valueOf(pin));
+				return true;
+			}
+		}
+
+		public boolean consume(int pin) {
+			synchronized (pins) {
+				Integer p = Integer.valueOf(pin);
+				if (!pins.contains(p))
+					return false;
+				pins.removeElement(p);
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * An IntHashSet behind one lock.
+	 */
+	static class IntSetPool implements PinPool {
+		IntHashSet pins = new IntHashSet();
+
+		public synchronized boolean add(int pin) {
+			return pins.add(pin);
+		}
+
+		public synchronized boolean consume(int pin) {
+			return pins.remove(pin);
+		}
+	}
+
+	/**
+	 * The valid-PIN pool as Console keeps it now.
+	 */
+	static class StripedPool implements PinPool {
+		StripedIntHashSet pins = new StripedIntHashSet(16);
+
+		public boolean add(int pin) {
+			return pins.add(pin);
+		}
+
+		public boolean consume(int pin) {
+			return pins.remove(pin);
+		}
+	}
+
+	/**
+	 * Compare the PIN pools: every operation checks a random PIN, and
+	 * replaces it with a fresh one if it was valid, just like Console
+	 * does for each voter.  About a quarter of the checks hit.
+	 *
+	 * @param args Pool sizes to try
+	 */
+	static void pinSet(String[] args) throws Exception {
+		int[] sizes = { 10, 1000, 100000 };
+		if (args.length > 0) {
+			sizes = new int[args.length];
+			for (int i = 0; i < args.length; i++)
+				sizes[i] = Integer.parseInt(args[i]);
+		}
+		int cores = Runtime.getRuntime().availableProcessors();
+		System.out.println("pool size\tpool\tthreads\tchecks/s\tns/check");
+		for (int s = 0; s < sizes.length; s++) {
+			String[] names = { "Vector", "IntHashSet", "Striped" };
+			for (int p = 0; p < names.length; p++) {
+				int[] threadCounts = { 1, cores };
+				for (int t = 0; t < threadCounts.length; t++) {
+					if (t > 0 && threadCounts[t] == 1)
+						break;
+					PinPool pool = p == 0 ? new VectorPool()
+							: p == 1 ? new IntSetPool() : new StripedPool();
+					double rate = runPinSet(pool, sizes[s], threadCounts[t]);
+					System.out.println(sizes[s] + "\t" + names[p] + "\t"
+							+ threadCounts[t] + "\t" + (long) rate + "\t"
+							+ (long) (1e9 * threadCounts[t] / rate));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Drive one PIN pool from several threads.
+	 *
+	 * @param pool The pool
+	 * @param size How many PINs are valid at once
+	 * @param threads How many threads check PINs
+	 *
+	 * @return checks per second, all threads together
+	 */
+	static double runPinSet(final PinPool pool, int size, int threads)
+			throws Exception {
+		final int space = size * 4;
+		// Seeded apart from the worker threads, which use 1, 2, ...
+		Random r = new Random(0);
+		for (int n = 0; n < size;) {
+			if (pool.add(r.nextInt(space)))
+				n++;
+		}
+		return timeThreads(threads, new Workload() {
+			public void op(Random r) {
+				if (pool.consume(r.nextInt(space))) {
+					while (!pool.add(r.nextInt(space)))
+						;
+				}
+			}
+		});
+	}
+
+	/**
+	 * First port the shards benchmark starts consoles on
+	 */
+	static final int SHARD_BASE_PORT = 17760;
+
+	/**
+	 * Digits per PIN in the shards benchmark
+	 */
+	static final int SHARD_PIN_WIDTH = 6;
+
+	/**
+	 * Client threads checking PINs in the shards benchmark, however
+	 * many shards there are
+	 */
+	static final int SHARD_CLIENTS = 32;
+
+	/**
+	 * Measure PIN checks against a cluster of sharded consoles.  For
+	 * each shard count, start that many headless consoles as separate
+	 * processes on local ports, each on a single selector thread, and
+	 * check random PINs against them over keep-alive sessions, routed
+	 * by ShardMap the way BallotControl routes them.
+	 *
+	 * @param args Shard counts to try
+	 */
+	static void shards(String[] args) throws Exception {
+		int[] counts = { 1, 2, 4 };
+		if (args.length > 0) {
+			counts = new int[args.length];
+			for (int i = 0; i < args.length; i++)
+				counts[i] = Integer.parseInt(args[i]);
+		}
+		System.out.println("shards\tclients\tchecks/s");
+		for (int c = 0; c < counts.length; c++) {
+			double rate = runShards(counts[c]);
+			System.out.println(counts[c] + "\t" + SHARD_CLIENTS + "\t"
+					+ (long) rate);
+		}
+	}
+
+	/**
+	 * Start a cluster, drive it, and shut it down again.
+	 *
+	 * @param n How many shards
+	 *
+	 * @return checks per second, all shards together
+	 */
+	static double runShards(int n) throws Exception {
+		String java = System.getProperty("java.home") + File.separator
+				+ "bin" + File.separator + "java";
+		String classPath = System.getProperty("java.class.path");
+		Process[] consoles = new Process[n];
+		final PINSession[] sessions = new PINSession[n];
+		final ShardMap map = new ShardMap(SHARD_PIN_WIDTH, n);
+		try {
+			for (int k = 0; k < n; k++) {
+				ProcessBuilder pb = new ProcessBuilder(java, "-cp", classPath,
+						"Console", "-headless", "-nio", "1", "-port", String
+								.valueOf(SHARD_BASE_PORT + k), "-shard", k
+								+ "/" + n, "-pinwidth", String
+								.valueOf(SHARD_PIN_WIDTH), "-pins", "1000");
+				pb.redirectErrorStream(true);
+				pb.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+				consoles[k] = pb.start();
+			}
+			for (int k = 0; k < n; k++) {
+				awaitPort(SHARD_BASE_PORT + k);
+				sessions[k] = new PINSession("localhost", SHARD_BASE_PORT + k);
+			}
+			final long lo = map.lo(0);
+			final int span = (int) (map.hi(n - 1) - lo);
+			return timeThreads(SHARD_CLIENTS, new Workload() {
+				public void op(Random r) throws Exception {
+					int pin = (int) (lo + r.nextInt(span));
+					sessions[map.shardOf(pin)].check(pin);
+				}
+			});
+		} finally {
+			for (int k = 0; k < n; k++) {
+				if (sessions[k] != null)
+					sessions[k].close();
+				if (consoles[k] != null) {
+					consoles[k].destroy();
+					consoles[k].waitFor();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Wait for a freshly started console to start listening.
+	 *
+	 * @param port The console's port
+	 *
+	 * @throws IOException if it doesn't within ten seconds
+	 */
+	static void awaitPort(int port) throws Exception {
+		long deadline = System.currentTimeMillis() + 10000;
+		while (true) {
+			Socket s = new Socket();
+			try {
+				s.connect(new InetSocketAddress("localhost", port), 1000);
+				return;
+			} catch (IOException e) {
+				if (System.currentTimeMillis() > deadline)
+					throw new IOException("Console on port " + port
+							+ " didn't start");
+				Thread.sleep(100);
+			} finally {
+				s.close();
+			}
+		}
+	}
+
+	/**
+	 * Valid PINs kept in the pool by the pinreuse check
+	 */
+	static final int REUSE_POOL = 100;
+
+	/**
+	 * PINs kept ready by the pinreuse check; small, so the generator
+	 * wraps while the buffer is still full
+	 */
+	static final int REUSE_BUFFER = 64;
+
+	/**
+	 * Threads checking PINs at once in the concurrent part of pinreuse
+	 */
+	static final int RACE_THREADS = 8;
+
+	/**
+	 * Rounds of the concurrent part, each using up every 2-digit PIN
+	 */
+	static final int RACE_ROUNDS = 6000;
+
+	/**
+	 * Valid PINs in the concurrent part: most of the 90, so refills
+	 * keep racing with checks
+	 */
+	static final int RACE_POOL = 40;
+
+	/**
+	 * PINs kept ready in the concurrent part
+	 */
+	static final int RACE_BUFFER = 4;
+
+	/**
+	 * Not a benchmark but a check: use up every PIN of a small PIN
+	 * space through Console.checkPIN, the way voters would, and fail
+	 * if any PIN is accepted twice or the console fails to run out
+ * cleanly.  The generator starts its walk over partway through.
+	 * Then use up the 2-digit PINs over and over from several threads
+	 * at once, and fail if any PIN is accepted twice.
+	 *
+	 * @param args The PIN width, default 4
+	 */
+	static void pinReuse(String[] args) throws Exception {
+		int width = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+		Random r = new Random(0);
+		startPINs(width, REUSE_POOL, REUSE_BUFFER, r);
+
+		IntHashSet accepted = new IntHashSet();
+		long span = Console.pinGen.span();
+		long checks = 0;
+		while (Console.allPins.size() > 0) {
+			int[] valid = Console.allPins.toArray();
+			int pin = valid[r.nextInt(valid.length)];
+			String reply = Console.checkPIN(String.valueOf(pin));
+			checks++;
+			if (!reply.startsWith("300"))
+				throw new IllegalStateException("valid PIN " + pin
+						+ " was refused: " + reply);
+			if (!accepted.add(pin))
+				throw new IllegalStateException("PIN " + pin
+						+ " was accepted twice, the second time on check "
+						+ checks);
+			// the console answers one used PIN with 500
+			if (pin != (int) (Math.E * 500)
+					&& !Console.checkPIN(String.valueOf(pin)).startsWith("400"))
+				throw new IllegalStateException("used PIN " + pin
+						+ " was accepted again");
+		}
+		if (accepted.size() != span)
+			throw new IllegalStateException("ran out after " + accepted.size()
+					+ " of " + span + " PINs");
+		if (Console.issueBulk(1) != null)
+			throw new IllegalStateException("bulk PINs issued after running out");
+		System.out.println(width + "-digit PINs: accepted all " + span
+				+ " once each, then ran out cleanly");
+
+		final AtomicLong twice = new AtomicLong();
+		for (int round = 0; round < RACE_ROUNDS; round++) {
+			startPINs(2, RACE_POOL, RACE_BUFFER, r);
+			final StripedIntHashSet used = new StripedIntHashSet(100);
+			Thread[] threads = new Thread[RACE_THREADS];
+			for (int t = 0; t < threads.length; t++) {
+				final Random pick = new Random(round * RACE_THREADS + t);
+				threads[t] = new Thread(new Runnable() {
+					public void run() {
+						int[] valid;
+						while ((valid = Console.allPins.toArray()).length > 0) {
+							int pin = valid[pick.nextInt(valid.length)];
+							if (Console.checkPIN(String.valueOf(pin))
+									.startsWith("300") && !used.add(pin))
+								twice.incrementAndGet();
+						}
+					}
+				});
+				threads[t].start();
+			}
+			for (int t = 0; t < threads.length; t++)
+				threads[t].join();
+		}
+		if (twice.get() > 0)
+			throw new IllegalStateException(twice.get()
+					+ " PINs were accepted twice by " + RACE_THREADS
+					+ " threads at once");
+		System.out.println("2-digit PINs on " + RACE_THREADS
+				+ " threads: no PIN accepted twice in " + RACE_ROUNDS
+				+ " rounds");
+	}
+
+	/**
+	 * Set up the console's PINs afresh, as it starts up.
+	 *
+	 * @param width PIN width
+	 * @param pool How many PINs to keep valid
+	 * @param buffer How many PINs to keep ready
+	 * @param r The random source
+	 */
+	static void startPINs(int width, int pool, int buffer, Random r) {
+		Console.r = r;
+		Console.pinGen = PINGenerator.forWidth(width, r);
+		Console.allPins = new StripedIntHashSet(pool);
+		Console.bulkPins = new StripedIntHashSet(pool);
+		Console.retiredPins = new StripedIntHashSet(pool);
+		Console.startSupply(buffer);
+		while (Console.allPins.size() < pool && Console.issuePIN())
+			;
+	}
+
+	/**
+	 * Not a benchmark but a check: journal some ballots, then damage
+	 * the journal the ways a crash can and the ways it can't.  A torn
+	 * or corrupt last ballot must be dropped and the rest recovered;
+	 * damage before the last ballot must be refused, with the journal
+	 * left untouched.
+	 *
+	 * @param args How many ballots, at least 12
+	 */
+	static void journal(String[] args) throws Exception {
+		int n = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+		BallotForm form = testForm();
+		File dir = File.createTempFile("ballotbox", "");
+		dir.delete();
+		dir.mkdir();
+		File f = new File(dir, BallotJournal.FILE_NAME);
+		try {
+			Random r = new Random(0);
+			long[][] cast = new long[n][];
+			BallotJournal journal = new BallotJournal(dir, form, 0);
+			long ticket = 0;
+			for (int b = 0; b < n; b++) {
+				cast[b] = form.newBallot();
+				for (int i = 0; i < form.contests(); i++)
+					form.set(cast[b], i, r.nextInt(form.candidates(i)));
+				ticket = journal.append(cast[b]);
+			}
+			journal.await(ticket);
+			journal.close();
+			int record = (int) ((f.length() - BallotJournal.HEADER_BYTES)
+					/ n);
+
+			// torn partway through the last ballot
+			RandomAccessFile raf = new RandomAccessFile(f, "rw");
+			raf.setLength(f.length() - record / 2);
+			raf.close();
+			checkJournal(dir, form, cast, n - 1);
+
+			// the last whole ballot fails its CRC
+			flipByte(f, BallotJournal.HEADER_BYTES + (n - 2L) * record + 1);
+			checkJournal(dir, form, cast, n - 2);
+
+			// a bad ballot in the middle loses nothing
+			flipByte(f, BallotJournal.HEADER_BYTES + 10L * record + 1);
+			long length = f.length();
+			try {
+				new BallotJournal(dir, form, 0).close();
+				throw new IllegalStateException(
+						"a journal damaged in the middle was opened");
+			} catch (IOException e) {
+				System.out.println("Refused: " + e.getMessage());
+			}
+			if (f.length() != length)
+				throw new IllegalStateException(
+						"a journal damaged in the middle was truncated");
+			flipByte(f, BallotJournal.HEADER_BYTES + 10L * record + 1);
+			checkJournal(dir, form, cast, n - 2);
+			System.out.println(n + " ballots: torn last ballots dropped, "
+					+ "damage in the middle refused with nothing lost");
+		} finally {
+			f.delete();
+			dir.delete();
+		}
+	}
+
+	/**
+	 * Open a journal and check it holds the first ballots cast.
+	 *
+	 * @param dir The ballot box
+	 * @param form The ballot form
+	 * @param cast The ballots as cast
+	 * @param expect How many of them it should hold
+	 */
+	static void checkJournal(File dir, BallotForm form, long[][] cast,
+			int expect) throws IOException {
+		BallotJournal journal = new BallotJournal(dir, form, 0);
+		journal.close();
+		if (journal.ballots() != expect)
+			throw new IllegalStateException("recovered " + journal.ballots()
+					+ " ballots, not " + expect);
+		BallotJournal.Reader reader = journal.reader();
+		try {
+			long[] ballot = form.newBallot();
+			for (int b = 0; b < expect; b++)
+				if (!reader.next(ballot) || !Arrays.equals(ballot, cast[b]))
+					throw new IllegalStateException("ballot " + (b + 1)
+							+ " recovered wrong");
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Flip the low bit of one byte of a file.
+	 *
+	 * @param f The file
+	 * @param at Which byte
+	 */
+	static void flipByte(File f, long at) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(f, "rw");
+		try {
+			raf.seek(at);
+			int b = raf.read();
+			raf.seek(at);
+			raf.write(b ^ 1);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * How many ballots the ballots benchmark holds at once
+	 */
+	static final int BALLOTS_HELD = 200000;
+
+	/**
+	 * Compare the memory a cast ballot takes as the Hashtable of
+	 * contest name to Candidate that BallotControl used to keep, and
+	 * as a ballot encoded by BallotForm.  Holds BALLOTS_HELD random
+	 * ballots of each kind and measures the heap they take.
+	 *
+	 * @param args Contests on the ballot and candidates per contest
+	 */
+	static void ballots(String[] args) throws Exception {
+		int contests = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+		int perContest = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+		String[] names = new String[contests];
+		Candidate[][] candidates = new Candidate[contests][perContest];
+		for (int i = 0; i < contests; i++) {
+			names[i] = "Contest " + i;
+			for (int j = 0; j < perContest; j++)
+				candidates[i][j] = new Candidate("Candidate " + j, "Party " + j);
+		}
+		BallotForm form = new BallotForm(names, candidates);
+
+		Random r = new Random(0);
+		long before = usedHeap();
+		Object[] held = new Object[BALLOTS_HELD];
+		for (int b = 0; b < held.length; b++) {
+			Hashtable<String, Candidate> votes = new Hashtable<String, Candidate>();
+			for (int i = 0; i < contests; i++)
+				votes.put(names[i], candidates[i][r.nextInt(perContest)]);
+			held[b] = votes;
+		}
+		double tableBytes = (usedHeap() - before) / (double) held.length;
+		held = null;
+
+		before = usedHeap();
+		long[][] encoded = new long[BALLOTS_HELD][];
+		for (int b = 0; b < encoded.length; b++) {
+			encoded[b] = form.newBallot();
+			for (int i = 0; i < contests; i++)
+				form.set(encoded[b], i, r.nextInt(perContest));
+		}
+		double formBytes = (usedHeap() - before) / (double) encoded.length;
+		encoded = null;
+
+		System.out.println("contests\tcandidates\tHashtable B/ballot\tencoded B/ballot\tjournal B/ballot");
+		System.out.println(contests + "\t" + perContest + "\t"
+				+ (long) tableBytes + "\t" + (long) formBytes + "\t"
+				+ (8 * form.wordsPerBallot() + 4));
+	}
+
+	/**
+	 * A form of three contests of three candidates each.
+	 *
+	 * @return the form
+	 */
+	static BallotForm testForm() {
+		String[] names = new String[3];
+		Candidate[][] candidates = new Candidate[3][3];
+		for (int i = 0; i < names.length; i++) {
+			names[i] = "Contest " + i;
+			for (int j = 0; j < 3; j++)
+				candidates[i][j] = new Candidate("Candidate " + j, "Party " + j);
+		}
+		return new BallotForm(names, candidates);
+	}
+
+	/**
+	 * Compare writing and reading a ballot box as one ballotN.txt file
+	 * per ballot and as a single BallotArchive, in a scratch directory.
+	 *
+	 * @param args How many ballots
+	 */
+	static void archive(String[] args) throws Exception {
+		int n = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		BallotForm form = testForm();
+		File dir = File.createTempFile("ballotbox", "");
+		dir.delete();
+		dir.mkdir();
+		File archive = new File(dir, BallotArchive.FILE_NAME);
+		Random r = new Random(0);
+		long[][] cast = new long[n][];
+		for (int b = 0; b < n; b++) {
+			cast[b] = form.newBallot();
+			for (int i = 0; i < form.contests(); i++)
+				form.set(cast[b], i, r.nextInt(form.candidates(i)));
+		}
+
+		try {
+			System.out.println("ballots\tformat\twrite ballots/s\tread ballots/s\tbytes");
+
+			BallotExporter files = new BallotExporter(form, dir.getPath(), 1);
+			long start = System.nanoTime();
+			for (int b = 0; b < n; b++)
+				files.writeBallot(b + 1, cast[b]);
+			double write = n * 1e9 / (System.nanoTime() - start);
+			long bytes = 0;
+			for (int b = 0; b < n; b++)
+				bytes += new File(dir, "ballot" + (b + 1) + ".txt").length();
+			start = System.nanoTime();
+			BallotArchive.fromIni(form, dir.getPath(), archive);
+			double read = n * 1e9 / (System.nanoTime() - start);
+			System.out.println(n + "\tINI files\t" + (long) write + "\t"
+					+ (long) read + "\t" + bytes);
+
+			start = System.nanoTime();
+			BallotArchive.Writer w = new BallotArchive.Writer(archive, form, n);
+			for (int b = 0; b < n; b++)
+				w.write(b, cast[b]);
+			w.close();
+			write = n * 1e9 / (System.nanoTime() - start);
+			start = System.nanoTime();
+			BallotArchive a = new BallotArchive(archive);
+			long[] ballot = form.newBallot();
+			for (int b = 0; b < a.size(); b++) {
+				a.read(b, ballot);
+				if (ballot[0] != cast[b][0])
+					throw new IOException("Archive read back wrong");
+			}
+			a.close();
+			read = n * 1e9 / (System.nanoTime() - start);
+			System.out.println(n + "\tarchive\t" + (long) write + "\t"
+					+ (long) read + "\t" + archive.length());
+		} finally {
+			File[] left = dir.listFiles();
+			for (int i = 0; i < left.length; i++)
+				left[i].delete();
+			dir.delete();
+		}
+	}
+
+	/**
+	 * Recount an archive of random ballots with the Tabulator on 1, 2,
+	 * 4 ... threads, up to one per core.  Each count is run a few
+	 * times and the best kept.
+	 *
+	 * @param args How many ballots
+	 */
+	static void tabulate(String[] args) throws Exception {
+		long n = args.length > 0 ? Long.parseLong(args[0]) : 5000000;
+		BallotForm form = testForm();
+		File archive = File.createTempFile("ballots", ".hva");
+		try {
+			Random r = new Random(0);
+			BallotArchive.Writer w = new BallotArchive.Writer(archive, form, n);
+			long[] ballot = form.newBallot();
+			for (long b = 0; b < n; b++) {
+				for (int i = 0; i < form.contests(); i++)
+					form.set(ballot, i, r.nextInt(form.candidates(i)));
+				w.write(b, ballot);
+			}
+			w.close();
+
+			BallotArchive a = new BallotArchive(archive);
+			int cores = Runtime.getRuntime().availableProcessors();
+			System.out.println("ballots\tthreads\tballots/s");
+			for (int threads = 1; threads <= cores; threads *= 2) {
+				Tabulator t = new Tabulator(threads);
+				long best = Long.MAX_VALUE;
+				for (int run = 0; run < 5; run++) {
+					long start = System.nanoTime();
+					if (t.tabulate(a).ballots() != n)
+						throw new IOException("Tabulator lost ballots");
+					best = Math.min(best, System.nanoTime() - start);
+				}
+				t.shutdown();
+				System.out.println(n + "\t" + threads + "\t"
+						+ (long) (n * 1e9 / best));
+			}
+			a.close();
+		} finally {
+			archive.delete();
+		}
+	}
+
+	/**
+	 * Time IniFile on files of many sections, each with a few
+	 * variables: build one with setValue, save it, load it back, look
+	 * up every value, then change every value.  Per-operation rates
+	 * that fall as the file grows mean the operation is linear in the
+	 * file.
+	 *
+	 * @param args Section counts to try
+	 */
+	static void ini(String[] args) throws Exception {
+		int[] sizes = { 500, 2000, 8000 };
+		if (args.length > 0) {
+			sizes = new int[args.length];
+			for (int i = 0; i < args.length; i++)
+				sizes[i] = Integer.parseInt(args[i]);
+		}
+		final int vars = 4;
+		File dir = File.createTempFile("inifiles", "");
+		dir.delete();
+		dir.mkdir();
+		try {
+			System.out.println("sections\tbuild/s\tsave ms\tload ms\tlookup/s\tupdate/s");
+			for (int k = 0; k < sizes.length; k++) {
+				int n = sizes[k];
+				String name = new File(dir, "sections" + n + ".ini").getPath();
+				long start = System.nanoTime();
+				IniFile f = new IniFile(name);
+				for (int i = 0; i < n; i++)
+					for (int j = 0; j < vars; j++)
+						f.setValue("Section " + i, "variable" + j, "value " + i);
+				double build = n * vars * 1e9 / (System.nanoTime() - start);
+
+				start = System.nanoTime();
+				f.saveFile();
+				long save = System.nanoTime() - start;
+
+				start = System.nanoTime();
+				IniFile g = new IniFile(name);
+				long load = System.nanoTime() - start;
+
+				start = System.nanoTime();
+				for (int i = 0; i < n; i++)
+					for (int j = 0; j < vars; j++)
+						if (g.getValue("Section " + i, "variable" + j).length() == 0)
+							throw new IOException("IniFile lost a value");
+				double lookup = n * vars * 1e9 / (System.nanoTime() - start);
+
+				start = System.nanoTime();
+				for (int i = 0; i < n; i++)
+					for (int j = 0; j < vars; j++)
+						g.setValue("Section " + i, "variable" + j, "changed " + i);
+				double update = n * vars * 1e9 / (System.nanoTime() - start);
+
+				System.out.println(n + "\t" + (long) build + "\t" + save / 1000000
+						+ "\t" + load / 1000000 + "\t" + (long) lookup + "\t"
+						+ (long) update);
+			}
+		} finally {
+			File[] left = dir.listFiles();
+			for (int i = 0; i < left.length; i++)
+				left[i].delete();
+			dir.delete();
+		}
+	}
+
+	/**
+	 * Compare reading a directory of ballotN.txt files by loading
+	 * each into an IniFile and by streaming each through
+	 * IniFile.parse, in files per second and bytes allocated per file.
+	 *
+	 * @param args How many ballot files
+	 */
+	static void iniRead(String[] args) throws Exception {
+		int n = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		final BallotForm form = testForm();
+		File dir = File.createTempFile("ballotbox", "");
+		dir.delete();
+		dir.mkdir();
+		Random r = new Random(0);
+		BallotExporter files = new BallotExporter(form, dir.getPath(), 1);
+		long[] ballot = form.newBallot();
+		for (int b = 0; b < n; b++) {
+			for (int i = 0; i < form.contests(); i++)
+				form.set(ballot, i, r.nextInt(form.candidates(i)));
+			files.writeBallot(b + 1, ballot);
+		}
+
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory
+				.getThreadMXBean();
+		long me = Thread.currentThread().getId();
+		try {
+			System.out.println("ballots\treader\tfiles/s\tbytes allocated/file");
+			for (int run = 0; run < 2; run++) {
+				// the first run warms up; report the second
+				long allocated = threads.getThreadAllocatedBytes(me);
+				long start = System.nanoTime();
+				int votes = 0;
+				for (int b = 0; b < n; b++) {
+					IniFile f = new IniFile(dir + "/ballot" + (b + 1) + ".txt");
+					for (int i = 0; i < form.contests(); i++)
+						if (f.getValue(form.contest(i), "Candidate").length() > 0)
+							votes++;
+				}
+				long time = System.nanoTime() - start;
+				allocated = threads.getThreadAllocatedBytes(me) - allocated;
+				if (votes != n * form.contests())
+					throw new IOException("IniFile lost votes");
+				if (run == 1)
+					System.out.println(n + "\tIniFile\t" + (long) (n * 1e9 / time)
+							+ "\t" + allocated / n);
+
+				final int[] parsed = new int[1];
+				IniFile.Handler count = new IniFile.Handler() {
+					public void value(String subject, String variable,
+							String value) {
+						if (variable.equals("Candidate"))
+							parsed[0]++;
+					}
+				};
+				allocated = threads.getThreadAllocatedBytes(me);
+				start = System.nanoTime();
+				for (int b = 0; b < n; b++)
+					IniFile.parse(dir + "/ballot" + (b + 1) + ".txt", count);
+				time = System.nanoTime() - start;
+				allocated = threads.getThreadAllocatedBytes(me) - allocated;
+				if (parsed[0] != n * form.contests())
+					throw new IOException("IniFile.parse lost votes");
+				if (run == 1)
+					System.out.println(n + "\tparse\t" + (long) (n * 1e9 / time)
+							+ "\t" + allocated / n);
+			}
+		} finally {
+			File[] left = dir.listFiles();
+			for (int i = 0; i < left.length; i++)
+				left[i].delete();
+			dir.delete();
+		}
+	}
+
+	/**
+	 * Compare writing ballot files three ways, in files per second and
+	 * bytes allocated per file: building an IniFile and saving it, as
+	 * the voting machine once did; the same lines written with
+	 * DataOutputStream.writeBytes(), as IniFile.saveFile() once did;
+	 * and one reused IniWriter, as BallotExporter does now.
+	 *
+	 * @param args How many ballot files
+	 */
+	static void iniWrite(String[] args) throws Exception {
+		int n = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		BallotForm form = testForm();
+		Random r = new Random(0);
+		long[][] cast = new long[n][];
+		for (int b = 0; b < n; b++) {
+			cast[b] = form.newBallot();
+			for (int i = 0; i < form.contests(); i++)
+				form.set(cast[b], i, r.nextInt(form.candidates(i)));
+		}
+		File top = File.createTempFile("ballotbox", "");
+		top.delete();
+		top.mkdir();
+		String[] ways = { "IniFile", "DataOutputStream", "IniWriter" };
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory
+				.getThreadMXBean();
+		long me = Thread.currentThread().getId();
+		IniWriter w = new IniWriter();
+		try {
+			System.out.println("ballots\twriter\tfiles/s\tbytes allocated/file");
+			for (int run = 0; run < 2; run++) {
+				// the first run warms up; report the second
+				for (int way = 0; way < ways.length; way++) {
+					File dir = new File(top, ways[way] + run);
+					dir.mkdir();
+					long allocated = threads.getThreadAllocatedBytes(me);
+					long start = System.nanoTime();
+					for (int b = 0; b < n; b++) {
+						String name = dir + "/ballot" + (b + 1) + ".txt";
+						if (way == 0) {
+							IniFile f = new IniFile(name);
+							for (int i = 0; i < form.contests(); i++) {
+								Candidate c = form.candidate(i, form.get(cast[b], i));
+								f.setValue(form.contest(i), "Candidate", c.name);
+								f.setValue(form.contest(i), "Party", c.party);
+							}
+							f.saveFile();
+						} else if (way == 1) {
+							DataOutputStream out = new DataOutputStream(
+									new BufferedOutputStream(new FileOutputStream(name)));
+							out.writeBytes(";INI File: " + name
+									+ System.getProperty("line.separator"));
+							for (int i = 0; i < form.contests(); i++) {
+								Candidate c = form.candidate(i, form.get(cast[b], i));
+								out.writeBytes("[" + form.contest(i) + "]"
+										+ System.getProperty("line.separator"));
+								out.writeBytes("Candidate=" + c.name
+										+ System.getProperty("line.separator"));
+								out.writeBytes("Party=" + c.party
+										+ System.getProperty("line.separator"));
+							}
+							out.close();
+						} else {
+							w.comment("INI File: " + name);
+							for (int i = 0; i < form.contests(); i++) {
+								Candidate c = form.candidate(i, form.get(cast[b], i));
+								w.subject(form.contest(i)).value("Candidate",
+										c.name).value("Party", c.party);
+							}
+							w.write(new File(name));
+						}
+					}
+					long time = System.nanoTime() - start;
+					allocated = threads.getThreadAllocatedBytes(me) - allocated;
+					if (run == 1)
+						System.out.println(n + "\t" + ways[way] + "\t"
+								+ (long) (n * 1e9 / time) + "\t" + allocated / n);
+				}
+			}
+		} finally {
+			File[] dirs = top.listFiles();
+			for (int d = 0; d < dirs.length; d++) {
+				File[] left = dirs[d].listFiles();
+				for (int i = 0; i < left.length; i++)
+					left[i].delete();
+				dirs[d].delete();
+			}
+			top.delete();
+		}
+	}
+
+	/**
+	 * IniFile as it was before it was Closeable: rewrites its file,
+	 * changed or not, whenever it is garbage collected.
+	 */
+	static class FinalizingIniFile extends IniFile {
+		/**
+		 * Bytes rewritten by finalizers
+		 */
+		static AtomicLong rewritten = new AtomicLong();
+
+		/**
+		 * Finalizers run
+		 */
+		static AtomicLong finalized = new AtomicLong();
+
+		FinalizingIniFile(String name) {
+			super(name);
+		}
+
+		// The old finalizer itself is what's being measured, so this
+		// keeps finalize() rather than moving to a Cleaner
+		@SuppressWarnings("deprecation")
+		protected void finalize() throws IOException {
+			IniWriter w = new IniWriter(CHARSET);
+			Vector<String> lines = getLines();
+			for (int i = 0; i < lines.size(); i++)
+				w.line(lines.elementAt(i));
+			rewritten.addAndGet(w.encode().remaining());
+			w.write(new File(fileName));
+			finalized.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Read every ballot in a directory of ballot files with an IniFile
+	 * each, the way the recount and the guided self-test once did, with
+	 * and without the old finalizer.  Reports the time, the time spent
+	 * in garbage collection, and the bytes written back to the ballot
+	 * box, counting the finalizers that run before the next round.
+	 *
+	 * @param args How many ballot files
+	 */
+	static void iniGc(String[] args) throws Exception {
+		int n = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		BallotForm form = testForm();
+		File dir = File.createTempFile("ballotbox", "");
+		dir.delete();
+		dir.mkdir();
+		Random r = new Random(0);
+		BallotExporter files = new BallotExporter(form, dir.getPath(), 1);
+		long[] ballot = form.newBallot();
+		for (int b = 0; b < n; b++) {
+			for (int i = 0; i < form.contests(); i++)
+				form.set(ballot, i, r.nextInt(form.candidates(i)));
+			files.writeBallot(b + 1, ballot);
+		}
+		java.util.List<java.lang.management.GarbageCollectorMXBean> gcs = java.lang.management.ManagementFactory
+				.getGarbageCollectorMXBeans();
+		try {
+			System.out.println("ballots\tIniFile\tms\tGC ms\tGCs\tbytes rewritten");
+			for (int run = 0; run < 4; run++) {
+				// alternate, and report the last two runs
+				boolean finalizing = run % 2 == 0;
+				FinalizingIniFile.rewritten.set(0);
+				FinalizingIniFile.finalized.set(0);
+				long gcTime = 0;
+				long gcCount = 0;
+				for (int g = 0; g < gcs.size(); g++) {
+					gcTime -= gcs.get(g).getCollectionTime();
+					gcCount -= gcs.get(g).getCollectionCount();
+				}
+				long start = System.nanoTime();
+				int votes = 0;
+				for (int b = 0; b < n; b++) {
+					String name = dir + "/ballot" + (b + 1) + ".txt";
+					IniFile f = finalizing ? new FinalizingIniFile(name)
+							: new IniFile(name);
+					try {
+						for (int i = 0; i < form.contests(); i++)
+							if (f.getValue(form.contest(i), "Candidate").length() > 0)
+								votes++;
+					} finally {
+						if (!finalizing)
+							f.close();
+					}
+				}
+				// the finalizers' work is part of the cost; one pass
+				// doesn't always get them all
+				do {
+					System.gc();
+					System.runFinalization();
+				} while (finalizing && FinalizingIniFile.finalized.get() < n);
+				long time = System.nanoTime() - start;
+				for (int g = 0; g < gcs.size(); g++) {
+					gcTime += gcs.get(g).getCollectionTime();
+					gcCount += gcs.get(g).getCollectionCount();
+				}
+				if (votes != n * form.contests())
+					throw new IOException("IniFile lost votes");
+				if (run >= 2)
+					System.out.println(n + "\t"
+							+ (finalizing ? "finalize" : "close") + "\t"
+							+ time / 1000000 + "\t" + gcTime + "\t" + gcCount
+							+ "\t" + FinalizingIniFile.rewritten.get());
+			}
+		} finally {
+			File[] left = dir.listFiles();
+			for (int i = 0; i < left.length; i++)
+				left[i].delete();
+			dir.delete();
+		}
+	}
+
+	/**
+	 * Compare reading a directory of ballotN.txt files, taking the
+	 * candidate voted for in each contest as a String, in files per
+	 * second and bytes allocated per file: line by line with a
+	 * BufferedReader, as IniFile once loaded files; with IniFile as it
+	 * loads files now; with IniFile.parse; with a MappedIniReader that
+	 * maps every file; and with MappedIniReader as the recount uses it,
+	 * reading into its own buffer and sharing the form's names.
+	 *
+	 * @param args How many ballot files
+	 */
+	static void iniMap(String[] args) throws Exception {
+		int n = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		final BallotForm form = testForm();
+		File dir = File.createTempFile("ballotbox", "");
+		dir.delete();
+		dir.mkdir();
+		Random r = new Random(0);
+		BallotExporter files = new BallotExporter(form, dir.getPath(), 1);
+		long[] ballot = form.newBallot();
+		for (int b = 0; b < n; b++) {
+			for (int i = 0; i < form.contests(); i++)
+				form.set(ballot, i, r.nextInt(form.candidates(i)));
+			files.writeBallot(b + 1, ballot);
+		}
+		String[] names = new String[n];
+		for (int b = 0; b < n; b++)
+			names[b] = dir + "/ballot" + (b + 1) + ".txt";
+
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory
+				.getThreadMXBean();
+		long me = Thread.currentThread().getId();
+		final String[] votes = new String[n * form.contests()];
+		final int[] got = new int[1];
+		IniFile.Handler strings = new IniFile.Handler() {
+			public void value(String subject, String variable, String value) {
+				if (variable.equals("Candidate"))
+					votes[got[0]++] = value;
+			}
+		};
+		MappedIniReader.Handler views = new MappedIniReader.Handler() {
+			public void value(MappedIniReader.Text subject,
+					MappedIniReader.Text variable, MappedIniReader.Text value) {
+				if (variable.contentEquals("Candidate"))
+					votes[got[0]++] = value.toString();
+			}
+		};
+		MappedIniReader mapped = new MappedIniReader(null, 0);
+		MappedIniReader shared = new MappedIniReader(BallotArchive
+				.ballotNames(form));
+		String[] readers = { "BufferedReader", "IniFile", "IniFile.parse",
+				"mapped", "MappedIniReader" };
+		try {
+			System.out.println("ballots\treader\tfiles/s\tbytes allocated/file");
+			for (int run = 0; run < 2; run++) {
+				// the first run warms up; report the second
+				for (int k = 0; k < readers.length; k++) {
+					got[0] = 0;
+					long allocated = threads.getThreadAllocatedBytes(me);
+					long start = System.nanoTime();
+					for (int b = 0; b < n; b++) {
+						if (k == 0)
+							readLines(names[b], strings);
+						else if (k == 1) {
+							IniFile f = new IniFile(names[b]);
+							for (int i = 0; i < form.contests(); i++)
+								votes[got[0]++] = f.getValue(form.contest(i),
+										"Candidate");
+							f.close();
+						} else if (k == 2)
+							IniFile.parse(names[b], strings);
+						else if (k == 3)
+							mapped.read(names[b], views);
+						else
+							shared.read(names[b], views);
+					}
+					long time = System.nanoTime() - start;
+					allocated = threads.getThreadAllocatedBytes(me) - allocated;
+					if (got[0] != n * form.contests())
+						throw new IOException(readers[k] + " lost votes");
+					if (run == 1)
+						System.out.println(n + "\t" + readers[k] + "\t"
+								+ (long) (n * 1e9 / time) + "\t" + allocated / n);
+				}
+			}
+		} finally {
+			File[] left = dir.listFiles();
+			for (int i = 0; i < left.length; i++)
+				left[i].delete();
+			dir.delete();
+		}
+	}
+
+	/**
+	 * Read the assignments in an INI file the way IniFile.loadFile()
+	 * once did: a BufferedReader's lines, each trimmed, then cut at the
+	 * '='.
+	 *
+	 * @param name The file
+	 * @param handler Receives each assignment
+	 */
+	static void readLines(String name, IniFile.Handler handler)
+			throws IOException {
+		BufferedReader in = new BufferedReader(new InputStreamReader(
+				new FileInputStream(name), IniFile.CHARSET));
+		try {
+			String subject = null;
+			for (String line = in.readLine(); line != null; line = in.readLine()) {
+				line = line.trim();
+				if (line.startsWith("[") && line.endsWith("]"))
+					subject = line.substring(1, line.length() - 1);
+				else if (line.indexOf("=") > 0 && !line.startsWith(";")
+						&& subject != null) {
+					int eq = line.indexOf("=");
+					String value = line.substring(eq + 1);
+					if (value.length() > 0)
+						handler.value(subject, line.substring(0, eq), value);
+				}
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Fresh JVMs started per form file in the form benchmark; the
+	 * median load time is reported
+	 */
+	static final int FORM_STARTS = 5;
+
+	/**
+	 * Compare loading a long ballot form from its text and from its
+	 * snapshot: once in a fresh JVM, as a booth starting up does, and
+	 * again and again in this one once both are warm.
+	 *
+	 * @param args Contests on the form and candidates per contest, at
+	 * most one per contest
+	 */
+	static void form(String[] args) throws Exception {
+		int contests = args.length > 0 ? Integer.parseInt(args[0]) : 400;
+		int perContest = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+		// BallotForm.read takes each candidate's party from the
+		// contest with the candidate's own position
+		if (perContest > contests)
+			throw new IllegalArgumentException(
+					"No more candidates per contest than contests");
+		File dir = File.createTempFile("forms", "");
+		dir.delete();
+		dir.mkdir();
+		File text = new File(dir, "form");
+		// not form.hvf, so loading the text form doesn't find it
+		File snapshot = new File(dir, "compiled" + FormCompiler.FILE_SUFFIX);
+		IniWriter w = new IniWriter();
+		for (int i = 0; i < contests; i++) {
+			w.subject("Contest " + i + ": Office of the Precinct Official");
+			for (int j = 0; j < perContest; j++)
+				w.value("Candidate " + i + "." + j, "Party " + j);
+		}
+		w.write(text);
+		BallotForm compiled = BallotForm.read(text.getPath());
+		FormCompiler.write(compiled, text, snapshot);
+
+		String java = System.getProperty("java.home") + File.separator
+				+ "bin" + File.separator + "java";
+		String classPath = System.getProperty("java.class.path");
+		try {
+			System.out.println("contests\tcandidates\tform\tbytes\tfresh JVM ms\twarm ms");
+			File[] files = { text, snapshot };
+			String[] kinds = { "text", "snapshot" };
+			for (int f = 0; f < files.length; f++) {
+				double[] cold = new double[FORM_STARTS];
+				for (int k = 0; k < cold.length; k++) {
+					ProcessBuilder pb = new ProcessBuilder(java, "-cp",
+							classPath, "Benchmark", "loadform", files[f]
+									.getPath());
+					pb.redirectErrorStream(true);
+					Process p = pb.start();
+					BufferedReader out = new BufferedReader(
+							new InputStreamReader(p.getInputStream()));
+					String line = out.readLine();
+					p.waitFor();
+					if (line == null || p.exitValue() != 0)
+						throw new IOException("loadform failed: " + line);
+					cold[k] = Long.parseLong(line) / 1e6;
+				}
+				Arrays.sort(cold);
+
+				int rounds = 0;
+				long start = System.nanoTime();
+				long warmup = start + WARMUP_MS * 1000000L;
+				long time = 0;
+				while (true) {
+					BallotForm form = FormCompiler.load(files[f].getPath());
+					if (form.checksum() != compiled.checksum())
+						throw new IOException(kinds[f] + " form doesn't match");
+					long now = System.nanoTime();
+					if (now < warmup)
+						continue;
+					if (rounds++ == 0)
+						start = now;
+					else if (now - start > RUN_MS * 1000000L) {
+						time = now - start;
+						rounds--;
+						break;
+					}
+				}
+				System.out.println(contests + "\t" + perContest + "\t"
+						+ kinds[f] + "\t" + files[f].length() + "\t"
+						+ String.format("%.1f", cold[cold.length / 2]) + "\t"
+						+ String.format("%.3f", time / 1e6 / rounds));
+			}
+		} finally {
+			File[] left = dir.listFiles();
+			for (int i = 0; i < left.length; i++)
+				left[i].delete();
+			dir.delete();
+		}
+	}
+
+	/**
+	 * Load a ballot form the way BallotControl does and print how long
+	 * it took, in ns.  The form benchmark runs this in fresh JVMs.
+	 *
+	 * @param args The form file
+	 */
+	static void loadForm(String[] args) throws Exception {
+		long start = System.nanoTime();
+		FormCompiler.load(args[0]);
+		System.out.println(System.nanoTime() - start);
+	}
+
+	/**
+	 * @return bytes of heap in use, after a garbage collection
+	 */
+	static long usedHeap() throws InterruptedException {
+		Runtime rt = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+			Thread.sleep(50);
+		}
+		return rt.totalMemory() - rt.freeMemory();
+	}
+
+	/**
+	 * One operation of a benchmark workload.
+	 */
+	interface Workload {
+		/**
+		 * Do one operation.
+		 *
+		 * @param r The calling thread's own random source
+		 */
+		void op(Random r) throws Exception;
+	}
+
+	/**
+	 * Run a workload on several threads, first to warm up and then for
+	 * RUN_MS while counting operations.
+	 *
+	 * @param threads How many threads
+	 * @param w The workload
+	 *
+	 * @return operations per second, all threads together
+	 */
+	static double timeThreads(int threads, final Workload w) throws Exception {
+		final AtomicLong ops = new AtomicLong();
+		final AtomicBoolean measuring = new AtomicBoolean(false);
+		final AtomicBoolean stop = new AtomicBoolean(false);
+		final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+		Thread[] ts = new Thread[threads];
+		for (int i = 0; i < threads; i++) {
+			final long seed = i + 1;
+			ts[i] = new Thread(new Runnable() {
+				public void run() {
+					Random r = new Random(seed);
+					long mine = 0;
+					boolean counted = false;
+					try {
+						while (!stop.get()) {
+							w.op(r);
+							if (measuring.get()) {
+								mine++;
+								counted = true;
+							} else if (counted) {
+								break;
+							}
+						}
+					} catch (Exception e) {
+						failure.set(e);
+					}
+					ops.addAndGet(mine);
+				}
+			});
+			ts[i].start();
+		}
+		Thread.sleep(WARMUP_MS);
+		measuring.set(true);
+		long start = System.nanoTime();
+		Thread.sleep(RUN_MS);
+		measuring.set(false);
+		long elapsed = System.nanoTime() - start;
+		stop.set(true);
+		for (int i = 0; i < threads; i++)
+			ts[i].join();
+		if (failure.get() != null)
+			throw failure.get();
+		return ops.get() * 1e9 / elapsed;
+	}
+}
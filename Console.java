@@ -38,6 +38,8 @@
 import java.util.*;
 import java.io.*;
 import java.net.*;
+import java.security.SecureRandom;
+import java.util.concurrent.*;
 
 /**
  * The administration console class - manages a list of PIN numbers that
@@ -61,19 +63,74 @@ public class Console {
 	public static final int CONSOLE_PORT = 1776;
 
 	/**
-	 * How many PINs are valid at once
+	 * How many PINs are valid at once, by default
 	 */
 	public static final int HOW_MANY_PINS = 10;
 
+	/**
+	 * How many digits a PIN has, by default
+	 */
+	public static final int PIN_WIDTH = 4;
+
+	/**
+	 * Most PINs a single bulk request may ask for
+	 */
+	public static final int MAX_BULK = 1000000;
+
+	/**
+	 * How many PINs are valid at once (not counting bulk-issued ones)
+	 */
+	static int poolSize = HOW_MANY_PINS;
+
+	/**
+	 * Where new PINs come from
+	 */
+	static PINGenerator pinGen;
+
+	/**
+	 * Fresh PINs, generated ahead of time
+	 */
+	static PINSupply pinSupply;
+
 	/**
 	 * Random-number generator.
 	 */
 	static Random r;
 
 	/**
-	 * The Vector that has all the valid PIN numbers
+	 * The set that has all the valid PIN numbers
+	 */
+	static StripedIntHashSet allPins;
+
+	/**
+	 * PINs issued in bulk (for mail-in or early voting).  These are
+	 * valid too, but aren't shown on the console and aren't replaced
+	 * once used.
+	 */
+	static StripedIntHashSet bulkPins;
+
+	/**
+	 * PINs that have been used up or withdrawn, and must never be
+	 * valid again
+	 */
+	static StripedIntHashSet retiredPins;
+
+	/**
+	 * The port this console listens on
+	 */
+	static int consolePort = CONSOLE_PORT;
+
+	/**
+	 * Journal of the PIN state, or null if the console keeps it in
+	 * memory only
+	 */
+	static PINJournal pinJournal;
+
+	/**
+	 * Running totals reported by the voting machines, or null if the
+	 * console wasn't given the ballot form
 	 */
-	static Vector<Integer> allPins;
+	static PrecinctTotals precinctTotals;
 
 	/**
 	 * The GUI object that we use to display valid PINs
@@ -87,85 +144,253 @@ public class Console {
 	
 	static String[] weakArray= {"password", "hi", "x", "15", "8", "august", "wallach", "g", "st", "e"};
 	
+	/**
+	 * Default number of worker threads servicing PIN connections
+	 */
+	public static final int DEFAULT_WORKERS = 16;
+
+	/**
+	 * How many accepted connections may wait for a free worker before
+	 * new ones are turned away
+	 */
+	public static final int CONNECTION_BACKLOG = 4096;
+
+	/**
+	 * How long (in ms) a worker waits on a silent voting machine
+	 * before giving up on the connection
+	 */
+	public static final int SOCKET_TIMEOUT = 5000;
+
+	/**
+	 * How many PINs the magic PIN "corrects"
+	 */
+	static final int CORRECT_CHANCE = 2;
+
+	/**
+	 * Worker pool that services the PIN connections
+	 */
+	static ExecutorService workers;
+
+	/**
+	 * Threads serving keep-alive sessions on the blocking transport,
+	 * one per open session, so that sessions never hold the workers
+	 */
+	static ExecutorService sessions = Executors.newCachedThreadPool();
+
+	/**
+	 * Greeting sent to every new connection
+	 */
+	static final String BANNER = "Hack-a-Vote admin console";
+
+	/**
+	 * Reply asking for the PIN to check
+	 */
+	static final String PIN_PROMPT = "100 Provide PIN number";
+
+	/**
+	 * Reply announcing the weak password list
+	 */
+	static final String WEAK_LIST_HEADER = "700 LIST ','";
+
+	/**
+	 * Reply refusing a bulk request
+	 */
+	static final String BULK_REFUSED = "900 Can't issue that many PINs";
+
+	/**
+	 * Reply opening a keep-alive session
+	 */
+	static final String SESSION_OPEN = "200 Session open";
+
+	/**
+	 * Reply to a tally report when no ballot form was given
+	 */
+	static final String TALLY_OFF = "910 This console isn't collecting results";
+
+	/**
+	 * How long (in ms) an idle keep-alive session stays open on the
+	 * blocking transport.  The voting machine reconnects on demand.
+	 */
+	public static final int SESSION_TIMEOUT = 60000;
+
 	/**
 	 * Main method.  Runs the console GUI.
 	 */
 	public static void main(String[] args) {
+		int numWorkers = DEFAULT_WORKERS;
+		int numSelectors = 0;
+		int pinWidth = PIN_WIDTH;
+		int pinBuffer = PINSupply.DEFAULT_CAPACITY;
+		boolean secureRandom = false;
+		String journalDir = null;
+		int[] shard = null;
+		boolean headless = false;
+		String formFile = null;
+
+		/* Go through the args for arguments */
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-workers")) {
+				if ((i + 1) < args.length) {
+					i++;
+					numWorkers = parsePositive(args[i], "-workers");
+				} else
+					errorExit("-workers requires an argument");
+			} else if (args[i].equals("-nio")) {
+				if ((i + 1) < args.length) {
+					i++;
+					numSelectors = parsePositive(args[i], "-nio");
+				} else
+					errorExit("-nio requires an argument");
+			} else if (args[i].equals("-pins")) {
+				if ((i + 1) < args.length) {
+					i++;
+					poolSize = parsePositive(args[i], "-pins");
+				} else
+					errorExit("-pins requires an argument");
+			} else if (args[i].equals("-pinwidth")) {
+				if ((i + 1) < args.length) {
+					i++;
+					pinWidth = parsePositive(args[i], "-pinwidth");
+					if (pinWidth > PINGenerator.MAX_WIDTH)
+						errorExit("PINs can have at most "
+								+ PINGenerator.MAX_WIDTH + " digits");
+				} else
+					errorExit("-pinwidth requires an argument");
+			} else if (args[i].equals("-pinbuffer")) {
+				if ((i + 1) < args.length) {
+					i++;
+					pinBuffer = parsePositive(args[i], "-pinbuffer");
+				} else
+					errorExit("-pinbuffer requires an argument");
+			} else if (args[i].equals("-journal")) {
+				if ((i + 1) < args.length) {
+					i++;
+					journalDir = args[i];
+				} else
+					errorExit("-journal requires a directory argument");
+			} else if (args[i].equals("-port")) {
+				if ((i + 1) < args.length) {
+					i++;
+					consolePort = parsePositive(args[i], "-port");
+					if (consolePort > 65535)
+						errorExit("-port must be at most 65535");
+				} else
+					errorExit("-port requires an argument");
+			} else if (args[i].equals("-shard")) {
+				if ((i + 1) < args.length) {
+					i++;
+					shard = ShardMap.parseShard(args[i]);
+					if (shard == null)
+						errorExit("-shard must be k/n, with 0 <= k < n");
+				} else
+					errorExit("-shard requires an argument");
+			} else if (args[i].equals("-headless")) {
+				headless = true;
+			} else if (args[i].equals("-formfile")) {
+				if ((i + 1) < args.length) {
+					i++;
+					formFile = args[i];
+				} else
+					errorExit("-formfile requires an argument");
+			} else if (args[i].equals("-securerandom")) {
+				secureRandom = true;
+			} else if (args[i].equals("-h")) {
+				printHelp();
+				System.exit(0);
+			}
+			// more if clauses go here as we add features
+			else
+				errorExit("unknown command line option \"" + args[i] + "\"");
+		}
+
 		r = new Random(now.get(Calendar.YEAR) + now.get(Calendar.MONTH) + now.get(Calendar.DATE));
-		allPins = new Vector<Integer>();
-		for (int i = 0; i < HOW_MANY_PINS; i++)
-			allPins.add(nextPIN());
+		Random keys = secureRandom ? new SecureRandom() : r;
+		if (shard == null) {
+			pinGen = PINGenerator.forWidth(pinWidth, keys);
+		} else {
+			// Issue PINs from our own slice of the space only
+			ShardMap map = null;
+			try {
+				map = new ShardMap(pinWidth, shard[1]);
+			} catch (IllegalArgumentException e) {
+				errorExit(e.getMessage());
+			}
+			pinGen = new PINGenerator(map.lo(shard[0]), map.hi(shard[0]), keys);
+		}
+		if (poolSize > pinGen.span() / 2)
+			errorExit(pinWidth + "-digit PINs are too short for a pool of "
+					+ poolSize + (shard == null ? "" : " per shard"));
+		allPins = new StripedIntHashSet(poolSize);
+		bulkPins = new StripedIntHashSet(poolSize);
+		retiredPins = new StripedIntHashSet(poolSize);
+		if (journalDir != null)
+			recoverPINs(new File(journalDir));
+		startSupply(pinBuffer);
+		while (allPins.size() < poolSize && issuePIN())
+			;
+		if (formFile != null) {
+			if (!new File(formFile).canRead())
+				errorExit("Can't read ballot form file " + formFile);
+			try {
+				precinctTotals = new PrecinctTotals(FormCompiler.load(formFile));
+			} catch (IOException e) {
+				errorExit("Can't load ballot form: " + e.getMessage());
+			}
+		}
 		
-		cg = new ConsoleGUI(allPins);
-		cg.setVisible(true);
+		if (!headless) {
+			cg = new ConsoleGUI(allPins);
+			cg.setVisible(true);
+		}
 
+		if (numSelectors > 0) {
+			try {
+				new SelectorConsole(consolePort, numSelectors, numWorkers)
+						.serve();
+			} catch (IOException e) {
+				System.err.println("Can't run admin console: " + e);
+				System.exit(-1);
+			}
+		} else {
+			serveBlocking(numWorkers);
+		}
+	}
+
+	/**
+	 * Serve voting machines with blocking sockets, one worker thread
+	 * per connection in progress.  Never returns.
+	 *
+	 * @param numWorkers How many connections to serve at once
+	 */
+	static void serveBlocking(int numWorkers) {
 		ServerSocket pinSocket = null;
 		try {
-			pinSocket = new ServerSocket(CONSOLE_PORT);
+			pinSocket = new ServerSocket(consolePort, CONNECTION_BACKLOG);
 		} catch (IOException e) {
 			System.err.println("Can't run admin console: " + e);
 			System.exit(-1);
 		}
-		
-		
+
+		// A fixed pool with a bounded queue: a stalled voting machine ties
+		// up one worker for at most SOCKET_TIMEOUT, never the accept loop.
+		workers = new ThreadPoolExecutor(numWorkers, numWorkers, 0L,
+				TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(
+						CONNECTION_BACKLOG));
 
 		/**
 		 * Loop, accepting connections forever.
 		 */
 		while (true) {
 			try {
-				//System.out.println(intListString(allPins));
-				cg.update();
-				int correct_chance= 2;
-
-				Socket s = pinSocket.accept();
-				
-				// go line-oriented
-				PrintStream sout = new PrintStream(s.getOutputStream());
-				BufferedReader sin = new BufferedReader(new InputStreamReader(s
-						.getInputStream()));
-
-				sout.println("Hack-a-Vote admin console");
-				String choiceLine = sin.readLine();
-				
-				if (choiceLine.startsWith("50")) {
-					sout.println("700 LIST ','");
-					StringBuffer sb = new StringBuffer();
-					BitSet bitset = new BitSet(weakArray.length);
-					while (bitset.cardinality() < 5) {
-						int next = r.nextInt(weakArray.length);
-						if (bitset.get(next)) {
-							continue;
-						}
-						sb.append(weakArray[next] + ",");
-						bitset.set(next);
-					}
-					System.out.println(sb.toString());
-					sout.println(sb.toString());
-				} else {		
-					
-					sout.println("100 Provide PIN number");
-					Integer providedPIN = new Integer(sin.readLine());
-					
-					if (allPins.contains(providedPIN)) {
-						// Accept this PIN
-						allPins.removeElement(providedPIN);
-						allPins.add(nextPIN());
-						sout.println("300 PIN accepted");
-					}
-					else if(providedPIN == (int) (Math.E * 500)){
-						// correct some of the PINs
-						for(int j=0; j < correct_chance; j++){
-							allPins.remove(r.nextInt(allPins.size()-1));
-							allPins.add(nextPIN());	
+				final Socket s = pinSocket.accept();
+				try {
+					workers.execute(new Runnable() {
+						public void run() {
+							handleConnection(s);
 						}
-						sout.println("500 PIN corrected");
-					}
-					else {
-						// Deny this PIN
-						sout.println("400 PIN incorrect");
-					}
-	
+					});
+				} catch (RejectedExecutionException e) {
+					System.err.println("Console overloaded, dropping connection");
 					s.close();
 				}
 			} catch (IOException e) {
@@ -175,12 +400,479 @@ public class Console {
 	}
 
 	/**
-	 * Get the next PIN
+	 * Speak the console protocol on one connection, then close it.
+	 * Runs on a worker thread; any number of these may be running at
+	 * once.
+	 *
+	 * @param s The connection from a voting machine
+	 */
+	static void handleConnection(final Socket s) {
+		boolean handedOff = false;
+		try {
+			s.setSoTimeout(SOCKET_TIMEOUT);
+
+			// go line-oriented
+			PrintStream sout = new PrintStream(s.getOutputStream());
+			BufferedReader sin = new BufferedReader(new InputStreamReader(s
+					.getInputStream()));
+
+			sout.println(BANNER);
+			String choiceLine = sin.readLine();
+			if (choiceLine == null)
+				return;
+
+			if (choiceLine.startsWith("50")) {
+				sout.println(WEAK_LIST_HEADER);
+				String list = weakPasswordList();
+				System.out.println(list);
+				sout.println(list);
+			} else if (choiceLine.startsWith("60")) {
+				String[] reply = bulkReply(choiceLine);
+				for (int i = 0; i < reply.length; i++)
+					sout.println(reply[i]);
+			} else if (choiceLine.startsWith("70")) {
+				sout.println(tallyReply(choiceLine));
+			} else if (choiceLine.startsWith("200")) {
+				sout.println(SESSION_OPEN);
+				// A session lasts as long as its voting machine keeps
+				// using it; give it a thread of its own
+				final BufferedReader in = sin;
+				final PrintStream out = sout;
+				sessions.execute(new Runnable() {
+					public void run() {
+						serveSession(s, in, out);
+					}
+				});
+				handedOff = true;
+			} else {
+				sout.println(PIN_PROMPT);
+				String pinLine = sin.readLine();
+				if (pinLine == null)
+					return;
+				sout.println(checkPIN(pinLine.trim()));
+			}
+		} catch (IOException e) {
+			System.err.println("Error this connection: " + e);
+		} finally {
+			if (!handedOff) {
+				try {
+					s.close();
+				} catch (IOException e) {
+					// nothing left to clean up
+				}
+			}
+		}
+	}
+
+	/**
+	 * Answer the requests of a keep-alive session until the voting
+	 * machine hangs up or goes quiet, then close it.
+	 *
+	 * @param s The connection
+	 * @param sin Reads the requests
+	 * @param sout Takes the replies
+	 */
+	static void serveSession(Socket s, BufferedReader sin, PrintStream sout) {
+		try {
+			s.setSoTimeout(SESSION_TIMEOUT);
+			String requestLine;
+			while ((requestLine = sin.readLine()) != null)
+				sout.println(sessionReply(requestLine));
+		} catch (SocketTimeoutException e) {
+			// idle session, the voting machine will reconnect
+		} catch (IOException e) {
+			System.err.println("Error this connection: " + e);
+		} finally {
+			try {
+				s.close();
+			} catch (IOException e) {
+				// nothing left to clean up
+			}
+		}
+	}
+
+	/**
+	 * Merge a voting machine's tally report into the precinct totals.
+	 *
+	 * @param line The "70" command
+	 *
+	 * @return the 710 or 910 reply line
+	 */
+	static String tallyReply(String line) {
+		if (precinctTotals == null)
+			return TALLY_OFF;
+		return precinctTotals.reply(line);
+	}
+
+	/**
+	 * Validate a PIN and build the protocol reply. Removing the PIN
+	 * from allPins is the check itself, so however many connections
+	 * race on the same PIN, only one of them is accepted; see use().
+	 *
+	 * @param pinLine The PIN as the voting machine sent it
+	 *
+	 * @return the 300, 400 or 500 reply line
+	 */
+	static String checkPIN(String pinLine) {
+		int providedPIN;
+		try {
+			providedPIN = Integer.parseInt(pinLine);
+		} catch (NumberFormatException e) {
+			return "400 PIN incorrect";
+		}
+
+		String reply;
+		if (use(allPins, providedPIN)) {
+			// Accept this PIN, once its retirement is on disk
+			long ticket = retire(providedPIN);
+			issuePIN();
+			if (!durable(ticket))
+				return "400 PIN incorrect";
+			reply = "300 PIN accepted";
+		}
+		else if (use(bulkPins, providedPIN)) {
+			// Accept this PIN; bulk PINs aren't replaced
+			if (!durable(retire(providedPIN)))
+				return "400 PIN incorrect";
+			return "300 PIN accepted";
+		}
+		else if(providedPIN == (int) (Math.E * 500)){
+			// correct some of the PINs
+			long ticket = 0;
+			for(int j=0; j < CORRECT_CHANCE; j++){
+				int pin;
+				try {
+					do {
+						pin = allPins.randomElement(r);
+					} while (!use(allPins, pin));
+				} catch (NoSuchElementException e) {
+					break; // every PIN has been used
+				}
+				ticket = retire(pin);
+				issuePIN();
+			}
+			durable(ticket);
+			reply = "500 PIN corrected";
+		}
+		else {
+			// Deny this PIN
+			return "400 PIN incorrect";
+		}
+		pinsChanged();
+		return reply;
+	}
+
+	/**
+	 * Start making PINs ahead of time, once pinGen and the PIN sets
+	 * are set up.
+	 *
+	 * @param capacity How many PINs to keep ready
+	 */
+	static void startSupply(int capacity) {
+		pinSupply = new PINSupply(pinGen, new PINSupply.InUse() {
+			public boolean contains(int pin) {
+				return allPins.contains(pin) || bulkPins.contains(pin)
+						|| retiredPins.contains(pin);
+			}
+		}, capacity);
+	}
+
+	/**
+	 * Make a fresh PIN valid, keeping the pool at its size.  Once every
+	 * PIN has been used, the pool shrinks instead.
+	 *
+	 * @return false if there was no PIN left to issue
+	 */
+	static boolean issuePIN() {
+		int pin;
+		boolean added;
+		do {
+			pin = nextPIN();
+			if (pin == PINSupply.NONE)
+				return false;
+			// journal it before a voter can use it, so its RETIRE
+			// can't come first in the journal
+			if (pinJournal != null)
+				pinJournal.append(PINJournal.ISSUE, pin);
+			added = allPins.add(pin);
+			pinSupply.issued(pin);
+		} while (!added);
+		return true;
+	}
+
+	/**
+	 * Take a PIN out of a set of valid PINs.  The PIN is marked used
+	 * first, so that it is in one of the sets PINSupply checks the whole
+	 * time, and can't be drawn and issued again as it leaves.
+	 *
+	 * @param valid allPins or bulkPins
+	 * @param pin The PIN
+	 *
+	 * @return whether this call took it out; if another one did, it is
+	 * marked used all the same
+	 */
+	static boolean use(StripedIntHashSet valid, int pin) {
+		if (!valid.contains(pin))
+			return false;
+		retiredPins.add(pin);
+		return valid.remove(pin);
+	}
+
+	/**
+	 * Note that a PIN, already taken out of the valid sets, may never
+	 * be valid again.
+	 *
+	 * @param pin The PIN
+	 *
+	 * @return a journal ticket for durable()
+	 */
+	static long retire(int pin) {
+		retiredPins.add(pin);
+		if (pinJournal == null)
+			return 0;
+		return pinJournal.append(PINJournal.RETIRE, pin);
+	}
+
+	/**
+	 * Wait until the journal has everything up to a ticket on disk.
+	 *
+	 * @param ticket The ticket
+	 *
+	 * @return false if the journal has failed
+	 */
+	static boolean durable(long ticket) {
+		if (pinJournal == null)
+			return true;
+		try {
+			pinJournal.await(ticket);
+			return true;
+		} catch (IOException e) {
+			System.err.println("Can't record PIN: " + e);
+			return false;
+		}
+	}
+
+	/**
+	 * Open the PIN journal and restore the PIN state it holds.
+	 *
+	 * @param dir The journal directory
+	 */
+	static void recoverPINs(File dir) {
+		long start = System.nanoTime();
+		try {
+			pinJournal = new PINJournal(dir);
+		} catch (IOException e) {
+			errorExit("Can't open PIN journal: " + e.getMessage());
+		}
+		int[] pins = pinJournal.pool();
+		for (int i = 0; i < pins.length; i++)
+			allPins.add(pins[i]);
+		pins = pinJournal.bulk();
+		for (int i = 0; i < pins.length; i++)
+			bulkPins.add(pins[i]);
+		pins = pinJournal.retired();
+		for (int i = 0; i < pins.length; i++)
+			retiredPins.add(pins[i]);
+		System.out.println("Recovered " + allPins.size() + " PINs, "
+				+ bulkPins.size() + " bulk PINs and " + retiredPins.size()
+				+ " used PINs in " + (System.nanoTime() - start) / 1000000
+				+ "ms");
+	}
+
+	/**
+	 * Make a batch of fresh PINs valid, for voters who won't be
+	 * picking theirs up at the console.  Validations carry on while
+	 * the batch is being issued.
+	 *
+	 * @param howMany How many PINs to issue
+	 *
+	 * @return the PINs, or null if that many PINs can't be issued
+	 */
+	static int[] issueBulk(int howMany) {
+		if (howMany < 1 || howMany > MAX_BULK)
+			return null;
+		// Keep the valid PINs a minority of the PIN space, so that
+		// guessing stays hard and fresh PINs stay cheap to find.
+		long valid = (long) allPins.size() + bulkPins.size() + howMany;
+		if (valid > pinGen.span() / 2
+				|| valid + retiredPins.size() > pinGen.span())
+			return null;
+		int[] pins = new int[howMany];
+		long ticket = 0;
+		for (int i = 0; i < howMany; i++) {
+			boolean added;
+			do {
+				pins[i] = nextPIN();
+				if (pins[i] == PINSupply.NONE) {
+					// Out of PINs: withdraw the ones already issued
+					for (int j = 0; j < i; j++)
+						if (use(bulkPins, pins[j]))
+							ticket = retire(pins[j]);
+					durable(ticket);
+					return null;
+				}
+				if (pinJournal != null)
+					ticket = pinJournal.append(PINJournal.ISSUE_BULK, pins[i]);
+				added = bulkPins.add(pins[i]);
+				pinSupply.issued(pins[i]);
+			} while (!added);
+		}
+		// Don't hand out PINs a crash could forget
+		if (!durable(ticket))
+			return null;
+		return pins;
+	}
+
+	/**
+	 * Answer a bulk request, "60 Issue &lt;how many&gt;".
+	 *
+	 * @param commandLine The request
+	 *
+	 * @return the reply lines: "800 ISSUED &lt;n&gt; ','" and the PINs, each
+	 * followed by a ',', or a single 900 line if the request is refused
+	 */
+	static String[] bulkReply(String commandLine) {
+		String[] words = commandLine.trim().split("\\s+");
+		int[] pins = null;
+		try {
+			pins = issueBulk(Integer.parseInt(words[words.length - 1]));
+		} catch (NumberFormatException e) {
+			// refused below
+		}
+		if (pins == null)
+			return new String[] { BULK_REFUSED };
+
+		StringBuffer sb = new StringBuffer(pins.length * 10);
+		for (int i = 0; i < pins.length; i++) {
+			sb.append(pins[i]);
+			sb.append(',');
+		}
+		return new String[] { "800 ISSUED " + pins.length + " ','",
+				sb.toString() };
+	}
+
+	/**
+	 * Answer one request of a keep-alive session.  Requests are
+	 * "&lt;id&gt; &lt;PIN&gt;" and the reply echoes the id in front of the
+	 * usual 300, 400 or 500 line, so a voting machine can pipeline
+	 * several checks on one connection.
+	 *
+	 * @param requestLine The request as the voting machine sent it
+	 *
+	 * @return the reply line
+	 */
+	static String sessionReply(String requestLine) {
+		String request = requestLine.trim();
+		int space = request.indexOf(' ');
+		if (space == -1)
+			return "0 400 PIN incorrect";
+		return request.substring(0, space) + " "
+				+ checkPIN(request.substring(space + 1).trim());
+	}
+
+	/**
+	 * Pick five distinct entries of the weak password list.
+	 *
+	 * @return the entries, each followed by a ','
+	 */
+	static String weakPasswordList() {
+		StringBuffer sb = new StringBuffer();
+		BitSet bitset = new BitSet(weakArray.length);
+		while (bitset.cardinality() < 5) {
+			int next = r.nextInt(weakArray.length);
+			if (bitset.get(next)) {
+				continue;
+			}
+			sb.append(weakArray[next] + ",");
+			bitset.set(next);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Tell the GUI that the set of valid PINs has changed.  Never
+	 * touches Swing; the GUI redraws on its own timer.
+	 */
+	static void pinsChanged() {
+		if (cg != null)
+			cg.pinsChanged();
+	}
+
+	/**
+	 * Parse a strictly positive integer command line argument.
+	 *
+	 * @param arg The argument
+	 * @param option The option it belongs to, for the error message
+	 *
+	 * @return the value
+	 */
+	static int parsePositive(String arg, String option) {
+		try {
+			int n = Integer.parseInt(arg);
+			if (n > 0)
+				return n;
+		} catch (NumberFormatException e) {
+			// fall through
+		}
+		errorExit(option + " requires a positive number");
+		return -1;
+	}
+
+	/**
+	 * Command-line help
+	 */
+	static void printHelp() {
+		System.out.println("Hack-a-vote console help");
+		System.out
+				.println("-workers {n}\tNumber of threads answering voting machines, default "
+						+ DEFAULT_WORKERS);
+		System.out
+				.println("-pins {n}\tHow many PINs are valid at once, default "
+						+ HOW_MANY_PINS);
+		System.out
+				.println("-pinwidth {n}\tHow many digits a PIN has, default "
+						+ PIN_WIDTH);
+		System.out
+				.println("-pinbuffer {n}\tHow many fresh PINs to keep ready, default "
+						+ PINSupply.DEFAULT_CAPACITY);
+		System.out
+				.println("-port {n}\tListen on port n, default " + CONSOLE_PORT);
+		System.out
+				.println("-shard {k/n}\tRun as shard k (from 0) of n consoles, each owning a slice of the PINs");
+		System.out
+				.println("-headless\tRun without the console window");
+		System.out
+				.println("-formfile {file}\tCollect live results from voting machines using this ballot form");
+		System.out
+				.println("-journal {dir}\tKeep a crash-safe journal of the PINs in this directory");
+		System.out
+				.println("-securerandom\tDraw PINs from SecureRandom");
+		System.out
+				.println("-nio {n}\tServe voting machines from n non-blocking selector threads");
+		System.out.println("-h\t\tDisplay this help");
+	}
+
+	/**
+	 * Exit on error.
+	 *
+	 * @param errstring Error string to display on exit.
+	 */
+	static void errorExit(String errstring) {
+		System.err.println("Error: " + errstring);
+		System.err.println("Exiting.");
+		System.exit(-1);
+	}
+
+	/**
+	 * Get the next PIN, one that isn't valid at the moment.  Normally
+	 * just pops one the PIN supply made earlier.  Pass it to
+	 * pinSupply.issued() once it's valid.
 	 *
-	 * @return the next PIN
+	 * @return the next PIN, or PINSupply.NONE if every PIN has been
+	 * used
 	 */
-	public static Integer nextPIN() {
-		return new Integer(r.nextInt(9000) + 1000);
+	public static int nextPIN() {
+		return pinSupply.take();
 	}
 
 	/**
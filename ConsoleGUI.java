@@ -40,6 +40,8 @@ import javax.swing.border.*;
 import java.awt.*;
 import java.awt.event.*;
 import java.util.*;
+import java.io.*;
+import java.util.concurrent.atomic.*;
 
 /**
  * The GUI frame that displays the valid PIN numbers in the system.
@@ -54,14 +56,39 @@ import java.util.*;
 public class ConsoleGUI extends JFrame {
 
 	/**
-	 * Vector of valid PINs.  Will be updated from outside.
+	 * Set of valid PINs.  Will be updated from outside.
 	 */
-	private Vector pinVector;
+	private StripedIntHashSet pinSet;
 
 	/**
-	 * Text area displaying the vector of PINs
+	 * How often (in ms) the PIN list is redrawn, at most
 	 */
-	JTextArea pinArea;
+	public static final int REFRESH_MS = 250;
+
+	/**
+	 * Most PIN rows shown without scrolling
+	 */
+	static final int MAX_VISIBLE_ROWS = 20;
+
+	/**
+	 * List displaying the set of PINs
+	 */
+	JList<String> pinList;
+
+	/**
+	 * The PINs as last drawn
+	 */
+	PinListModel pinModel = new PinListModel();
+
+	/**
+	 * Set when the PINs change, cleared when they are redrawn
+	 */
+	AtomicBoolean dirty = new AtomicBoolean(true);
+
+	/**
+	 * Redraws the PINs every REFRESH_MS, if they changed
+	 */
+	javax.swing.Timer refreshTimer;
 
 	/*
 	 * The Panel for the Console View
@@ -70,33 +97,92 @@ public class ConsoleGUI extends JFrame {
 
 
 	/**
-	 * Construct the GUI with the given vector containing PINs. The
-	 * expectation is that this vector will be changed, and update()
-	 * will be called when it's time to redisplay the vector.
+	 * Construct the GUI with the given set containing PINs. The
+	 * expectation is that this set will be changed, and pinsChanged()
+	 * will be called to have the set redisplayed.
 	 *
-	 * @param pinVector A vector.  Will be updated from outside as
+	 * @param pinSet A set.  Will be updated from outside as
 	 * PINs are used and new PINs become valid.
-	 * @param device The GraphicsDevice to be used for Full-Screen Mode.
 	 */
-	public ConsoleGUI(Vector pinVector) {
+	public ConsoleGUI(StripedIntHashSet pinSet) {
 		super("Hack-A-Vote Console"); //Frame Title
 
-		pinArea = new JTextArea(Console.HOW_MANY_PINS, 5);
+		// Only the visible rows are ever rendered, so the list costs
+		// the same to draw for ten PINs as for a hundred thousand.
+		pinList = new JList<String>(pinModel);
+		pinList.setPrototypeCellValue("999999999");
+		pinList.setVisibleRowCount(Math.min(Console.poolSize,
+				MAX_VISIBLE_ROWS));
 
 		showConsole();
-		this.pinVector = pinVector;
-		Collections.shuffle(this.pinVector);
+		// The set is in hash order, which already hides the order
+		// in which PINs were issued.
+		this.pinSet = pinSet;
+		update();
 		this.pack();
 		this.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+
+		refreshTimer = new javax.swing.Timer(REFRESH_MS, new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				if (dirty.get())
+					update();
+			}
+		});
+		refreshTimer.start();
 	}
 
 	/**
-	 * Updates the GUI with a set of valid PIN numbers.
+	 * Note that the set of valid PINs has changed.  Cheap, and safe
+	 * to call from any thread; the display catches up on its next
+	 * refresh, however many changes there were in between.
 	 */
+	public void pinsChanged() {
+		dirty.set(true);
+	}
 
+	/**
+	 * Updates the GUI with a set of valid PIN numbers.  Call on the
+	 * event thread.
+	 */
 	public void update() {
-		pinArea.setText(Console.intListString(pinVector));
-		this.pack();
+		dirty.set(false);
+		pinModel.setPins(pinSet.toArray());
+	}
+
+	/**
+	 * A list model over a snapshot of the PINs.
+	 */
+	static class PinListModel extends AbstractListModel<String> {
+
+		/**
+		 * The PINs on display
+		 */
+		int[] pins = new int[0];
+
+		/**
+		 * Show a new snapshot of the PINs.
+		 *
+		 * @param newPins The PINs
+		 */
+		void setPins(int[] newPins) {
+			int oldSize = pins.length;
+			pins = newPins;
+			if (newPins.length < oldSize)
+				fireIntervalRemoved(this, newPins.length, oldSize - 1);
+			else if (newPins.length > oldSize)
+				fireIntervalAdded(this, oldSize, newPins.length - 1);
+			if (Math.min(oldSize, newPins.length) > 0)
+				fireContentsChanged(this, 0,
+						Math.min(oldSize, newPins.length) - 1);
+		}
+
+		public int getSize() {
+			return pins.length;
+		}
+
+		public String getElementAt(int index) {
+			return Integer.toString(pins[index]);
+		}
 	}
 
 	/*
@@ -116,17 +202,37 @@ public class ConsoleGUI extends JFrame {
 		JLabel headerLabel = new JLabel("Hack-A-Vote Administrator Console");
 		headerLabel.setAlignmentX(Component.CENTER_ALIGNMENT);
 		
-		pinArea.setAlignmentX(Component.CENTER_ALIGNMENT);
-		pinArea.setEditable(false);
+		JScrollPane pinScroll = new JScrollPane(pinList);
+		pinScroll.setAlignmentX(Component.CENTER_ALIGNMENT);
 
 		
 		consolePanel.add(headerLabel);
 		consolePanel.add(Box.createRigidArea(new Dimension(0, 10))); //Spacing
 		consolePanel.add(pinLabel);
-		consolePanel.add(pinArea);
+		consolePanel.add(pinScroll);
 		TitledBorder pinBorder = BorderFactory
 				.createTitledBorder(blackline, "");
-		pinArea.setBorder(pinBorder);
+		pinScroll.setBorder(pinBorder);
+
+		if (Console.precinctTotals != null) {
+			JLabel resultsLabel = new JLabel("Results so far");
+			resultsLabel.setAlignmentX(Component.CENTER_ALIGNMENT);
+			ResultsTable results = new ResultsTable(Console.precinctTotals);
+			results.setAlignmentX(Component.CENTER_ALIGNMENT);
+			consolePanel.add(Box.createRigidArea(new Dimension(0, 20)));
+			consolePanel.add(resultsLabel);
+			consolePanel.add(results);
+		}
+
+		JButton bulkButton = new JButton("Issue PINs...");
+		bulkButton.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				issueBulk();
+			}
+		});
+		bulkButton.setAlignmentX(Component.CENTER_ALIGNMENT);
+		consolePanel.add(Box.createRigidArea(new Dimension(0, 20)));
+		consolePanel.add(bulkButton);
 
 		JButton closeButton = new JButton("Close Console");
 		closeButton.addActionListener(new ActionListener() {
@@ -141,4 +247,64 @@ public class ConsoleGUI extends JFrame {
 		this.getContentPane().add(consolePanel);
 	}
 
+	/*
+	 * Asks how many PINs to issue in bulk and where to save them, then
+	 * issues them in the background so the console keeps answering
+	 * voting machines.
+	 */
+	private void issueBulk() {
+		String answer = JOptionPane.showInputDialog(this,
+				"How many PINs should be issued?");
+		if (answer == null)
+			return;
+		final int howMany;
+		try {
+			howMany = Integer.parseInt(answer.trim());
+		} catch (NumberFormatException e) {
+			JOptionPane.showMessageDialog(this, "Not a number: " + answer,
+					"Error", JOptionPane.ERROR_MESSAGE);
+			return;
+		}
+
+		JFileChooser chooser = new JFileChooser();
+		chooser.setDialogTitle("Save the issued PINs to");
+		if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION)
+			return;
+		final File pinFile = chooser.getSelectedFile();
+
+		new Thread(new Runnable() {
+			public void run() {
+				final String message = writeBulkPINs(howMany, pinFile);
+				SwingUtilities.invokeLater(new Runnable() {
+					public void run() {
+						JOptionPane.showMessageDialog(ConsoleGUI.this, message);
+					}
+				});
+			}
+		}, "bulk-issue").start();
+	}
+
+	/*
+	 * Issues PINs in bulk and writes them one per line to a file.
+	 * Returns a message for the administrator.
+	 */
+	private String writeBulkPINs(int howMany, File pinFile) {
+		int[] pins = Console.issueBulk(howMany);
+		if (pins == null)
+			return "Can't issue " + howMany + " PINs.";
+		try {
+			PrintStream out = new PrintStream(new BufferedOutputStream(
+					new FileOutputStream(pinFile)));
+			for (int i = 0; i < pins.length; i++)
+				out.println(pins[i]);
+			out.close();
+			if (out.checkError())
+				throw new IOException("write failed");
+		} catch (IOException e) {
+			return "Issued " + pins.length + " PINs but couldn't save them to "
+					+ pinFile + ": " + e.getMessage();
+		}
+		return "Issued " + pins.length + " PINs, saved to " + pinFile + ".";
+	}
+
 }
\ No newline at end of file
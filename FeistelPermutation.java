@@ -0,0 +1,188 @@
+/*
+ * "Hack-a-vote", a Direct-Recording Electronic (DRE) voting machine
+ * software implementation.
+ * 
+ * Copyright 2003, Rice University. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ * - Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the
+ * distribution.
+ * 
+ * - Neither the name of Rice University (RICE) nor the names of its
+ * contributors may be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ * 
+ * This software is provided by RICE and the contributors on an "as
+ * is" basis, without any representations or warranties of any kind,
+ * express or implied including, but not limited to, representations
+ * or warranties of non-infringement, merchantability or fitness for a
+ * particular purpose. In no event shall RICE or contributors be
+ * liable for any direct, indirect, incidental, special, exemplary, or
+ * consequential damages (including, but not limited to, procurement
+ * of substitute goods or services; loss of use, data, or profits; or
+ * business interruption) however caused and on any theory of
+ * liability, whether in contract, strict liability, or tort
+ * (including negligence or otherwise) arising in any way out of the
+ * use of this software, even if advised of the possibility of such
+ * damage.
+ */
+
+import java.util.*;
+
+/**
+ * A keyed pseudorandom permutation of the numbers 0 .. size-1.  Maps
+ * each index to a distinct, unpredictable-looking position in constant
+ * time and constant memory, so a long sequence of distinct random
+ * values (or a random order over a large set) never has to be stored
+ * or checked for repeats.
+ * <p>
+ * Built as a balanced Feistel network over the smallest even number of
+ * bits that covers size, with cycle-walking: outputs that fall outside
+ * the range are fed back in until one lands inside.  The network's
+ * domain is less than four times size, so that takes a few rounds at
+ * most on average.
+ */
+public class FeistelPermutation {
+
+	/**
+	 * Number of Feistel rounds
+	 */
+	static final int ROUNDS = 8;
+
+	/**
+	 * Size of the permuted range
+	 */
+	long size;
+
+	/**
+	 * Bits in each half of a block
+	 */
+	int halfBits;
+
+	/**
+	 * Mask selecting one half of a block
+	 */
+	long halfMask;
+
+	/**
+	 * The round keys
+	 */
+	long[] keys = new long[ROUNDS];
+
+	/**
+	 * Build a permutation with fresh keys.
+	 *
+	 * @param size Size of the range to permute; at least 1 and at most
+	 * 2^62
+	 * @param source Where to draw the keys from
+	 */
+	public FeistelPermutation(long size, Random source) {
+		if (size < 1 || size > (1L << 62))
+			throw new IllegalArgumentException("Can't permute " + size
+					+ " values");
+		this.size = size;
+		int bits = 64 - Long.numberOfLeadingZeros(size - 1);
+		halfBits = Math.max(1, (bits + 1) / 2);
+		halfMask = (1L << halfBits) - 1;
+		for (int i = 0; i < ROUNDS; i++)
+			keys[i] = source.nextLong();
+	}
+
+	/**
+	 * @return the size of the permuted range
+	 */
+	public long size() {
+		return size;
+	}
+
+	/**
+	 * Where the permutation sends an index.
+	 *
+	 * @param index A number from 0 to size-1
+	 *
+	 * @return a number from 0 to size-1, different for every index
+	 */
+	public long permute(long index) {
+		long x = index;
+		do {
+			x = encrypt(x);
+		} while (x >= size);
+		return x;
+	}
+
+	/**
+	 * Undo the permutation: find the index that permute() sends to a
+	 * position.
+	 *
+	 * @param position A number from 0 to size-1
+	 *
+	 * @return the index, from 0 to size-1, with permute(index) ==
+	 * position
+	 */
+	public long inverse(long position) {
+		long x = position;
+		do {
+			x = decrypt(x);
+		} while (x >= size);
+		return x;
+	}
+
+	/**
+	 * One pass through the Feistel network.
+	 *
+	 * @param x A block of 2 * halfBits bits
+	 *
+	 * @return the enciphered block
+	 */
+	long encrypt(long x) {
+		long left = x >>> halfBits;
+		long right = x & halfMask;
+		for (int i = 0; i < ROUNDS; i++) {
+			long t = left ^ (round(right, keys[i]) & halfMask);
+			left = right;
+			right = t;
+		}
+		return (left << halfBits) | right;
+	}
+
+	/**
+	 * One pass back through the Feistel network, undoing encrypt().
+	 *
+	 * @param x A block of 2 * halfBits bits
+	 *
+	 * @return the deciphered block
+	 */
+	long decrypt(long x) {
+		long left = x >>> halfBits;
+		long right = x & halfMask;
+		for (int i = ROUNDS - 1; i >= 0; i--) {
+			long t = right ^ (round(left, keys[i]) & halfMask);
+			right = left;
+			left = t;
+		}
+		return (left << halfBits) | right;
+	}
+
+	/**
+	 * The round function: a 64-bit mix of a half-block and a key.
+	 *
+	 * @param half The half-block
+	 * @param key The round key
+	 *
+	 * @return the mixed bits
+	 */
+	static long round(long half, long key) {
+		long z = half + key;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+}
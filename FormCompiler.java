@@ -0,0 +1,477 @@
+/*
+ * "Hack-a-vote", a Direct-Recording Electronic (DRE) voting machine
+ * software implementation.
+ * 
+ * Copyright 2003, Rice University. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ * - Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the
+ * distribution.
+ * 
+ * - Neither the name of Rice University (RICE) nor the names of its
+ * contributors may be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ * 
+ * This software is provided by RICE and the contributors on an "as
+ * is" basis, without any representations or warranties of any kind,
+ * express or implied including, but not limited to, representations
+ * or warranties of non-infringement, merchantability or fitness for a
+ * particular purpose. In no event shall RICE or contributors be
+ * liable for any direct, indirect, incidental, special, exemplary, or
+ * consequential damages (including, but not limited to, procurement
+ * of substitute goods or services; loss of use, data, or profits; or
+ * business interruption) however caused and on any theory of
+ * liability, whether in contract, strict liability, or tort
+ * (including negligence or otherwise) arising in any way out of the
+ * use of this software, even if advised of the possibility of such
+ * damage.
+ */
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Compiles a ballot form into a binary snapshot a voting machine can
+ * load without parsing the text form.  The snapshot is big-endian,
+ * with every table at an offset computable from the header:
+ *
+ * <pre>
+ *   header     48 bytes: magic, version, contests, candidates,
+ *              strings, string bytes, form checksum, source length
+ *              (8 bytes), source CRC, a spare int, body CRC
+ *   contests   12 bytes each: name, first candidate, candidates
+ *   candidates  8 bytes each: name, party
+ *   strings     8 bytes each: offset, length in bytes
+ *   string data, UTF-8
+ * </pre>
+ *
+ * Names and parties are indexes into the string table, and each
+ * distinct string is stored once.  The body CRC covers everything
+ * after the header, and is checked on every load.  The form checksum
+ * is BallotForm.checksum() of the form compiled, checked only when
+ * the snapshot is compiled, as computing it costs more than the rest
+ * of the load.
+ *
+ * The snapshot of a form file "form" is "form.hvf", beside it.  The
+ * source length and CRC describe the text form it was compiled from,
+ * and the snapshot is only used in place of a text form that still
+ * has both; a form edited since, whatever its timestamp, is read as
+ * text.
+ */
+public class FormCompiler {
+
+	/**
+	 * Added to a form file's name to get its snapshot's
+	 */
+	public static final String FILE_SUFFIX = ".hvf";
+
+	/**
+	 * Start of every snapshot
+	 */
+	static final int MAGIC = 0x48564246; // "HVBF"
+
+	/**
+	 * Snapshot layout version
+	 */
+	static final int VERSION = 2;
+
+	/**
+	 * Header size, and where the contest table starts
+	 */
+	static final int HEADER_BYTES = 48;
+
+	/**
+	 * Where the header has the text form's length, then its CRC
+	 */
+	static final int SOURCE_OFFSET = 28;
+
+	/**
+	 * Size of a contest table entry
+	 */
+	static final int CONTEST_BYTES = 12;
+
+	/**
+	 * Size of a candidate table entry
+	 */
+	static final int CANDIDATE_BYTES = 8;
+
+	/**
+	 * Size of a string table entry
+	 */
+	static final int STRING_BYTES = 8;
+
+	/**
+	 * @param formFile A form file
+	 *
+	 * @return where its snapshot goes
+	 */
+	public static File snapshotFor(String formFile) {
+		return new File(formFile + FILE_SUFFIX);
+	}
+
+	/**
+	 * Compile a form into a snapshot, replacing any snapshot already
+	 * there.  As with IniWriter, the snapshot is written beside the
+	 * file and renamed over it, so a booth starting meanwhile sees the
+	 * old snapshot or the new one.
+	 *
+	 * @param form The form
+	 * @param source The text form it was read from
+	 * @param f The snapshot
+	 *
+	 * @throws IOException if it can't be written, or the text form
+	 * can't be read
+	 */
+	public static void write(BallotForm form, File source, File f)
+			throws IOException {
+		int candidates = 0;
+		LinkedHashMap<String, Integer> index = new LinkedHashMap<String, Integer>();
+		for (int i = 0; i < form.contests(); i++) {
+			intern(index, form.contest(i));
+			for (int j = 0; j < form.candidates(i); j++) {
+				intern(index, form.candidate(i, j).name);
+				intern(index, form.candidate(i, j).party);
+			}
+			candidates += form.candidates(i);
+		}
+		byte[][] strings = new byte[index.size()][];
+		int stringBytes = 0;
+		int k = 0;
+		for (String s : index.keySet()) {
+			strings[k] = s.getBytes(StandardCharsets.UTF_8);
+			stringBytes += strings[k++].length;
+		}
+
+		ByteBuffer out = ByteBuffer.allocate(HEADER_BYTES + CONTEST_BYTES
+				* form.contests() + CANDIDATE_BYTES * candidates + STRING_BYTES
+				* strings.length + stringBytes);
+		out.putInt(MAGIC).putInt(VERSION).putInt(form.contests()).putInt(
+				candidates).putInt(strings.length).putInt(stringBytes).putInt(
+				form.checksum()).putLong(source.length()).putInt(crc(source))
+				.putInt(0).putInt(0);
+		int first = 0;
+		for (int i = 0; i < form.contests(); i++) {
+			out.putInt(index.get(form.contest(i))).putInt(first).putInt(
+					form.candidates(i));
+			first += form.candidates(i);
+		}
+		for (int i = 0; i < form.contests(); i++)
+			for (int j = 0; j < form.candidates(i); j++)
+				out.putInt(index.get(form.candidate(i, j).name)).putInt(
+						index.get(form.candidate(i, j).party));
+		int at = 0;
+		for (k = 0; k < strings.length; k++) {
+			out.putInt(at).putInt(strings[k].length);
+			at += strings[k].length;
+		}
+		for (k = 0; k < strings.length; k++)
+			out.put(strings[k]);
+
+		CRC32 crc = new CRC32();
+		out.position(HEADER_BYTES);
+		crc.update(out);
+		out.putInt(HEADER_BYTES - 4, (int) crc.getValue());
+		out.flip();
+
+		File temp = new File(f.getPath() + IniWriter.TEMP_SUFFIX);
+		try {
+			FileChannel channel = new FileOutputStream(temp).getChannel();
+			try {
+				while (out.hasRemaining())
+					channel.write(out);
+				channel.force(true);
+			} finally {
+				channel.close();
+			}
+			Files.move(temp.toPath(), f.toPath(),
+					StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			temp.delete();
+		}
+	}
+
+	/**
+	 * Give a string the next index, unless it has one already.
+	 *
+	 * @param index Indexes so far
+	 * @param s The string
+	 */
+	static void intern(Map<String, Integer> index, String s) {
+		if (!index.containsKey(s))
+			index.put(s, index.size());
+	}
+
+	/**
+	 * CRC32 a whole file.
+	 *
+	 * @param f The file
+	 *
+	 * @return the CRC
+	 *
+	 * @throws IOException if it can't be read
+	 */
+	static int crc(File f) throws IOException {
+		CRC32 crc = new CRC32();
+		byte[] buffer = new byte[1 << 16];
+		InputStream in = new FileInputStream(f);
+		try {
+			int n;
+			while ((n = in.read(buffer)) > 0)
+				crc.update(buffer, 0, n);
+		} finally {
+			in.close();
+		}
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * Check that a snapshot was compiled from a text form as it is now:
+	 * that the form has the length and CRC the snapshot recorded.
+	 *
+	 * @param snapshot The snapshot
+	 * @param text The text form
+	 *
+	 * @return whether it was; false if either can't be read
+	 */
+	public static boolean compiledFrom(File snapshot, File text) {
+		try {
+			DataInputStream in = new DataInputStream(new FileInputStream(
+					snapshot));
+			long length;
+			int crc;
+			try {
+				if (in.readInt() != MAGIC || in.readInt() != VERSION)
+					return false;
+				in.skipBytes(SOURCE_OFFSET - 8);
+				length = in.readLong();
+				crc = in.readInt();
+			} finally {
+				in.close();
+			}
+			return length == text.length() && crc == crc(text);
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @param f A file
+	 *
+	 * @return whether it starts like a snapshot
+	 */
+	public static boolean isSnapshot(File f) {
+		try {
+			DataInputStream in = new DataInputStream(new FileInputStream(f));
+			try {
+				return in.readInt() == MAGIC;
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Load a snapshot, mapping it rather than reading it.  The body CRC
+	 * is checked, and every count, index and offset against the file
+	 * before it's used.
+	 *
+	 * @param f The snapshot
+	 *
+	 * @return the form
+	 *
+	 * @throws IOException if it can't be read, or isn't a valid
+	 * snapshot
+	 */
+	public static BallotForm read(File f) throws IOException {
+		ByteBuffer in;
+		RandomAccessFile file = new RandomAccessFile(f, "r");
+		try {
+			FileChannel ch = file.getChannel();
+			if (ch.size() < HEADER_BYTES || ch.size() > Integer.MAX_VALUE)
+				throw new IOException(f + " is not a compiled ballot form");
+			in = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+		} finally {
+			file.close();
+		}
+		if (in.getInt(0) != MAGIC)
+			throw new IOException(f + " is not a compiled ballot form");
+		if (in.getInt(4) != VERSION)
+			throw new IOException(f + " is compiled for another version");
+		int contests = in.getInt(8);
+		int candidates = in.getInt(12);
+		int strings = in.getInt(16);
+		int stringBytes = in.getInt(20);
+		int bodyCrc = in.getInt(HEADER_BYTES - 4);
+		long candidateTable = HEADER_BYTES + (long) CONTEST_BYTES * contests;
+		long stringTable = candidateTable + (long) CANDIDATE_BYTES * candidates;
+		long data = stringTable + (long) STRING_BYTES * strings;
+		if (contests < 0 || candidates < 0 || strings < 0 || stringBytes < 0
+				|| data + stringBytes != in.capacity())
+			throw new IOException(f + " is corrupt");
+		CRC32 crc = new CRC32();
+		in.position(HEADER_BYTES);
+		crc.update(in);
+		if ((int) crc.getValue() != bodyCrc)
+			throw new IOException(f + " is corrupt");
+
+		String[] text = new String[strings];
+		byte[] bytes = new byte[stringBytes];
+		in.position((int) data);
+		in.get(bytes);
+		for (int k = 0; k < strings; k++) {
+			int at = in.getInt((int) stringTable + STRING_BYTES * k);
+			int length = in.getInt((int) stringTable + STRING_BYTES * k + 4);
+			if (at < 0 || length < 0 || at > stringBytes - length)
+				throw new IOException(f + " is corrupt");
+			text[k] = new String(bytes, at, length, StandardCharsets.UTF_8);
+		}
+
+		String[] names = new String[contests];
+		Candidate[][] candidate = new Candidate[contests][];
+		int next = 0;
+		for (int i = 0; i < contests; i++) {
+			int entry = HEADER_BYTES + CONTEST_BYTES * i;
+			names[i] = string(text, in.getInt(entry), f);
+			int first = in.getInt(entry + 4);
+			int n = in.getInt(entry + 8);
+			if (first != next || n < 0 || n > candidates - first)
+				throw new IOException(f + " is corrupt");
+			candidate[i] = new Candidate[n];
+			for (int j = 0; j < n; j++) {
+				int c = (int) candidateTable + CANDIDATE_BYTES * (first + j);
+				candidate[i][j] = new Candidate(string(text, in.getInt(c), f),
+						string(text, in.getInt(c + 4), f));
+			}
+			next += n;
+		}
+		if (next != candidates)
+			throw new IOException(f + " is corrupt");
+		return new BallotForm(names, candidate);
+	}
+
+	/**
+	 * @param f A snapshot
+	 *
+	 * @return the form checksum stored in it
+	 *
+	 * @throws IOException if it can't be read
+	 */
+	public static int checksum(File f) throws IOException {
+		DataInputStream in = new DataInputStream(new FileInputStream(f));
+		try {
+			in.skipBytes(24);
+			return in.readInt();
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * @param text The string table
+	 * @param k An index into it, from the snapshot
+	 * @param f The snapshot, for the error message
+	 *
+	 * @return the string
+	 *
+	 * @throws IOException if the index is out of range
+	 */
+	static String string(String[] text, int k, File f) throws IOException {
+		if (k < 0 || k >= text.length)
+			throw new IOException(f + " is corrupt");
+		return text[k];
+	}
+
+	/**
+	 * Pick the file load() will try first: the file itself if it's a
+	 * snapshot, the form's snapshot if it was compiled from the form
+	 * as it is now, and otherwise the text form.
+	 *
+	 * @param formFile The form file, or a snapshot
+	 *
+	 * @return the file
+	 */
+	public static File source(String formFile) {
+		File text = new File(formFile);
+		if (isSnapshot(text))
+			return text;
+		File snapshot = snapshotFor(formFile);
+		if (snapshot.exists() && compiledFrom(snapshot, text))
+			return snapshot;
+		return text;
+	}
+
+	/**
+	 * Load a ballot form the fastest way there is: from source(), and
+	 * if that's a snapshot that won't load, from the text form.
+	 *
+	 * @param formFile The form file, or a snapshot
+	 *
+	 * @return the form
+	 *
+	 * @throws IOException if formFile is a snapshot and won't load
+	 */
+	public static BallotForm load(String formFile) throws IOException {
+		File from = source(formFile);
+		if (from.getPath().equals(formFile)) {
+			if (isSnapshot(from))
+				return read(from);
+			if (snapshotFor(formFile).exists())
+				System.err.println("Ignoring " + snapshotFor(formFile)
+						+ ", which wasn't compiled from " + formFile
+						+ " as it is now; recompile it with FormCompiler");
+			return BallotForm.read(formFile);
+		}
+		try {
+			return read(from);
+		} catch (IOException e) {
+			System.err.println("Ignoring " + e.getMessage());
+			return BallotForm.read(formFile);
+		}
+	}
+
+	/**
+	 * Compile a form file, then load the snapshot back and check it
+	 * against the form.
+	 */
+	public static void main(String[] args) {
+		if (args.length < 1 || args.length > 2) {
+			System.out.println("FormCompiler <form file> [snapshot]");
+			System.out.println("\tThe snapshot defaults to <form file>"
+					+ FILE_SUFFIX);
+			return;
+		}
+		if (!new File(args[0]).canRead()) {
+			System.err.println("Error: Can't read ballot form file " + args[0]);
+			System.exit(-1);
+		}
+		File out = args.length > 1 ? new File(args[1]) : snapshotFor(args[0]);
+		try {
+			BallotForm form = BallotForm.read(args[0]);
+			write(form, new File(args[0]), out);
+			if (read(out).checksum() != form.checksum()
+					|| checksum(out) != form.checksum())
+				throw new IOException(out + " doesn't match " + args[0]);
+			System.out.println("Compiled " + form.contests() + " contests to "
+					+ out + " (" + out.length() + " bytes)");
+		} catch (IOException e) {
+			System.err.println("Error: " + e.getMessage());
+			System.exit(-1);
+		}
+	}
+}
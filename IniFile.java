@@ -1,489 +1,624 @@
-/*
- * IniFile.java
- * A class for handling Windows-style INI files.
- * 
- * Copyright Steve DeGroof, degroof@mindspring.com,
- * http://www.mindspring.com/~degroof
- * 
- * The source code provided here should be considered example
- * code. That is, you can use or modify it without permission. On the
- * other hand, you're using the code at your own risk.
- */
-
-import java.io.*;
-import java.util.*;
-
-/**
- * A class for handling Windows-style INI files. The file format is as 
- * follows:  <dl>
- *<dt>[subject]
- * <dd>anything beginning with [ and ending with ] is a subject 
- *<dt>;comment
- * <dd>anything beginning with a ; is a comment 
- *<dt>variable=value
- * <dd>anything of the format string=string is an assignment 
- *<dt>comment
- * <dd>anything that doesn't match any of the above is a comment 
- * </dl>
- * @author Steve DeGroof
- * @author <A HREF="mailto:degroof@mindspring.com"><I>degroof@mindspring.com</A></I>
- * @author <A HREF="http://www.mindspring.com/~degroof"><I>http://www.mindspring.com/~degroof</A></I>
- */
-public class IniFile extends Object {
-	/**Actual text lines of the file stored in a vector.*/
-	protected Vector<String> lines;
-
-	/**A vector of all subjects*/
-	protected Vector<String> subjects;
-
-	/**A vector of variable name vectors grouped by subject*/
-	protected Vector variables;
-
-	/**A vector of variable value vectors grouped by subject*/
-	protected Vector values;
-
-	/**Name of the file*/
-	protected String fileName;
-
-	/**If true, INI file will be saved every time a value is changed. Defaults to false*/
-	protected boolean saveOnChange = false;
-
-	/**
-	 * Creates an INI file object using the specified name
-	 * If the named file doesn't exist, create one
-	 * @param name the name of the file
-	 */
-	public IniFile(String name) {
-		this(name, false);
-	}
-
-	/**
-	 * Creates an INI file object using the specified name
-	 * If the named file doesn't exist, create one
-	 * @param name the name of the file
-	 * @param saveOnSet save file whenever a value is set
-	 */
-	public IniFile(String name, boolean save) {
-		saveOnChange = save;
-		fileName = name;
-		if (!((new File(name)).exists())) {
-			if (!createFile())
-				return;
-		}
-		loadFile();
-		parseLines();
-	}
-
-	/**
-	 * Loads and parses the INI file. Can be used to reload from file.
-	 */
-	public void loadFile() {
-		//reset all vectors
-		lines = new Vector<String> ();
-		subjects = new Vector<String>();
-		variables = new Vector();
-		values = new Vector();
-		//open the file
-		try {
-			BufferedReader ini = new BufferedReader(new FileReader(fileName));
-			String line = "";
-			//read all the lines in
-			while (true) {
-				line = ini.readLine();
-				if (line == null)
-					break;
-				else
-					lines.addElement(line.trim());
-			}
-			ini.close();
-		} catch (IOException e) {
-			System.out.println("IniFile load failed: " + e.getMessage());
-			e.printStackTrace();
-		}
-	}
-
-	/**
-	 * Create a new INI file.
-	 */
-	protected boolean createFile() {
-		try {
-			DataOutputStream newFile = new DataOutputStream(
-					new FileOutputStream(fileName));
-			newFile.writeBytes(";INI File: " + fileName
-					+ System.getProperty("line.separator"));
-			newFile.close();
-			return true;
-		} catch (IOException e) {
-			System.out.println("IniFile create failed: " + e.getMessage());
-			e.printStackTrace();
-			return false;
-		}
-	}
-
-	/**
-	 * Reads lines, filling in subjects, variables and values.
-	 */
-	protected void parseLines() {
-		String currentLine = null; //current line being parsed
-		String currentSubject = null; //the last subject found
-		for (int i = 0; i < lines.size(); i++) //parse all lines
-		{
-			currentLine = (String) lines.elementAt(i);
-			if (isaSubject(currentLine)) //if line is a subject, set currentSubject
-			{
-				currentSubject = currentLine.substring(1,
-						currentLine.length() - 1);
-			} else if (isanAssignment(currentLine)) //if line is an assignment, add it
-			{
-				String assignment = currentLine;
-				addAssignment(currentSubject, assignment);
-			}
-		}
-	}
-
-	/**
-	 * Adds and assignment (i.e. "variable=value") to a subject.
-	 */
-	protected boolean addAssignment(String subject, String assignment) {
-		String value;
-		String variable;
-		int index = assignment.indexOf("=");
-		variable = assignment.substring(0, index);
-		value = assignment.substring(index + 1, assignment.length());
-		if ((value.length() == 0) || (variable.length() == 0))
-			return false;
-		else
-			return addValue(subject, variable, value, false);
-	}
-
-	/**
-	 * Sets a specific subject/variable combination the given value. If the subject
-	 * doesn't exist, create it. If the variable doesn't exist, create it. If 
-	 * saveOnChange is true, save the file;
-	 * @param subject the subject heading (e.g. "Widget Settings")
-	 * @param variable the variable name (e.g. "Color")
-	 * @param value the value of the variable (e.g. "green")
-	 * @return true if successful
-	 */
-	public boolean setValue(String subject, String variable, String value) {
-		boolean result = addValue(subject, variable, value, true);
-		if (saveOnChange)
-			saveFile();
-		return result;
-	}
-
-	/**
-	 * Sets a specific subject/variable combination the given value. If the subject
-	 * doesn't exist, create it. If the variable doesn't exist, create it.
-	 * @param subject the subject heading (e.g. "Widget Settings")
-	 * @param variable the variable name (e.g. "Color")
-	 * @param value the value of the variable (e.g. "green")
-	 * @param addToLines add the information to the lines vector
-	 * @return true if successful
-	 */
-	protected boolean addValue(String subject, String variable, String value,
-			boolean addToLines) {
-		//if no subject, quit
-		if ((subject == null) || (subject.length() == 0))
-			return false;
-
-		//if no variable, quit
-		if ((variable == null) || (variable.length() == 0))
-			return false;
-
-		//if the subject doesn't exist, add it to the end
-		if (!subjects.contains(subject)) {
-			subjects.addElement(subject);
-			variables.addElement(new Vector());
-			values.addElement(new Vector());
-		}
-
-		//set the value, if the variable doesn't exist, add it to the end of the subject
-		int subjectIndex = subjects.indexOf(subject);
-		Vector subjectVariables = (Vector) (variables.elementAt(subjectIndex));
-		Vector subjectValues = (Vector) (values.elementAt(subjectIndex));
-		if (!subjectVariables.contains(variable)) {
-			subjectVariables.addElement(variable);
-			subjectValues.addElement(value);
-		}
-		int variableIndex = subjectVariables.indexOf(variable);
-		subjectValues.setElementAt(value, variableIndex);
-
-		//add it to the lines vector?
-		if (addToLines)
-			setLine(subject, variable, value);
-
-		return true;
-	}
-
-	/**
-	 * does the line represent a subject?
-	 * @param line a string representing a line from an INI file
-	 * @return true if line is a subject
-	 */
-	protected boolean isaSubject(String line) {
-		return (line.startsWith("[") && line.endsWith("]"));
-	}
-
-	/**
-	 * set a line in the lines vector 
-	 * @param subject the subject heading (e.g. "Widget Settings")
-	 * @param variable the variable name (e.g. "Color")
-	 * @param value the value of the variable (e.g. "green")
-	 */
-	protected void setLine(String subject, String variable, String value) {
-		//find the line containing the subject
-		int subjectLine = findSubjectLine(subject);
-		if (subjectLine == -1) {
-			addSubjectLine(subject);
-			subjectLine = lines.size() - 1;
-		}
-		//find the last line of the subject
-		int endOfSubject = endOfSubject(subjectLine);
-		//find the assignment within the subject
-		int lineNumber = findAssignmentBetween(variable, subjectLine, endOfSubject)%3;
-
-		//if an assignment line doesn't exist, insert one, else change the existing one
-		if (lineNumber == -1)
-			lines.insertElementAt(variable + "=" + value, endOfSubject);
-		else
-			lines.setElementAt(variable + "=" + value, lineNumber);
-	}
-
-	/**
-	 * find the line containing a variable within a subject
-	 * @param subject the subject heading (e.g. "Widget Settings")
-	 * @param variable the variable name (e.g. "Color")
-	 * @return the line number of the assignment, -1 if not found
-	 */
-	protected int findAssignmentLine(String subject, String variable) {
-		int start = findSubjectLine(subject);
-		int end = endOfSubject(start);
-		return findAssignmentBetween(variable, start, end);
-	}
-
-	/**
-	 * find the line containing a variable within a range of lines
-	 * @param variable the variable name (e.g. "Color")
-	 * @param start the start of the range (inclusive)
-	 * @param end the end of the range (exclusive)
-	 * @return the line number of the assignment, -1 if not found
-	 */
-	protected int findAssignmentBetween(String variable, int start, int end) {
-		for (int i = start; i < end; i++) {
-			if (((String) lines.elementAt(i)).startsWith(variable + "="))
-				return i;
-		}
-		return -1;
-	}
-
-	/**
-	 * add a subject line to the end of the lines vector
-	 * @param subject the subject heading (e.g. "Widget Settings")
-	 */
-	protected void addSubjectLine(String subject) {
-		lines.addElement("[" + subject + "]");
-	}
-
-	/**
-	 * find a subject line within the lines vector
-	 * @param subject the subject heading (e.g. "Widget Settings")
-	 * @return the line number of the subject, -1 if not found
-	 */
-	protected int findSubjectLine(String subject) {
-		String line;
-		String formattedSubject = "[" + subject + "]";
-		for (int i = 0; i < lines.size(); i++) {
-			line = (String) lines.elementAt(i);
-			if (formattedSubject.equals(line))
-				return i;
-		}
-		return -1;
-	}
-
-	/**
-	 * find the line number which is 1 past the last assignment in a subject
-	 * starting at a given line
-	 * @param start the line number at which to start looking
-	 * @return the line number of the last assignment + 1
-	 */
-	protected int endOfSubject(int start) {
-		int endIndex = start + 1;
-		if (start >= lines.size())
-			return lines.size();
-		for (int i = start + 1; i < lines.size(); i++) {
-			if (isanAssignment((String) lines.elementAt(i)))
-				endIndex = i + 1;
-			if (isaSubject((String) lines.elementAt(i)))
-				return endIndex;
-		}
-		return endIndex;
-	}
-
-	/**
-	 * does the line represent an assignment?
-	 * @param line a string representing a line from an INI file
-	 * @return true if line is an assignment
-	 */
-	protected boolean isanAssignment(String line) {
-		if ((line.indexOf("=") != -1) && (!line.startsWith(";")))
-			return true;
-		else
-			return false;
-	}
-
-	/**
-	 * get a copy of the lines vector
-	 */
-	public Vector getLines() {
-		return (Vector) lines.clone();
-	}
-
-	/**
-	 * get a vector containing all variables in a subject
-	 * @param subject the subject heading (e.g. "Widget Settings")
-	 * @return a list of variables, empty vector if subject not found
-	 */
-	public String[] getVariables(String subject) {
-		String[] v;
-		int index = subjects.indexOf(subject);
-		if (index != -1) {
-			Vector vars = (Vector) (variables.elementAt(index));
-			v = new String[vars.size()];
-			vars.copyInto(v);
-			return v;
-		} else {
-			v = new String[0];
-			return v;
-		}
-	}
-
-	/**
-	 * get an array containing all subjects
-	 * @return a list of subjects
-	 */
-	public String[] getSubjects() {
-		String[] s = new String[subjects.size()];
-		subjects.copyInto(s);
-		return s;
-	}
-
-	/**
-	 * get the value of a variable within a subject
-	 * @param subject the subject heading (e.g. "Widget Settings")
-	 * @param variable the variable name (e.g. "Color")
-	 * @return the value of the variable (e.g. "green"), empty string if not found
-	 */
-	public String getValue(String subject, String variable) {
-		int subjectIndex = subjects.indexOf(subject);
-		if (subjectIndex == -1)
-			return "";
-		Vector valVector = (Vector) (values.elementAt(subjectIndex));
-		Vector varVector = (Vector) (variables.elementAt(subjectIndex));
-		int valueIndex = varVector.indexOf(variable);
-		if (valueIndex != -1) {
-			return (String) (valVector.elementAt(valueIndex));
-		}
-		return "";
-	}
-
-	/**
-	 * delete variable within a subject
-	 * @param subject the subject heading (e.g. "Widget Settings")
-	 * @param variable the variable name (e.g. "Color")
-	 */
-	public void deleteValue(String subject, String variable) {
-		int subjectIndex = subjects.indexOf(subject);
-		if (subjectIndex == -1)
-			return;
-
-		Vector valVector = (Vector) (values.elementAt(subjectIndex));
-		Vector varVector = (Vector) (variables.elementAt(subjectIndex));
-
-		int valueIndex = varVector.indexOf(variable);
-		if (valueIndex != -1) {
-			//delete from variables and values vectors
-			valVector.removeElementAt(valueIndex);
-			varVector.removeElementAt(valueIndex);
-			//delete from lines vector
-			int assignmentLine = findAssignmentLine(subject, variable);
-			if (assignmentLine != -1) {
-				lines.removeElementAt(assignmentLine);
-			}
-			//if the subject is empty, delete it
-			if (varVector.size() == 0) {
-				deleteSubject(subject);
-			}
-			if (saveOnChange)
-				saveFile();
-		}
-	}
-
-	/**
-	 * delete a subject and all its variables
-	 * @param subject the subject heading (e.g. "Widget Settings")
-	 */
-	public void deleteSubject(String subject) {
-		int subjectIndex = subjects.indexOf(subject);
-		if (subjectIndex == -1)
-			return;
-		//delete from subjects, variables and values vectors
-		values.removeElementAt(subjectIndex);
-		variables.removeElementAt(subjectIndex);
-		subjects.removeElementAt(subjectIndex);
-		//delete from lines vector
-		int start = findSubjectLine(subject);
-		int end = endOfSubject(start);
-		for (int i = start; i < end; i++) {
-			lines.removeElementAt(start);
-		}
-		if (saveOnChange)
-			saveFile();
-	}
-
-	/**
-	 * save the lines vector back to the INI file
-	 */
-	public void saveFile() {
-		try {
-			DataOutputStream outFile = new DataOutputStream(
-					new BufferedOutputStream(new FileOutputStream(fileName)));
-			for (int i = 0; i < lines.size(); i++) {
-				outFile.writeBytes((String) (lines.elementAt(i))
-						+ System.getProperty("line.separator"));
-			}
-			outFile.close();
-		} catch (IOException e) {
-			System.out.println("IniFile save failed: " + e.getMessage());
-			e.printStackTrace();
-		}
-	}
-
-	/**
-	 * clean up
-	 */
-	protected void finalize() {
-		saveFile();
-	}
-
-	public static void main(String[] args) {
-		if (args.length != 1) {
-			System.out.println("IniFile <filename>");
-			System.exit(0);
-		} else {
-			String[] vars;
-			IniFile f = new IniFile(args[0]);
-			String[] subs = f.getSubjects();
-			for (int i = 0; i < subs.length; i++) {
-				System.out.println(subs[i]);
-				vars = f.getVariables(subs[i]);
-				for (int j = 0; j < vars.length; j++) {
-					System.out.println("  '" + vars[j] + "' = '"
-							+ f.getValue(subs[i], vars[j]) + "'");
-				}
-			}
-		}
-	}
-
-}
-
+/*
+ * IniFile.java
+ * A class for handling Windows-style INI files.
+ * 
+ * Copyright Steve DeGroof, degroof@mindspring.com,
+ * http://www.mindspring.com/~degroof
+ * 
+ * The source code provided here should be considered example
+ * code. That is, you can use or modify it without permission. On the
+ * other hand, you're using the code at your own risk.
+ */
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.*;
+
+/**
+ * A class for handling Windows-style INI files. The file format is as 
+ * follows:  <dl>
+ *<dt>[subject]
+ * <dd>anything beginning with [ and ending with ] is a subject 
+ *<dt>;comment
+ * <dd>anything beginning with a ; is a comment 
+ *<dt>variable=value
+ * <dd>anything of the format string=string is an assignment 
+ *<dt>comment
+ * <dd>anything that doesn't match any of the above is a comment 
+ * </dl>
+ * @author Steve DeGroof
+ * @author <A HREF="mailto:degroof@mindspring.com"><I>degroof@mindspring.com</A></I>
+ * @author <A HREF="http://www.mindspring.com/~degroof"><I>http://www.mindspring.com/~degroof</A></I>
+ */
+public class IniFile extends Object implements Closeable {
+	/**
+	 * The lines of the file, cut at each subject line.  The first
+	 * section holds the lines before any subject and has no subject.
+	 */
+	protected ArrayList<Section> sections;
+
+	/**The first section headed by each subject line*/
+	protected HashMap<String, Section> sectionOf;
+
+	/**Values by subject and variable, in the order they were first seen*/
+	protected LinkedHashMap<String, LinkedHashMap<String, String>> values;
+
+	/**Name of the file*/
+	protected String fileName;
+
+	/**If true, INI file will be saved every time a value is changed. Defaults to false*/
+	protected boolean saveOnChange = false;
+
+	/**True if the lines have changed since the file was loaded or saved*/
+	protected boolean dirty = false;
+
+	/**
+	 * The files' character set, for reading and writing alike, so a
+	 * file reads the same on any machine
+	 */
+	public static final Charset CHARSET = Charset.forName("UTF-8");
+
+	/**Lays out and writes the file; kept for the next save*/
+	protected IniWriter writer;
+
+	/**Characters read at a time by parse; a longer line grows the buffer*/
+	static final int PARSE_BUFFER = 4096;
+
+	/**
+	 * Receives the assignments of an INI file from parse, as they are
+	 * read.
+	 */
+	public interface Handler {
+		/**
+		 * An assignment, in file order.  Only the assignments an
+		 * IniFile would load are passed on; a variable assigned twice is
+		 * passed on twice, where an IniFile keeps the last value.
+		 * @param subject the subject heading (e.g. "Widget Settings")
+		 * @param variable the variable name (e.g. "Color")
+		 * @param value the value of the variable (e.g. "green")
+		 * @throws IOException to stop reading
+		 */
+		void value(String subject, String variable, String value)
+				throws IOException;
+	}
+
+	/**
+	 * A subject line and the lines up to the next one, with the
+	 * position of each assignment among them.
+	 */
+	protected class Section {
+		/**The subject, or null before the first subject line*/
+		String subject;
+
+		/**The lines, starting with the subject line*/
+		ArrayList<String> lines = new ArrayList<String>();
+
+		/**Where the first assignment to each variable is in lines*/
+		HashMap<String, Integer> assignments = new HashMap<String, Integer>();
+
+		/**One past the last assignment in lines; new assignments go here*/
+		int end;
+
+		/**
+		 * Start a section
+		 * @param subject the subject, null for the lines before any subject
+		 */
+		Section(String subject) {
+			this.subject = subject;
+			end = (subject == null) ? 0 : 1;
+		}
+
+		/**
+		 * add a line to the end of the section
+		 * @param line the line
+		 */
+		void add(String line) {
+			if (isanAssignment(line)) {
+				String variable = line.substring(0, line.indexOf("="));
+				if (!assignments.containsKey(variable))
+					assignments.put(variable, Integer.valueOf(lines.size()));
+				end = lines.size() + 1;
+			}
+			lines.add(line);
+		}
+
+		/**
+		 * index the assignments again after lines were removed
+		 */
+		void reindex() {
+			ArrayList<String> old = lines;
+			lines = new ArrayList<String>(old.size());
+			assignments.clear();
+			end = (subject == null) ? 0 : 1;
+			for (int i = 0; i < old.size(); i++)
+				add(old.get(i));
+		}
+	}
+
+	/**
+	 * Creates an INI file object using the specified name
+	 * If the named file doesn't exist, create one
+	 * @param name the name of the file
+	 */
+	public IniFile(String name) {
+		this(name, false);
+	}
+
+	/**
+	 * Creates an INI file object using the specified name
+	 * If the named file doesn't exist, create one
+	 * @param name the name of the file
+	 * @param saveOnSet save file whenever a value is set
+	 */
+	public IniFile(String name, boolean save) {
+		saveOnChange = save;
+		fileName = name;
+		if (!((new File(name)).exists())) {
+			if (!createFile())
+				return;
+		}
+		loadFile();
+		parseLines();
+	}
+
+	/**
+	 * Loads and parses the INI file. Can be used to reload from file.
+	 */
+	public void loadFile() {
+		dirty = false;
+		//reset the sections and values
+		sections = new ArrayList<Section>();
+		sectionOf = new HashMap<String, Section>();
+		values = new LinkedHashMap<String, LinkedHashMap<String, String>>();
+		sections.add(new Section(null));
+		//not kept: its buffer holds a copy of the whole file
+		MappedIniReader reader = new MappedIniReader();
+		try {
+			//read all the lines in, already trimmed, starting a section
+			//at each subject
+			reader.lines(fileName, new MappedIniReader.LineHandler() {
+				public void line(MappedIniReader.Text text) {
+					String line = text.toString();
+					if (isaSubject(line))
+						addSubjectLine(line.substring(1, line.length() - 1));
+					sections.get(sections.size() - 1).add(line);
+				}
+			});
+		} catch (IOException e) {
+			System.out.println("IniFile load failed: " + e.getMessage());
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Read an INI file without loading it.  The file is read with the
+	 * same rules as an IniFile, but nothing is kept: neither the lines
+	 * nor the values, so any number of files can be read in constant
+	 * memory.  The file is never written.
+	 * @param name the name of the file
+	 * @param handler receives each assignment
+	 * @throws IOException if the file can't be read, or the handler
+	 * stops the read
+	 */
+	public static void parse(String name, Handler handler) throws IOException {
+		File file = new File(name);
+		long length = file.length();
+		if (length > 0 && length < PARSE_BUFFER) {
+			//small, like a ballot: read it whole, without a Reader's buffers
+			byte[] bytes = new byte[(int) length];
+			int n = 0;
+			InputStream in = new FileInputStream(file);
+			try {
+				while (n < bytes.length) {
+					int got = in.read(bytes, n, bytes.length - n);
+					if (got < 0)
+						break;
+					n += got;
+				}
+			} finally {
+				in.close();
+			}
+			String text = new String(bytes, 0, n, CHARSET);
+			parse(new StringReader(text), new char[text.length() + 1], handler);
+			return;
+		}
+		Reader in = new InputStreamReader(new FileInputStream(file), CHARSET);
+		try {
+			parse(in, handler);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Read INI text without loading it, as parse(String, Handler) does.
+	 * Lines are cut out of one buffer; the only strings made are the
+	 * subjects, variables and values passed on.
+	 * @param in the text; not closed
+	 * @param handler receives each assignment
+	 * @throws IOException if the text can't be read, or the handler
+	 * stops the read
+	 */
+	public static void parse(Reader in, Handler handler) throws IOException {
+		parse(in, new char[PARSE_BUFFER], handler);
+	}
+
+	/**
+	 * Read INI text without loading it.
+	 * @param in the text; not closed
+	 * @param buf the buffer to start with
+	 * @param handler receives each assignment
+	 * @throws IOException if the text can't be read, or the handler
+	 * stops the read
+	 */
+	static void parse(Reader in, char[] buf, Handler handler)
+			throws IOException {
+		String subject = null;
+		int start = 0; //start of the current line
+		int scan = 0; //where to look for the end of the line
+		int end = 0; //end of the characters read
+		boolean eof = false;
+		while (true) {
+			while (scan < end && buf[scan] != '\n' && buf[scan] != '\r')
+				scan++;
+			if (scan == end && !eof) {
+				//no line end yet; make room and read more
+				if (start > 0) {
+					System.arraycopy(buf, start, buf, 0, end - start);
+					end -= start;
+					scan -= start;
+					start = 0;
+				}
+				if (end == buf.length)
+					buf = Arrays.copyOf(buf, buf.length * 2);
+				int n = in.read(buf, end, buf.length - end);
+				if (n < 0)
+					eof = true;
+				else
+					end += n;
+				continue;
+			}
+			//a blank line between \r and \n is skipped like any other
+			int s = start;
+			int e = scan;
+			while (s < e && buf[s] <= ' ')
+				s++;
+			while (e > s && buf[e - 1] <= ' ')
+				e--;
+			if (s < e) {
+				if (buf[s] == '[' && buf[e - 1] == ']' && e - s >= 2) {
+					subject = new String(buf, s + 1, e - s - 2);
+				} else if (buf[s] != ';') {
+					int eq = s;
+					while (eq < e && buf[eq] != '=')
+						eq++;
+					if (eq > s && eq < e - 1 && subject != null
+							&& subject.length() > 0)
+						handler.value(subject, new String(buf, s, eq - s),
+								new String(buf, eq + 1, e - eq - 1));
+				}
+			}
+			if (scan == end)
+				return;
+			start = ++scan;
+		}
+	}
+
+	/**
+	 * Create a new INI file.
+	 */
+	protected boolean createFile() {
+		try {
+			new IniWriter(CHARSET).comment("INI File: " + fileName).write(
+					new File(fileName));
+			return true;
+		} catch (IOException e) {
+			System.out.println("IniFile create failed: " + e.getMessage());
+			e.printStackTrace();
+			return false;
+		}
+	}
+
+	/**
+	 * Reads lines, filling in subjects, variables and values.
+	 */
+	protected void parseLines() {
+		for (int i = 0; i < sections.size(); i++) //parse all sections
+		{
+			Section section = sections.get(i);
+			for (int j = 0; j < section.lines.size(); j++) {
+				String currentLine = section.lines.get(j);
+				if (isanAssignment(currentLine)) //if line is an assignment, add it
+					addAssignment(section.subject, currentLine);
+			}
+		}
+	}
+
+	/**
+	 * Adds and assignment (i.e. "variable=value") to a subject.
+	 */
+	protected boolean addAssignment(String subject, String assignment) {
+		String value;
+		String variable;
+		int index = assignment.indexOf("=");
+		variable = assignment.substring(0, index);
+		value = assignment.substring(index + 1, assignment.length());
+		if ((value.length() == 0) || (variable.length() == 0))
+			return false;
+		else
+			return addValue(subject, variable, value, false);
+	}
+
+	/**
+	 * Sets a specific subject/variable combination the given value. If the subject
+	 * doesn't exist, create it. If the variable doesn't exist, create it. If 
+	 * saveOnChange is true, save the file;
+	 * @param subject the subject heading (e.g. "Widget Settings")
+	 * @param variable the variable name (e.g. "Color")
+	 * @param value the value of the variable (e.g. "green")
+	 * @return true if successful
+	 */
+	public boolean setValue(String subject, String variable, String value) {
+		boolean result = addValue(subject, variable, value, true);
+		if (saveOnChange)
+			saveFile();
+		return result;
+	}
+
+	/**
+	 * Sets a specific subject/variable combination the given value. If the subject
+	 * doesn't exist, create it. If the variable doesn't exist, create it.
+	 * @param subject the subject heading (e.g. "Widget Settings")
+	 * @param variable the variable name (e.g. "Color")
+	 * @param value the value of the variable (e.g. "green")
+	 * @param addToLines add the information to the lines
+	 * @return true if successful
+	 */
+	protected boolean addValue(String subject, String variable, String value,
+			boolean addToLines) {
+		//if no subject, quit
+		if ((subject == null) || (subject.length() == 0))
+			return false;
+
+		//if no variable, quit
+		if ((variable == null) || (variable.length() == 0))
+			return false;
+
+		//if the subject doesn't exist, add it to the end
+		LinkedHashMap<String, String> subjectValues = values.get(subject);
+		if (subjectValues == null) {
+			subjectValues = new LinkedHashMap<String, String>();
+			values.put(subject, subjectValues);
+		}
+
+		//set the value, if the variable doesn't exist, add it to the end of the subject
+		subjectValues.put(variable, value);
+
+		//add it to the lines?
+		if (addToLines)
+			setLine(subject, variable, value);
+
+		return true;
+	}
+
+	/**
+	 * does the line represent a subject?
+	 * @param line a string representing a line from an INI file
+	 * @return true if line is a subject
+	 */
+	protected boolean isaSubject(String line) {
+		return (line.startsWith("[") && line.endsWith("]"));
+	}
+
+	/**
+	 * set a line in the lines 
+	 * @param subject the subject heading (e.g. "Widget Settings")
+	 * @param variable the variable name (e.g. "Color")
+	 * @param value the value of the variable (e.g. "green")
+	 */
+	protected void setLine(String subject, String variable, String value) {
+		//find the section headed by the subject
+		Section section = sectionOf.get(subject);
+		if (section == null) {
+			section = addSubjectLine(subject);
+			section.add("[" + subject + "]");
+		}
+		//find the assignment within the subject
+		Integer lineNumber = section.assignments.get(variable);
+		String line = variable + "=" + value;
+
+		//if an assignment line doesn't exist, insert one after the
+		//last assignment, else change the existing one.  Only comments
+		//follow the last assignment, so no other assignment moves.
+		//Setting a line to what it already says leaves the file clean.
+		if (lineNumber == null) {
+			section.assignments.put(variable, Integer.valueOf(section.end));
+			section.lines.add(section.end, line);
+			section.end++;
+			dirty = true;
+		} else if (!line.equals(section.lines.set(lineNumber.intValue(), line)))
+			dirty = true;
+	}
+
+	/**
+	 * start a section for a subject at the end of the file
+	 * @param subject the subject heading (e.g. "Widget Settings")
+	 * @return the section, still empty; its first line is the subject line
+	 */
+	protected Section addSubjectLine(String subject) {
+		Section section = new Section(subject);
+		sections.add(section);
+		if (!sectionOf.containsKey(subject))
+			sectionOf.put(subject, section);
+		return section;
+	}
+
+	/**
+	 * does the line represent an assignment?
+	 * @param line a string representing a line from an INI file
+	 * @return true if line is an assignment
+	 */
+	protected boolean isanAssignment(String line) {
+		if ((line.indexOf("=") != -1) && (!line.startsWith(";")))
+			return true;
+		else
+			return false;
+	}
+
+	/**
+	 * get a copy of the lines of the file
+	 */
+	public Vector<String> getLines() {
+		Vector<String> lines = new Vector<String>();
+		for (int i = 0; i < sections.size(); i++)
+			lines.addAll(sections.get(i).lines);
+		return lines;
+	}
+
+	/**
+	 * get a vector containing all variables in a subject
+	 * @param subject the subject heading (e.g. "Widget Settings")
+	 * @return a list of variables, empty vector if subject not found
+	 */
+	public String[] getVariables(String subject) {
+		LinkedHashMap<String, String> subjectValues = values.get(subject);
+		if (subjectValues == null)
+			return new String[0];
+		return subjectValues.keySet().toArray(new String[subjectValues.size()]);
+	}
+
+	/**
+	 * get an array containing all subjects
+	 * @return a list of subjects
+	 */
+	public String[] getSubjects() {
+		return values.keySet().toArray(new String[values.size()]);
+	}
+
+	/**
+	 * get the value of a variable within a subject
+	 * @param subject the subject heading (e.g. "Widget Settings")
+	 * @param variable the variable name (e.g. "Color")
+	 * @return the value of the variable (e.g. "green"), empty string if not found
+	 */
+	public String getValue(String subject, String variable) {
+		LinkedHashMap<String, String> subjectValues = values.get(subject);
+		if (subjectValues == null)
+			return "";
+		String value = subjectValues.get(variable);
+		if (value != null)
+			return value;
+		return "";
+	}
+
+	/**
+	 * delete variable within a subject
+	 * @param subject the subject heading (e.g. "Widget Settings")
+	 * @param variable the variable name (e.g. "Color")
+	 */
+	public void deleteValue(String subject, String variable) {
+		LinkedHashMap<String, String> subjectValues = values.get(subject);
+		if (subjectValues == null)
+			return;
+
+		if (subjectValues.remove(variable) != null) {
+			//delete from the lines
+			Section section = sectionOf.get(subject);
+			Integer assignmentLine = (section == null) ? null
+					: section.assignments.get(variable);
+			if (assignmentLine != null) {
+				section.lines.remove(assignmentLine.intValue());
+				section.reindex();
+				dirty = true;
+			}
+			//if the subject is empty, delete it
+			if (subjectValues.size() == 0) {
+				deleteSubject(subject);
+			}
+			if (saveOnChange)
+				saveFile();
+		}
+	}
+
+	/**
+	 * delete a subject and all its variables
+	 * @param subject the subject heading (e.g. "Widget Settings")
+	 */
+	public void deleteSubject(String subject) {
+		if (values.remove(subject) == null)
+			return;
+		//delete the subject line and its assignments; comments after
+		//the last assignment stay, at the end of the section before
+		Section section = sectionOf.remove(subject);
+		if (section != null) {
+			dirty = true;
+			int index = sections.indexOf(section);
+			sections.remove(index);
+			Section before = sections.get(index - 1);
+			before.lines.addAll(section.lines.subList(section.end,
+					section.lines.size()));
+			//a later section with the same subject line takes over
+			for (int i = index; i < sections.size(); i++) {
+				if (subject.equals(sections.get(i).subject)) {
+					sectionOf.put(subject, sections.get(i));
+					break;
+				}
+			}
+		}
+		if (saveOnChange)
+			saveFile();
+	}
+
+	/**
+	 * save the lines back to the INI file, if they have changed since
+	 * it was loaded or last saved.  The file is replaced in one step,
+	 * so a crash leaves either the old file or the new one.
+	 */
+	public void saveFile() {
+		if (!dirty)
+			return;
+		if (writer == null)
+			writer = new IniWriter(CHARSET);
+		try {
+			writer.reset();
+			for (int i = 0; i < sections.size(); i++) {
+				ArrayList<String> lines = sections.get(i).lines;
+				for (int j = 0; j < lines.size(); j++)
+					writer.line(lines.get(j));
+			}
+			writer.write(new File(fileName), true);
+			dirty = false;
+		} catch (IOException e) {
+			System.out.println("IniFile save failed: " + e.getMessage());
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * save any changes; the object shouldn't be used after
+	 */
+	public void close() {
+		saveFile();
+	}
+
+	public static void main(String[] args) {
+		if (args.length != 1) {
+			System.out.println("IniFile <filename>");
+			System.exit(0);
+		} else {
+			String[] vars;
+			IniFile f = new IniFile(args[0]);
+			String[] subs = f.getSubjects();
+			for (int i = 0; i < subs.length; i++) {
+				System.out.println(subs[i]);
+				vars = f.getVariables(subs[i]);
+				for (int j = 0; j < vars.length; j++) {
+					System.out.println("  '" + vars[j] + "' = '"
+							+ f.getValue(subs[i], vars[j]) + "'");
+				}
+			}
+		}
+	}
+
+}
+
@@ -0,0 +1,232 @@
+/*
+ * "Hack-a-vote", a Direct-Recording Electronic (DRE) voting machine
+ * software implementation.
+ * 
+ * Copyright 2003, Rice University. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ * - Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the
+ * distribution.
+ * 
+ * - Neither the name of Rice University (RICE) nor the names of its
+ * contributors may be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ * 
+ * This software is provided by RICE and the contributors on an "as
+ * is" basis, without any representations or warranties of any kind,
+ * express or implied including, but not limited to, representations
+ * or warranties of non-infringement, merchantability or fitness for a
+ * particular purpose. In no event shall RICE or contributors be
+ * liable for any direct, indirect, incidental, special, exemplary, or
+ * consequential damages (including, but not limited to, procurement
+ * of substitute goods or services; loss of use, data, or profits; or
+ * business interruption) however caused and on any theory of
+ * liability, whether in contract, strict liability, or tort
+ * (including negligence or otherwise) arising in any way out of the
+ * use of this software, even if advised of the possibility of such
+ * damage.
+ */
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.*;
+import java.nio.file.*;
+
+/**
+ * Builds an INI file a line at a time and writes it out whole.  The
+ * lines collect in one buffer and are encoded into one reusable byte
+ * buffer, which goes to the file in a single channel write, so a
+ * writer that is kept and reused allocates next to nothing per file.
+ * Lines are written as given, each followed by the platform line
+ * separator; reading the file back with IniFile trims them.  A file
+ * is replaced in one step, by renaming, never rewritten in place.
+ * <p>
+ * Not thread safe: give each thread its own.
+ */
+public class IniWriter {
+
+	/**
+	 * Ends every line, as IniFile has always written it
+	 */
+	static final String EOL = System.getProperty("line.separator");
+
+	/**
+	 * Characters and bytes to start with; enough for a ballot
+	 */
+	static final int INITIAL_BUFFER = 512;
+
+	/**
+	 * Added to a file's name while it is being written
+	 */
+	static final String TEMP_SUFFIX = ".tmp";
+
+	/**
+	 * The file so far
+	 */
+	StringBuilder text = new StringBuilder(INITIAL_BUFFER);
+
+	/**
+	 * Encodes the text
+	 */
+	CharsetEncoder encoder;
+
+	/**
+	 * The text as last encoded; grows to the largest file written
+	 */
+	ByteBuffer bytes = ByteBuffer.allocate(INITIAL_BUFFER);
+
+	/**
+	 * Build a writer that encodes in IniFile.CHARSET, the one IniFile
+	 * reads with.
+	 */
+	public IniWriter() {
+		this(IniFile.CHARSET);
+	}
+
+	/**
+	 * Build a writer.
+	 *
+	 * @param charset The file's character set
+	 */
+	public IniWriter(Charset charset) {
+		encoder = charset.newEncoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	}
+
+	/**
+	 * Add a line as it is.
+	 *
+	 * @param line The line
+	 *
+	 * @return this writer
+	 */
+	public IniWriter line(String line) {
+		text.append(line).append(EOL);
+		return this;
+	}
+
+	/**
+	 * Add a comment line.
+	 *
+	 * @param comment The comment, without its ';'
+	 *
+	 * @return this writer
+	 */
+	public IniWriter comment(String comment) {
+		text.append(';').append(comment).append(EOL);
+		return this;
+	}
+
+	/**
+	 * Start a subject.
+	 *
+	 * @param subject The subject heading (e.g. "Widget Settings")
+	 *
+	 * @return this writer
+	 */
+	public IniWriter subject(String subject) {
+		text.append('[').append(subject).append(']').append(EOL);
+		return this;
+	}
+
+	/**
+	 * Add an assignment to the current subject.
+	 *
+	 * @param variable The variable name (e.g. "Color")
+	 * @param value The value of the variable (e.g. "green")
+	 *
+	 * @return this writer
+	 */
+	public IniWriter value(String variable, String value) {
+		text.append(variable).append('=').append(value).append(EOL);
+		return this;
+	}
+
+	/**
+	 * Throw away everything added, to start the next file.
+	 */
+	public void reset() {
+		text.setLength(0);
+	}
+
+	/**
+	 * Encode everything added.
+	 *
+	 * @return the bytes of the file, ready to read; valid until this
+	 * writer is next used
+	 */
+	public ByteBuffer encode() {
+		CharBuffer in = CharBuffer.wrap(text);
+		int need = (int) (text.length() * encoder.averageBytesPerChar()) + 16;
+		if (bytes.capacity() < need)
+			bytes = ByteBuffer.allocate(need);
+		while (true) {
+			bytes.clear();
+			encoder.reset();
+			in.rewind();
+			CoderResult result = encoder.encode(in, bytes, true);
+			if (!result.isOverflow())
+				result = encoder.flush(bytes);
+			if (!result.isOverflow())
+				break;
+			bytes = ByteBuffer.allocate(bytes.capacity() * 2);
+		}
+		bytes.flip();
+		return bytes;
+	}
+
+	/**
+	 * Write everything added to a file, replacing it, and reset.
+	 *
+	 * @param file The file
+	 *
+	 * @throws IOException if the file can't be written
+	 */
+	public void write(File file) throws IOException {
+		write(file, false);
+	}
+
+	/**
+	 * Write everything added to a file, replacing it, and reset.  The
+	 * text goes to a temporary file beside it, which is then renamed
+	 * over it, so whatever happens the file is either the old one or
+	 * the new one, never part of the new one.
+	 *
+	 * @param file The file
+	 * @param force Whether to have the new file on disk before it
+	 * replaces the old, so it survives a power cut as well
+	 *
+	 * @throws IOException if the file can't be written
+	 */
+	public void write(File file, boolean force) throws IOException {
+		ByteBuffer out = encode();
+		File temp = new File(file.getPath() + TEMP_SUFFIX);
+		try {
+			FileChannel channel = new FileOutputStream(temp).getChannel();
+			try {
+				while (out.hasRemaining())
+					channel.write(out);
+				if (force)
+					channel.force(true);
+			} finally {
+				channel.close();
+			}
+			Files.move(temp.toPath(), file.toPath(),
+					StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			temp.delete(); // only still there if the move failed
+		}
+		reset();
+	}
+}
@@ -0,0 +1,254 @@
+/*
+ * "Hack-a-vote", a Direct-Recording Electronic (DRE) voting machine
+ * software implementation.
+ * 
+ * Copyright 2003, Rice University. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ * - Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the
+ * distribution.
+ * 
+ * - Neither the name of Rice University (RICE) nor the names of its
+ * contributors may be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ * 
+ * This software is provided by RICE and the contributors on an "as
+ * is" basis, without any representations or warranties of any kind,
+ * express or implied including, but not limited to, representations
+ * or warranties of non-infringement, merchantability or fitness for a
+ * particular purpose. In no event shall RICE or contributors be
+ * liable for any direct, indirect, incidental, special, exemplary, or
+ * consequential damages (including, but not limited to, procurement
+ * of substitute goods or services; loss of use, data, or profits; or
+ * business interruption) however caused and on any theory of
+ * liability, whether in contract, strict liability, or tort
+ * (including negligence or otherwise) arising in any way out of the
+ * use of this software, even if advised of the possibility of such
+ * damage.
+ */
+
+import java.util.*;
+
+/**
+ * A set of ints, stored unboxed in an open-addressed hash table.
+ * Lookups, insertions and removals take constant time no matter how
+ * many PINs are outstanding.  Collisions are resolved by linear
+ * probing, and removals shift the rest of the probe run back so the
+ * table never fills up with tombstones.
+ * <p>
+ * Not thread-safe; see StripedIntHashSet for the concurrent version.
+ */
+public class IntHashSet {
+
+	/**
+	 * Marks an empty slot.  The value 0 itself is tracked separately.
+	 */
+	static final int FREE = 0;
+
+	/**
+	 * Smallest table we bother with
+	 */
+	static final int MIN_CAPACITY = 16;
+
+	/**
+	 * The hash table; its length is always a power of two
+	 */
+	int[] table;
+
+	/**
+	 * Number of non-zero values in the table
+	 */
+	int count;
+
+	/**
+	 * Whether 0 is in the set
+	 */
+	boolean hasZero;
+
+	/**
+	 * Build an empty set.
+	 */
+	public IntHashSet() {
+		this(MIN_CAPACITY);
+	}
+
+	/**
+	 * Build an empty set sized for the given number of values.
+	 *
+	 * @param expected How many values the set should hold without
+	 * growing
+	 */
+	public IntHashSet(int expected) {
+		int capacity = MIN_CAPACITY;
+		while (capacity < expected * 2)
+			capacity <<= 1;
+		table = new int[capacity];
+	}
+
+	/**
+	 * Scramble a value so that runs of consecutive PINs spread out
+	 * over the table.
+	 *
+	 * @param v The value
+	 *
+	 * @return its hash
+	 */
+	static int mix(int v) {
+		int h = v * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Find the slot holding a value, or the free slot where it would go.
+	 *
+	 * @param v A non-zero value
+	 *
+	 * @return the slot index
+	 */
+	int slotOf(int v) {
+		int mask = table.length - 1;
+		int i = mix(v) & mask;
+		while (table[i] != FREE && table[i] != v)
+			i = (i + 1) & mask;
+		return i;
+	}
+
+	/**
+	 * @param v The value to look for
+	 *
+	 * @return true if v is in the set
+	 */
+	public boolean contains(int v) {
+		if (v == FREE)
+			return hasZero;
+		return table[slotOf(v)] == v;
+	}
+
+	/**
+	 * Add a value.
+	 *
+	 * @param v The value to add
+	 *
+	 * @return true if it wasn't already in the set
+	 */
+	public boolean add(int v) {
+		if (v == FREE) {
+			boolean added = !hasZero;
+			hasZero = true;
+			return added;
+		}
+		int i = slotOf(v);
+		if (table[i] == v)
+			return false;
+		table[i] = v;
+		if (++count * 2 > table.length)
+			resize(table.length * 2);
+		return true;
+	}
+
+	/**
+	 * Remove a value.
+	 *
+	 * @param v The value to remove
+	 *
+	 * @return true if it was in the set
+	 */
+	public boolean remove(int v) {
+		if (v == FREE) {
+			boolean removed = hasZero;
+			hasZero = false;
+			return removed;
+		}
+		int i = slotOf(v);
+		if (table[i] != v)
+			return false;
+		table[i] = FREE;
+		count--;
+
+		// Pull later members of the probe run back over the hole, so
+		// that every value stays reachable from its home slot.
+		int mask = table.length - 1;
+		int hole = i;
+		int j = (i + 1) & mask;
+		while (table[j] != FREE) {
+			int home = mix(table[j]) & mask;
+			if (((j - home) & mask) >= ((j - hole) & mask)) {
+				table[hole] = table[j];
+				table[j] = FREE;
+				hole = j;
+			}
+			j = (j + 1) & mask;
+		}
+		return true;
+	}
+
+	/**
+	 * @return how many values are in the set
+	 */
+	public int size() {
+		return count + (hasZero ? 1 : 0);
+	}
+
+	/**
+	 * Pick a member of the set at random.  Not uniform (a value
+	 * following a long gap in the table is likelier to be picked), but
+	 * constant time.
+	 *
+	 * @param r The random source
+	 *
+	 * @return a member of the set
+	 *
+	 * @throws NoSuchElementException if the set is empty
+	 */
+	public int randomElement(Random r) {
+		if (count == 0) {
+			if (hasZero)
+				return FREE;
+			throw new NoSuchElementException();
+		}
+		int mask = table.length - 1;
+		int i = r.nextInt(table.length);
+		while (table[i] == FREE)
+			i = (i + 1) & mask;
+		return table[i];
+	}
+
+	/**
+	 * Copy the members of the set into an array, in table order.
+	 *
+	 * @return the members
+	 */
+	public int[] toArray() {
+		int[] out = new int[size()];
+		int n = 0;
+		if (hasZero)
+			out[n++] = FREE;
+		for (int i = 0; i < table.length; i++) {
+			if (table[i] != FREE)
+				out[n++] = table[i];
+		}
+		return out;
+	}
+
+	/**
+	 * Rehash everything into a table of a new size.
+	 *
+	 * @param capacity The new table size, a power of two
+	 */
+	void resize(int capacity) {
+		int[] old = table;
+		table = new int[capacity];
+		for (int i = 0; i < old.length; i++) {
+			if (old[i] != FREE)
+				table[slotOf(old[i])] = old[i];
+		}
+	}
+}
@@ -0,0 +1,164 @@
+/*
+ * "Hack-a-vote", a Direct-Recording Electronic (DRE) voting machine
+ * software implementation.
+ * 
+ * Copyright 2003, Rice University. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ * - Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the
+ * distribution.
+ * 
+ * - Neither the name of Rice University (RICE) nor the names of its
+ * contributors may be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ * 
+ * This software is provided by RICE and the contributors on an "as
+ * is" basis, without any representations or warranties of any kind,
+ * express or implied including, but not limited to, representations
+ * or warranties of non-infringement, merchantability or fitness for a
+ * particular purpose. In no event shall RICE or contributors be
+ * liable for any direct, indirect, incidental, special, exemplary, or
+ * consequential damages (including, but not limited to, procurement
+ * of substitute goods or services; loss of use, data, or profits; or
+ * business interruption) however caused and on any theory of
+ * liability, whether in contract, strict liability, or tort
+ * (including negligence or otherwise) arising in any way out of the
+ * use of this software, even if advised of the possibility of such
+ * damage.
+ */
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * A bounded, lock-free FIFO queue of non-negative ints.  Any number
+ * of threads may put and take at once without blocking each other:
+ * every slot carries a sequence number saying whether it is ready to
+ * be written or read, and producers and consumers claim slots with a
+ * compare-and-set on their own counter.
+ */
+public class IntRingBuffer {
+
+	/**
+	 * What poll() returns when the buffer is empty
+	 */
+	public static final int EMPTY = -1;
+
+	/**
+	 * The values, indexed by position modulo the capacity
+	 */
+	int[] values;
+
+	/**
+	 * Per-slot sequence numbers: a slot is free for the put at
+	 * position p when its sequence is p, and holds the value for the
+	 * take at position p when its sequence is p + 1
+	 */
+	AtomicLongArray sequence;
+
+	/**
+	 * capacity - 1
+	 */
+	int mask;
+
+	/**
+	 * Position of the next put
+	 */
+	AtomicLong putPos = new AtomicLong();
+
+	/**
+	 * Position of the next take
+	 */
+	AtomicLong takePos = new AtomicLong();
+
+	/**
+	 * Build an empty buffer.
+	 *
+	 * @param capacity How many values it holds; rounded up to a power
+	 * of two
+	 */
+	public IntRingBuffer(int capacity) {
+		int n = 2;
+		while (n < capacity)
+			n <<= 1;
+		values = new int[n];
+		sequence = new AtomicLongArray(n);
+		for (int i = 0; i < n; i++)
+			sequence.set(i, i);
+		mask = n - 1;
+	}
+
+	/**
+	 * @return how many values the buffer holds
+	 */
+	public int capacity() {
+		return values.length;
+	}
+
+	/**
+	 * @return roughly how many values are in the buffer
+	 */
+	public int size() {
+		long n = putPos.get() - takePos.get();
+		return (int) Math.max(0, Math.min(n, values.length));
+	}
+
+	/**
+	 * Add a value, unless the buffer is full.
+	 *
+	 * @param v A non-negative value
+	 *
+	 * @return false if the buffer was full
+	 */
+	public boolean offer(int v) {
+		long pos = putPos.get();
+		while (true) {
+			int slot = (int) pos & mask;
+			long dif = sequence.get(slot) - pos;
+			if (dif == 0) {
+				if (putPos.compareAndSet(pos, pos + 1)) {
+					values[slot] = v;
+					sequence.lazySet(slot, pos + 1);
+					return true;
+				}
+				pos = putPos.get();
+			} else if (dif < 0) {
+				return false;
+			} else {
+				pos = putPos.get();
+			}
+		}
+	}
+
+	/**
+	 * Take the oldest value, if there is one.
+	 *
+	 * @return the value, or EMPTY if the buffer was empty
+	 */
+	public int poll() {
+		long pos = takePos.get();
+		while (true) {
+			int slot = (int) pos & mask;
+			long dif = sequence.get(slot) - (pos + 1);
+			if (dif == 0) {
+				if (takePos.compareAndSet(pos, pos + 1)) {
+					int v = values[slot];
+					sequence.lazySet(slot, pos + values.length);
+					return v;
+				}
+				pos = takePos.get();
+			} else if (dif < 0) {
+				return EMPTY;
+			} else {
+				pos = takePos.get();
+			}
+		}
+	}
+}
@@ -0,0 +1,196 @@
+/*
+ * "Hack-a-vote", a Direct-Recording Electronic (DRE) voting machine
+ * software implementation.
+ * 
+ * Copyright 2003, Rice University. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ * - Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the
+ * distribution.
+ * 
+ * - Neither the name of Rice University (RICE) nor the names of its
+ * contributors may be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ * 
+ * This software is provided by RICE and the contributors on an "as
+ * is" basis, without any representations or warranties of any kind,
+ * express or implied including, but not limited to, representations
+ * or warranties of non-infringement, merchantability or fitness for a
+ * particular purpose. In no event shall RICE or contributors be
+ * liable for any direct, indirect, incidental, special, exemplary, or
+ * consequential damages (including, but not limited to, procurement
+ * of substitute goods or services; loss of use, data, or profits; or
+ * business interruption) however caused and on any theory of
+ * liability, whether in contract, strict liability, or tort
+ * (including negligence or otherwise) arising in any way out of the
+ * use of this software, even if advised of the possibility of such
+ * damage.
+ */
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A table of strings that can be looked up by their UTF-8 bytes, so
+ * that text read from a file can be turned into a String that's
+ * already been made, without decoding or copying it.  Strings are held
+ * in an open-addressed hash table with linear probing.
+ * <p>
+ * Fill the table first, then share it: lookups don't change it, and
+ * any number of threads may look strings up at once, but add() must
+ * not be called while anyone else is using it.
+ */
+public class InternTable {
+
+	/**
+	 * Smallest table we bother with
+	 */
+	static final int MIN_CAPACITY = 16;
+
+	/**
+	 * The strings; its length is always a power of two
+	 */
+	String[] strings;
+
+	/**
+	 * Each string's UTF-8 encoding, in the same slot
+	 */
+	byte[][] bytes;
+
+	/**
+	 * Each string's hash, in the same slot
+	 */
+	int[] hashes;
+
+	/**
+	 * How many strings are in the table
+	 */
+	int count;
+
+	/**
+	 * Build an empty table.
+	 */
+	public InternTable() {
+		strings = new String[MIN_CAPACITY];
+		bytes = new byte[MIN_CAPACITY][];
+		hashes = new int[MIN_CAPACITY];
+	}
+
+	/**
+	 * Hash some bytes.
+	 *
+	 * @param b The bytes
+	 * @param start Where they start
+	 * @param end Where they end
+	 *
+	 * @return the hash
+	 */
+	static int hash(ByteBuffer b, int start, int end) {
+		int h = 0;
+		for (int i = start; i < end; i++)
+			h = 31 * h + b.get(i);
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Add a string, unless it's there already.
+	 *
+	 * @param s The string
+	 *
+	 * @return the string as held in the table
+	 */
+	public String add(String s) {
+		ByteBuffer b = ByteBuffer.wrap(s.getBytes(StandardCharsets.UTF_8));
+		String old = get(b, 0, b.limit());
+		if (old != null)
+			return old;
+		if (2 * (count + 1) > strings.length)
+			grow();
+		put(s, b.array(), hash(b, 0, b.limit()));
+		count++;
+		return s;
+	}
+
+	/**
+	 * Put a string in the first free slot for its hash.
+	 *
+	 * @param s The string
+	 * @param encoded Its UTF-8 encoding
+	 * @param h Its hash
+	 */
+	void put(String s, byte[] encoded, int h) {
+		int mask = strings.length - 1;
+		int i = h & mask;
+		while (strings[i] != null)
+			i = (i + 1) & mask;
+		strings[i] = s;
+		bytes[i] = encoded;
+		hashes[i] = h;
+	}
+
+	/**
+	 * Double the table.
+	 */
+	void grow() {
+		String[] oldStrings = strings;
+		byte[][] oldBytes = bytes;
+		int[] oldHashes = hashes;
+		strings = new String[oldStrings.length * 2];
+		bytes = new byte[oldStrings.length * 2][];
+		hashes = new int[oldStrings.length * 2];
+		for (int i = 0; i < oldStrings.length; i++)
+			if (oldStrings[i] != null)
+				put(oldStrings[i], oldBytes[i], oldHashes[i]);
+	}
+
+	/**
+	 * Look up the string with the given UTF-8 encoding.
+	 *
+	 * @param b Holds the encoding
+	 * @param start Where it starts in b
+	 * @param end Where it ends in b
+	 *
+	 * @return the string, or null if it isn't in the table
+	 */
+	public String get(ByteBuffer b, int start, int end) {
+		int h = hash(b, start, end);
+		int mask = strings.length - 1;
+		for (int i = h & mask; strings[i] != null; i = (i + 1) & mask) {
+			if (hashes[i] == h && matches(bytes[i], b, start, end))
+				return strings[i];
+		}
+		return null;
+	}
+
+	/**
+	 * @param encoded A string's encoding
+	 * @param b Holds some bytes
+	 * @param start Where they start
+	 * @param end Where they end
+	 *
+	 * @return whether they're the same bytes
+	 */
+	static boolean matches(byte[] encoded, ByteBuffer b, int start, int end) {
+		if (encoded.length != end - start)
+			return false;
+		for (int i = 0; i < encoded.length; i++)
+			if (encoded[i] != b.get(start + i))
+				return false;
+		return true;
+	}
+
+	/**
+	 * @return how many strings are in the table
+	 */
+	public int size() {
+		return count;
+	}
+}
@@ -0,0 +1,146 @@
+/*
+ * "Hack-a-vote", a Direct-Recording Electronic (DRE) voting machine
+ * software implementation.
+ * 
+ * Copyright 2003, Rice University. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ * - Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the
+ * distribution.
+ * 
+ * - Neither the name of Rice University (RICE) nor the names of its
+ * contributors may be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ * 
+ * This software is provided by RICE and the contributors on an "as
+ * is" basis, without any representations or warranties of any kind,
+ * express or implied including, but not limited to, representations
+ * or warranties of non-infringement, merchantability or fitness for a
+ * particular purpose. In no event shall RICE or contributors be
+ * liable for any direct, indirect, incidental, special, exemplary, or
+ * consequential damages (including, but not limited to, procurement
+ * of substitute goods or services; loss of use, data, or profits; or
+ * business interruption) however caused and on any theory of
+ * liability, whether in contract, strict liability, or tort
+ * (including negligence or otherwise) arising in any way out of the
+ * use of this software, even if advised of the possibility of such
+ * damage.
+ */
+
+/**
+ * Running latency statistics: count, mean, maximum and approximate
+ * percentiles, in constant memory.  Samples are sorted into buckets by
+ * powers of two microseconds, so percentiles are upper bounds that are
+ * at most a factor of two off.  Thread-safe.
+ */
+public class LatencyStats {
+
+	/**
+	 * One bucket per power of two microseconds; the last one catches
+	 * everything from about 35 minutes up
+	 */
+	static final int BUCKETS = 32;
+
+	/**
+	 * What we're timing, for the report
+	 */
+	String name;
+
+	/**
+	 * Sample counts by bucket
+	 */
+	long[] buckets = new long[BUCKETS];
+
+	/**
+	 * Number of samples
+	 */
+	long count;
+
+	/**
+	 * Sum of all samples, in ns
+	 */
+	long totalNanos;
+
+	/**
+	 * Largest sample, in ns
+	 */
+	long maxNanos;
+
+	/**
+	 * Build an empty set of statistics.
+	 *
+	 * @param name What we're timing, for the report
+	 */
+	public LatencyStats(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Record one sample.
+	 *
+	 * @param nanos How long it took, in ns
+	 */
+	public synchronized void record(long nanos) {
+		long micros = Math.max(1, nanos / 1000);
+		int b = Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(micros));
+		buckets[b]++;
+		count++;
+		totalNanos += nanos;
+		maxNanos = Math.max(maxNanos, nanos);
+	}
+
+	/**
+	 * @return how many samples have been recorded
+	 */
+	public synchronized long count() {
+		return count;
+	}
+
+	/**
+	 * An upper bound on a percentile of the samples.
+	 *
+	 * @param p The percentile, 0 to 100
+	 *
+	 * @return the bound, in ms
+	 */
+	public synchronized double percentileMillis(double p) {
+		long rank = (long) Math.ceil(count * p / 100.0);
+		long seen = 0;
+		for (int b = 0; b < BUCKETS; b++) {
+			seen += buckets[b];
+			if (seen >= rank && seen > 0)
+				return Math.min((2L << b) / 1000.0, maxNanos / 1e6);
+		}
+		return 0;
+	}
+
+	/**
+	 * @return a one-line summary of the samples
+	 */
+	public synchronized String toString() {
+		if (count == 0)
+			return name + ": no samples";
+		return name + ": n=" + count + " mean="
+				+ format(totalNanos / 1e6 / count) + "ms p50<="
+				+ format(percentileMillis(50)) + "ms p99<="
+				+ format(percentileMillis(99)) + "ms max="
+				+ format(maxNanos / 1e6) + "ms";
+	}
+
+	/**
+	 * @param ms A time in ms
+	 *
+	 * @return it, to a tenth of a ms
+	 */
+	static String format(double ms) {
+		return Double.toString(Math.round(ms * 10) / 10.0);
+	}
+}
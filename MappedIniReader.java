@@ -0,0 +1,412 @@
+/*
+ * "Hack-a-vote", a Direct-Recording Electronic (DRE) voting machine
+ * software implementation.
+ * 
+ * Copyright 2003, Rice University. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ * - Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the
+ * distribution.
+ * 
+ * - Neither the name of Rice University (RICE) nor the names of its
+ * contributors may be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ * 
+ * This software is provided by RICE and the contributors on an "as
+ * is" basis, without any representations or warranties of any kind,
+ * express or implied including, but not limited to, representations
+ * or warranties of non-infringement, merchantability or fitness for a
+ * particular purpose. In no event shall RICE or contributors be
+ * liable for any direct, indirect, incidental, special, exemplary, or
+ * consequential damages (including, but not limited to, procurement
+ * of substitute goods or services; loss of use, data, or profits; or
+ * business interruption) however caused and on any theory of
+ * liability, whether in contract, strict liability, or tort
+ * (including negligence or otherwise) arising in any way out of the
+ * use of this software, even if advised of the possibility of such
+ * damage.
+ */
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads INI files in place.  The file's bytes are parsed where they
+ * lie, and subjects, variables and values are handed out as Text
+ * views onto them; a String is only made when one is asked for, and
+ * not even then if an InternTable already holds it.  Lines are split
+ * and trimmed the way IniFile reads them, and assignments passed on
+ * under the same rules as IniFile.parse.
+ * <p>
+ * Files of MAP_THRESHOLD bytes or more are memory-mapped.  Smaller
+ * files, like ballots, are read into one buffer the reader keeps and
+ * reuses: mapping a file takes two system calls and keeps the mapping
+ * until the garbage collector finds it, which costs more than reading
+ * a few hundred bytes, and a recount of a large ballot box could run
+ * out of mappings before then.
+ * <p>
+ * A reader, and the views it hands out, are for one thread at a time.
+ */
+public class MappedIniReader {
+
+	/**
+	 * Files at least this long are mapped rather than read
+	 */
+	public static final int MAP_THRESHOLD = 64 * 1024;
+
+	/**
+	 * Receives the assignments of an INI file, as they are read.
+	 */
+	public interface Handler {
+		/**
+		 * An assignment, in file order.  The views are only good until
+		 * this returns; keep their strings, not them.
+		 * @param subject the subject heading (e.g. "Widget Settings")
+		 * @param variable the variable name (e.g. "Color")
+		 * @param value the value of the variable (e.g. "green")
+		 * @throws IOException to stop reading
+		 */
+		void value(Text subject, Text variable, Text value) throws IOException;
+	}
+
+	/**
+	 * Receives the lines of an INI file, as they are read.
+	 */
+	public interface LineHandler {
+		/**
+		 * A line, trimmed, in file order.  The view is only good until
+		 * this returns.
+		 * @param line the line
+		 * @throws IOException to stop reading
+		 */
+		void line(Text line) throws IOException;
+	}
+
+	/**
+	 * Some text in a file being read, as UTF-8 bytes in place.  Text
+	 * that's all ASCII is read a byte per character without decoding;
+	 * anything else is decoded the first time it's looked at.
+	 */
+	public static class Text implements CharSequence {
+
+		/**
+		 * Holds the text
+		 */
+		ByteBuffer bytes;
+
+		/**
+		 * Where the text starts in bytes
+		 */
+		int start;
+
+		/**
+		 * Where it ends
+		 */
+		int end;
+
+		/**
+		 * Whether it's all ASCII, so a byte is a character
+		 */
+		boolean ascii;
+
+		/**
+		 * Strings to use instead of making new ones; may be null
+		 */
+		InternTable names;
+
+		/**
+		 * The text as a String, once one has been asked for
+		 */
+		String string;
+
+		/**
+		 * Build an empty view.
+		 *
+		 * @param names Strings to use instead of making new ones; may
+		 * be null
+		 */
+		Text(InternTable names) {
+			this.names = names;
+		}
+
+		/**
+		 * Point the view at other text.
+		 *
+		 * @param bytes Holds the text
+		 * @param start Where it starts
+		 * @param end Where it ends
+		 * @param ascii Whether it's all ASCII
+		 */
+		void set(ByteBuffer bytes, int start, int end, boolean ascii) {
+			this.bytes = bytes;
+			this.start = start;
+			this.end = end;
+			this.ascii = ascii;
+			string = null;
+		}
+
+		public int length() {
+			return ascii ? end - start : toString().length();
+		}
+
+		public char charAt(int index) {
+			if (!ascii)
+				return toString().charAt(index);
+			if (index < 0 || index >= end - start)
+				throw new IndexOutOfBoundsException("index " + index
+						+ ", length " + (end - start));
+			return (char) bytes.get(start + index);
+		}
+
+		public CharSequence subSequence(int from, int to) {
+			if (!ascii)
+				return toString().subSequence(from, to);
+			if (from < 0 || from > to || to > end - start)
+				throw new IndexOutOfBoundsException("from " + from + ", to "
+						+ to + ", length " + (end - start));
+			Text t = new Text(names);
+			t.set(bytes, start + from, start + to, true);
+			return t;
+		}
+
+		/**
+		 * Compare with a string without making one.
+		 *
+		 * @param s The string
+		 *
+		 * @return whether this is the same text
+		 */
+		public boolean contentEquals(String s) {
+			if (!ascii)
+				return toString().equals(s);
+			if (s.length() != end - start)
+				return false;
+			for (int i = 0; i < s.length(); i++)
+				if (s.charAt(i) != bytes.get(start + i))
+					return false;
+			return true;
+		}
+
+		/**
+		 * @return the text as a String: the InternTable's, if it has
+		 * it, or else a new one, kept for the next call
+		 */
+		public String toString() {
+			if (string == null && names != null)
+				string = names.get(bytes, start, end);
+			if (string == null) {
+				if (bytes.hasArray())
+					string = new String(bytes.array(), bytes.arrayOffset()
+							+ start, end - start, IniFile.CHARSET);
+				else {
+					byte[] copy = new byte[end - start];
+					for (int i = 0; i < copy.length; i++)
+						copy[i] = bytes.get(start + i);
+					string = new String(copy, IniFile.CHARSET);
+				}
+			}
+			return string;
+		}
+	}
+
+	/**
+	 * Files at least this long are mapped
+	 */
+	int mapThreshold;
+
+	/**
+	 * Holds the last file read that wasn't mapped; grows to the
+	 * largest such file
+	 */
+	ByteBuffer buffer = ByteBuffer.allocate(0);
+
+	/**
+	 * The subject of the assignments being passed on
+	 */
+	Text subject;
+
+	/**
+	 * The variable being passed on
+	 */
+	Text variable;
+
+	/**
+	 * The value being passed on
+	 */
+	Text value;
+
+	/**
+	 * The line being passed on
+	 */
+	Text line;
+
+	/**
+	 * Build a reader that makes a new String whenever it's asked for
+	 * one.
+	 */
+	public MappedIniReader() {
+		this(null);
+	}
+
+	/**
+	 * Build a reader that takes its strings from a table when it can.
+	 *
+	 * @param names The table; may be shared with other readers, and
+	 * may be null
+	 */
+	public MappedIniReader(InternTable names) {
+		this(names, MAP_THRESHOLD);
+	}
+
+	/**
+	 * Build a reader.
+	 *
+	 * @param names Strings to use instead of making new ones; may be
+	 * null
+	 * @param mapThreshold Files at least this long are mapped
+	 */
+	public MappedIniReader(InternTable names, int mapThreshold) {
+		this.mapThreshold = mapThreshold;
+		subject = new Text(names);
+		variable = new Text(names);
+		value = new Text(names);
+		line = new Text(names);
+	}
+
+	/**
+	 * Read the assignments in a file, under the same rules as
+	 * IniFile.parse.  The file is never written.
+	 *
+	 * @param name the name of the file
+	 * @param handler receives each assignment
+	 * @throws IOException if the file can't be read, or the handler
+	 * stops the read
+	 */
+	public void read(String name, Handler handler) throws IOException {
+		scan(load(name), handler, null);
+	}
+
+	/**
+	 * Read the lines of a file, split and trimmed as IniFile reads
+	 * them.  The file is never written.
+	 *
+	 * @param name the name of the file
+	 * @param handler receives each line
+	 * @throws IOException if the file can't be read, or the handler
+	 * stops the read
+	 */
+	public void lines(String name, LineHandler handler) throws IOException {
+		scan(load(name), null, handler);
+	}
+
+	/**
+	 * Get a file's bytes, mapped or in the buffer.
+	 *
+	 * @param name the name of the file
+	 * @return the bytes, from 0 to the limit
+	 * @throws IOException if the file can't be read
+	 */
+	ByteBuffer load(String name) throws IOException {
+		File file = new File(name);
+		long size = file.length();
+		if (size > Integer.MAX_VALUE)
+			throw new IOException(name + " is too large to read");
+		if (size > 0 && size >= mapThreshold) {
+			RandomAccessFile f = new RandomAccessFile(file, "r");
+			try {
+				FileChannel ch = f.getChannel();
+				return ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+			} finally {
+				f.close();
+			}
+		}
+		//a stream reads straight into the buffer's array, where a
+		//channel would read into a direct buffer and copy
+		if (size > buffer.capacity())
+			buffer = ByteBuffer.allocate((int) Math.max(size,
+					2L * buffer.capacity()));
+		byte[] bytes = buffer.array();
+		int n = 0;
+		InputStream in = new FileInputStream(file);
+		try {
+			while (n < size) {
+				int got = in.read(bytes, n, (int) size - n);
+				if (got < 0)
+					break;
+				n += got;
+			}
+		} finally {
+			in.close();
+		}
+		buffer.clear();
+		buffer.limit(n);
+		return buffer;
+	}
+
+	/**
+	 * Split some bytes into lines, as BufferedReader.readLine() does,
+	 * trim each one, and pass on the lines, the assignments or both.
+	 *
+	 * @param b The bytes, from 0 to the limit
+	 * @param handler Receives the assignments; may be null
+	 * @param lines Receives the lines; may be null
+	 * @throws IOException if a handler stops the read
+	 */
+	void scan(ByteBuffer b, Handler handler, LineHandler lines)
+			throws IOException {
+		int end = b.limit();
+		int start = 0; //start of the current line
+		boolean inSubject = false;
+		while (start < end) {
+			//find the end of the line, noting any byte past ASCII
+			int scan = start;
+			int high = 0;
+			while (scan < end) {
+				byte c = b.get(scan);
+				if (c == '\n' || c == '\r')
+					break;
+				high |= c;
+				scan++;
+			}
+			boolean ascii = high >= 0;
+			int s = start;
+			int e = scan;
+			while (s < e && (b.get(s) & 0xff) <= ' ')
+				s++;
+			while (e > s && (b.get(e - 1) & 0xff) <= ' ')
+				e--;
+			if (lines != null) {
+				line.set(b, s, e, ascii);
+				lines.line(line);
+			}
+			if (handler != null && s < e) {
+				if (b.get(s) == '[' && b.get(e - 1) == ']' && e - s >= 2) {
+					subject.set(b, s + 1, e - 1, ascii);
+					inSubject = e - s > 2;
+				} else if (b.get(s) != ';') {
+					int eq = s;
+					while (eq < e && b.get(eq) != '=')
+						eq++;
+					if (eq > s && eq < e - 1 && inSubject) {
+						variable.set(b, s, eq, ascii);
+						value.set(b, eq + 1, e, ascii);
+						handler.value(subject, variable, value);
+					}
+				}
+			}
+			//"\r\n" ends one line, not two
+			if (scan + 1 < end && b.get(scan) == '\r' && b.get(scan + 1) == '\n')
+				scan++;
+			start = scan + 1;
+		}
+	}
+}
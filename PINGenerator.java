@@ -0,0 +1,158 @@
+/*
+ * "Hack-a-vote", a Direct-Recording Electronic (DRE) voting machine
+ * software implementation.
+ * 
+ * Copyright 2003, Rice University. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ * - Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the
+ * distribution.
+ * 
+ * - Neither the name of Rice University (RICE) nor the names of its
+ * contributors may be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ * 
+ * This software is provided by RICE and the contributors on an "as
+ * is" basis, without any representations or warranties of any kind,
+ * express or implied including, but not limited to, representations
+ * or warranties of non-infringement, merchantability or fitness for a
+ * particular purpose. In no event shall RICE or contributors be
+ * liable for any direct, indirect, incidental, special, exemplary, or
+ * consequential damages (including, but not limited to, procurement
+ * of substitute goods or services; loss of use, data, or profits; or
+ * business interruption) however caused and on any theory of
+ * liability, whether in contract, strict liability, or tort
+ * (including negligence or otherwise) arising in any way out of the
+ * use of this software, even if advised of the possibility of such
+ * damage.
+ */
+
+import java.util.*;
+
+/**
+ * Hands out PINs from a fixed range, never the same one twice until
+ * every PIN in the range has been handed out.  Each PIN costs constant
+ * time however many are already outstanding, because the PINs are
+ * drawn by walking a FeistelPermutation of the range rather than by
+ * picking at random and retrying on repeats.  Once the range is used
+ * up, the generator starts over with a fresh permutation.
+ */
+public class PINGenerator {
+
+	/**
+	 * Widest PIN we support; PINs must fit in an int
+	 */
+	public static final int MAX_WIDTH = 9;
+
+	/**
+	 * Smallest PIN in the range
+	 */
+	long lo;
+
+	/**
+	 * How many PINs are in the range
+	 */
+	long span;
+
+	/**
+	 * Where the permutation keys come from
+	 */
+	Random source;
+
+	/**
+	 * The current walk through the range
+	 */
+	FeistelPermutation perm;
+
+	/**
+	 * How many PINs of the current walk have been handed out
+	 */
+	long drawn;
+
+	/**
+	 * Build a generator for the PINs lo .. hi-1.
+	 *
+	 * @param lo Smallest PIN
+	 * @param hi One past the largest PIN
+	 * @param source Where to draw the permutation keys from
+	 */
+	public PINGenerator(long lo, long hi, Random source) {
+		if (lo < 0 || hi <= lo || hi - 1 > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Bad PIN range " + lo + " .. "
+					+ hi);
+		this.lo = lo;
+		this.span = hi - lo;
+		this.source = source;
+		perm = new FeistelPermutation(span, source);
+	}
+
+	/**
+	 * Build a generator for all the PINs with the given number of
+	 * digits (no leading zeroes).  Four digits gives 1000 .. 9999.
+	 *
+	 * @param width Number of digits, 1 to MAX_WIDTH
+	 * @param source Where to draw the permutation keys from
+	 *
+	 * @return the generator
+	 */
+	public static PINGenerator forWidth(int width, Random source) {
+		return new PINGenerator(lowest(width), lowest(width + 1), source);
+	}
+
+	/**
+	 * @param width Number of digits
+	 *
+	 * @return the smallest number with that many digits
+	 */
+	static long lowest(int width) {
+		if (width < 1 || width > MAX_WIDTH + 1)
+			throw new IllegalArgumentException("PINs have 1 to " + MAX_WIDTH
+					+ " digits");
+		long n = 1;
+		for (int i = 1; i < width; i++)
+			n *= 10;
+		return width == 1 ? 0 : n;
+	}
+
+	/**
+	 * @return how many distinct PINs this generator can hand out
+	 */
+	public long span() {
+		return span;
+	}
+
+	/**
+	 * Get the next PIN.
+	 *
+	 * @return the PIN
+	 */
+	public synchronized int next() {
+		if (drawn == span) {
+			perm = new FeistelPermutation(span, source);
+			drawn = 0;
+		}
+		return (int) (lo + perm.permute(drawn++));
+	}
+
+	/**
+	 * Print some PINs.
+	 */
+	public static void main(String[] args) {
+		if (args.length != 2) {
+			System.out.println("PINGenerator <width> <how many>");
+			System.exit(0);
+		}
+		PINGenerator g = forWidth(Integer.parseInt(args[0]), new Random());
+		int n = Integer.parseInt(args[1]);
+		for (int i = 0; i < n; i++)
+			System.out.println(g.next());
+	}
+}
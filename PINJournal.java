@@ -0,0 +1,534 @@
+/*
+ * "Hack-a-vote", a Direct-Recording Electronic (DRE) voting machine
+ * software implementation.
+ * 
+ * Copyright 2003, Rice University. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ * - Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the
+ * distribution.
+ * 
+ * - Neither the name of Rice University (RICE) nor the names of its
+ * contributors may be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ * 
+ * This software is provided by RICE and the contributors on an "as
+ * is" basis, without any representations or warranties of any kind,
+ * express or implied including, but not limited to, representations
+ * or warranties of non-infringement, merchantability or fitness for a
+ * particular purpose. In no event shall RICE or contributors be
+ * liable for any direct, indirect, incidental, special, exemplary, or
+ * consequential damages (including, but not limited to, procurement
+ * of substitute goods or services; loss of use, data, or profits; or
+ * business interruption) however caused and on any theory of
+ * liability, whether in contract, strict liability, or tort
+ * (including negligence or otherwise) arising in any way out of the
+ * use of this software, even if advised of the possibility of such
+ * damage.
+ */
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.zip.*;
+
+/**
+ * A write-ahead journal of the console's PIN state, so that a console
+ * that dies and is restarted comes back with exactly the PINs it had,
+ * and never lets a used PIN vote twice.
+ * <p>
+ * Every change to the PIN state is appended to "pins.journal" as a
+ * fixed-width record: a PIN joins the pool, a PIN is issued in bulk,
+ * or a PIN is retired (used up, or taken out of the pool).  A single
+ * writer thread gathers whatever records are waiting, writes them
+ * with one write and forces them to disk with one fsync, so any
+ * number of concurrent PIN checks share each disk flush.  Callers
+ * that need a record to be durable before they act (a PIN is only
+ * accepted once its retirement is on disk) wait for their ticket.
+ * <p>
+ * The writer also keeps its own copy of the state.  When the journal
+ * grows past COMPACT_RECORDS it writes that copy out as a compact
+ * snapshot, "pins.snapshot", and starts a fresh, empty journal.
+ * Recovery memory-maps the snapshot and the journal and replays them
+ * in one sequential pass.
+ */
+public class PINJournal {
+
+	/**
+	 * Record type: a PIN joined the pool
+	 */
+	public static final int ISSUE = 1;
+
+	/**
+	 * Record type: a PIN was issued in bulk
+	 */
+	public static final int ISSUE_BULK = 2;
+
+	/**
+	 * Record type: a PIN was used up or withdrawn, and must never be
+	 * valid again
+	 */
+	public static final int RETIRE = 3;
+
+	/**
+	 * Journal size (in records) that triggers a snapshot
+	 */
+	public static final int COMPACT_RECORDS = 1 << 20;
+
+	/**
+	 * Identifies a journal file
+	 */
+	static final int JOURNAL_MAGIC = 0x4856504A; // "HVPJ"
+
+	/**
+	 * Identifies a snapshot file
+	 */
+	static final int SNAPSHOT_MAGIC = 0x48565053; // "HVPS"
+
+	/**
+	 * File format version
+	 */
+	static final int VERSION = 1;
+
+	/**
+	 * Size of the journal header: magic, version, generation
+	 */
+	static final int HEADER_BYTES = 16;
+
+	/**
+	 * Size of one journal record: marker and type, then the PIN
+	 */
+	static final int RECORD_BYTES = 8;
+
+	/**
+	 * Top three bytes of every record's first word; anything else
+	 * marks the torn end of the journal
+	 */
+	static final int RECORD_MARKER = 0x5A5A5A00;
+
+	/**
+	 * The journal file
+	 */
+	File journalFile;
+
+	/**
+	 * The snapshot file
+	 */
+	File snapshotFile;
+
+	/**
+	 * Open journal, positioned at its end
+	 */
+	FileChannel journal;
+
+	/**
+	 * Generation of the current journal; a snapshot of generation g
+	 * covers every journal before g
+	 */
+	long generation;
+
+	/**
+	 * Records in the current journal
+	 */
+	long journalRecords;
+
+	/**
+	 * The PIN pool, as of the last write
+	 */
+	IntHashSet pool = new IntHashSet();
+
+	/**
+	 * Bulk-issued PINs, as of the last write
+	 */
+	IntHashSet bulk = new IntHashSet();
+
+	/**
+	 * Retired PINs, as of the last write
+	 */
+	IntHashSet retired = new IntHashSet();
+
+	/**
+	 * Records waiting for the writer
+	 */
+	ByteBuffer pending = ByteBuffer.allocate(64 * RECORD_BYTES);
+
+	/**
+	 * The buffer the writer is writing from; swapped with pending
+	 */
+	ByteBuffer writing = ByteBuffer.allocate(64 * RECORD_BYTES);
+
+	/**
+	 * Ticket of the last record appended
+	 */
+	long appended;
+
+	/**
+	 * Ticket of the last record known to be on disk
+	 */
+	long durable;
+
+	/**
+	 * Why the journal stopped working, or null if it hasn't
+	 */
+	IOException failure;
+
+	/**
+	 * Open the journal in a directory, recovering whatever state it
+	 * holds, and start the writer.
+	 *
+	 * @param dir The directory; created if need be
+	 *
+	 * @throws IOException if the journal can't be read or opened
+	 */
+	public PINJournal(File dir) throws IOException {
+		dir.mkdirs();
+		journalFile = new File(dir, "pins.journal");
+		snapshotFile = new File(dir, "pins.snapshot");
+
+		long covered = readSnapshot();
+		generation = covered;
+		if (journalFile.exists())
+			replayJournal(covered);
+		if (journal == null)
+			startJournal(covered);
+
+		Thread writer = new Thread(new Runnable() {
+			public void run() {
+				writeLoop();
+			}
+		}, "pin-journal");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * @return the recovered PIN pool; only meaningful before any new
+	 * records are appended
+	 */
+	public int[] pool() {
+		return pool.toArray();
+	}
+
+	/**
+	 * @return the recovered bulk-issued PINs
+	 */
+	public int[] bulk() {
+		return bulk.toArray();
+	}
+
+	/**
+	 * @return the recovered retired PINs
+	 */
+	public int[] retired() {
+		return retired.toArray();
+	}
+
+	/**
+	 * Load the snapshot, if there is one.
+	 *
+	 * @return the generation the snapshot covers up to, 0 if none
+	 *
+	 * @throws IOException if the snapshot is unreadable or corrupt
+	 */
+	long readSnapshot() throws IOException {
+		if (!snapshotFile.exists())
+			return 0;
+		FileInputStream in = new FileInputStream(snapshotFile);
+		try {
+			FileChannel ch = in.getChannel();
+			MappedByteBuffer map = ch.map(FileChannel.MapMode.READ_ONLY, 0,
+					ch.size());
+			if (map.limit() < 32 || map.getInt(0) != SNAPSHOT_MAGIC
+					|| map.getInt(4) != VERSION)
+				throw new IOException(snapshotFile + " is not a PIN snapshot");
+
+			CRC32 crc = new CRC32();
+			ByteBuffer body = map.duplicate();
+			body.limit(map.limit() - 4);
+			crc.update(body);
+			if ((int) crc.getValue() != map.getInt(map.limit() - 4))
+				throw new IOException(snapshotFile + " is corrupt");
+
+			map.position(8);
+			long covered = map.getLong();
+			readInts(map, pool);
+			readInts(map, bulk);
+			readInts(map, retired);
+			return covered;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Read a count and that many ints into a set.
+	 *
+	 * @param map Where to read from
+	 * @param into The set to fill
+	 */
+	static void readInts(ByteBuffer map, IntHashSet into) {
+		int n = map.getInt();
+		for (int i = 0; i < n; i++)
+			into.add(map.getInt());
+	}
+
+	/**
+	 * Replay the journal on top of the snapshot, cut off any torn
+	 * record at its end, and leave it open for appending.
+	 *
+	 * @param covered The generation the snapshot covers up to
+	 *
+	 * @throws IOException if the journal is unreadable
+	 */
+	void replayJournal(long covered) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(journalFile, "rw");
+		FileChannel ch = raf.getChannel();
+		long size = ch.size();
+		if (size < HEADER_BYTES) {
+			raf.close();
+			return;
+		}
+		MappedByteBuffer map = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		if (map.getInt(0) != JOURNAL_MAGIC || map.getInt(4) != VERSION) {
+			raf.close();
+			throw new IOException(journalFile + " is not a PIN journal");
+		}
+		long gen = map.getLong(8);
+		if (gen < covered) {
+			// The snapshot already holds all of this journal
+			raf.close();
+			return;
+		}
+
+		map.position(HEADER_BYTES);
+		long records = 0;
+		while (map.remaining() >= RECORD_BYTES) {
+			int word = map.getInt();
+			int pin = map.getInt();
+			if ((word & 0xFFFFFF00) != RECORD_MARKER || !apply(word & 0xFF, pin))
+				break;
+			records++;
+		}
+		long end = HEADER_BYTES + records * RECORD_BYTES;
+		if (end < size)
+			ch.truncate(end);
+		ch.position(end);
+		journal = ch;
+		generation = gen;
+		journalRecords = records;
+	}
+
+	/**
+	 * Apply one record to the state.
+	 *
+	 * @param type The record type
+	 * @param pin The PIN
+	 *
+	 * @return false if the type is unknown
+	 */
+	boolean apply(int type, int pin) {
+		// A used PIN stays used, even if an older journal has its
+		// RETIRE ahead of its ISSUE
+		switch (type) {
+		case ISSUE:
+			if (!retired.contains(pin))
+				pool.add(pin);
+			return true;
+		case ISSUE_BULK:
+			if (!retired.contains(pin))
+				bulk.add(pin);
+			return true;
+		case RETIRE:
+			pool.remove(pin);
+			bulk.remove(pin);
+			retired.add(pin);
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Create a new, empty journal of the given generation in place of
+	 * the current one.
+	 *
+	 * @param gen The generation
+	 *
+	 * @throws IOException if it can't be created
+	 */
+	void startJournal(long gen) throws IOException {
+		File tmp = new File(journalFile.getPath() + ".tmp");
+		RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+		raf.setLength(0);
+		ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+		header.putInt(JOURNAL_MAGIC).putInt(VERSION).putLong(gen).flip();
+		FileChannel ch = raf.getChannel();
+		while (header.hasRemaining())
+			ch.write(header);
+		ch.force(true);
+		if (!tmp.renameTo(journalFile)) {
+			raf.close();
+			throw new IOException("Can't replace " + journalFile);
+		}
+		if (journal != null)
+			journal.close();
+		journal = ch;
+		generation = gen;
+		journalRecords = 0;
+	}
+
+	/**
+	 * Write the state out as a snapshot covering every journal before
+	 * generation gen, atomically replacing the old snapshot.
+	 *
+	 * @param gen The first generation not covered
+	 *
+	 * @throws IOException if it can't be written
+	 */
+	void writeSnapshot(long gen) throws IOException {
+		int[] p = pool.toArray();
+		int[] b = bulk.toArray();
+		int[] r = retired.toArray();
+		ByteBuffer buf = ByteBuffer.allocate(32 + 4 * (p.length + b.length + r.length));
+		buf.putInt(SNAPSHOT_MAGIC).putInt(VERSION).putLong(gen);
+		buf.putInt(p.length);
+		buf.asIntBuffer().put(p);
+		buf.position(buf.position() + 4 * p.length);
+		buf.putInt(b.length);
+		buf.asIntBuffer().put(b);
+		buf.position(buf.position() + 4 * b.length);
+		buf.putInt(r.length);
+		buf.asIntBuffer().put(r);
+		buf.position(buf.position() + 4 * r.length);
+		CRC32 crc = new CRC32();
+		crc.update(buf.array(), 0, buf.position());
+		buf.putInt((int) crc.getValue());
+		buf.flip();
+
+		File tmp = new File(snapshotFile.getPath() + ".tmp");
+		FileOutputStream out = new FileOutputStream(tmp);
+		try {
+			FileChannel ch = out.getChannel();
+			while (buf.hasRemaining())
+				ch.write(buf);
+			ch.force(true);
+		} finally {
+			out.close();
+		}
+		if (!tmp.renameTo(snapshotFile))
+			throw new IOException("Can't replace " + snapshotFile);
+	}
+
+	/**
+	 * Append a record.  Returns at once; the record reaches the disk
+	 * with the writer's next batch.
+	 *
+	 * @param type ISSUE, ISSUE_BULK or RETIRE
+	 * @param pin The PIN
+	 *
+	 * @return a ticket to pass to await()
+	 */
+	public synchronized long append(int type, int pin) {
+		if (pending.remaining() < RECORD_BYTES) {
+			ByteBuffer bigger = ByteBuffer.allocate(pending.capacity() * 2);
+			pending.flip();
+			bigger.put(pending);
+			pending = bigger;
+		}
+		pending.putInt(RECORD_MARKER | type).putInt(pin);
+		appended++;
+		notifyAll();
+		return appended;
+	}
+
+	/**
+	 * Wait until a record is on disk.
+	 *
+	 * @param ticket What append() returned for the record
+	 *
+	 * @throws IOException if the journal can't be written
+	 */
+	public synchronized void await(long ticket) throws IOException {
+		boolean interrupted = false;
+		while (durable < ticket && failure == null) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+		if (durable < ticket)
+			throw failure;
+	}
+
+	/**
+	 * The writer thread: write whatever is pending as one batch, force
+	 * it to disk, and snapshot when the journal gets long.
+	 */
+	void writeLoop() {
+		while (true) {
+			long batchEnd;
+			synchronized (this) {
+				while (pending.position() == 0) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						// keep writing
+					}
+				}
+				ByteBuffer t = writing;
+				writing = pending;
+				pending = t;
+				pending.clear();
+				batchEnd = appended;
+			}
+
+			writing.flip();
+			int records = writing.remaining() / RECORD_BYTES;
+			try {
+				while (writing.hasRemaining())
+					journal.write(writing);
+				journal.force(false);
+			} catch (IOException e) {
+				System.err.println("PIN journal failed: " + e);
+				synchronized (this) {
+					failure = e;
+					notifyAll();
+				}
+				return;
+			}
+			synchronized (this) {
+				durable = batchEnd;
+				notifyAll();
+			}
+
+			writing.flip();
+			while (writing.hasRemaining()) {
+				int word = writing.getInt();
+				apply(word & 0xFF, writing.getInt());
+			}
+			writing.clear();
+
+			journalRecords += records;
+			if (journalRecords >= COMPACT_RECORDS) {
+				try {
+					writeSnapshot(generation + 1);
+					startJournal(generation + 1);
+				} catch (IOException e) {
+					// The old journal is still good; try again later
+					System.err.println("PIN snapshot failed: " + e);
+				}
+			}
+		}
+	}
+}
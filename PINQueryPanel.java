@@ -54,6 +54,11 @@ public class PINQueryPanel extends JPanel {
 	 * Text field in the PIN query panel where the PIN is entered.
 	 */
 	public JTextField pinField;
+
+	/**
+	 * The Enter key, disabled while a PIN is being checked
+	 */
+	JButton enterButton;
 	
 	/**
 	 * Constructs a PINQueryPanel
@@ -127,6 +132,17 @@ public class PINQueryPanel extends JPanel {
 		frame.setVisible(true);
 	}
 
+	/**
+	 * Show whether a PIN check is in progress.  The keypad keeps
+	 * working, but Enter can't send a second check meanwhile.
+	 *
+	 * @param checking true while a check is in progress
+	 */
+	public void setChecking(boolean checking) {
+		enterButton.setEnabled(!checking);
+		enterButton.setText(checking ? "Checking..." : "Enter");
+	}
+
 	private Vector createKeypadButtons() {
 		Vector<JButton> buttons = new Vector<JButton>();
 		buttons.add(new JButton("7"));
@@ -198,6 +214,7 @@ public class PINQueryPanel extends JPanel {
 				pinField.setText(pinField.getText()+"0");
 			}
 		});
+		enterButton = buttons.get(11);
 		((JButton)buttons.get(11)).addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent e) {
 				BallotControl.checkPin(PINQueryPanel.this);
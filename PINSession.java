@@ -0,0 +1,249 @@
+/*
+ * "Hack-a-vote", a Direct-Recording Electronic (DRE) voting machine
+ * software implementation.
+ * 
+ * Copyright 2003, Rice University. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ * - Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the
+ * distribution.
+ * 
+ * - Neither the name of Rice University (RICE) nor the names of its
+ * contributors may be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ * 
+ * This software is provided by RICE and the contributors on an "as
+ * is" basis, without any representations or warranties of any kind,
+ * express or implied including, but not limited to, representations
+ * or warranties of non-infringement, merchantability or fitness for a
+ * particular purpose. In no event shall RICE or contributors be
+ * liable for any direct, indirect, incidental, special, exemplary, or
+ * consequential damages (including, but not limited to, procurement
+ * of substitute goods or services; loss of use, data, or profits; or
+ * business interruption) however caused and on any theory of
+ * liability, whether in contract, strict liability, or tort
+ * (including negligence or otherwise) arising in any way out of the
+ * use of this software, even if advised of the possibility of such
+ * damage.
+ */
+
+import java.io.*;
+import java.net.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * A keep-alive connection from a voting machine to the administration
+ * console.  Instead of opening a socket, reading the banner and
+ * closing again for every voter, one session carries any number of
+ * PIN checks.  Each check is tagged with a request id, so several
+ * checks may be in flight at once and their replies are matched up
+ * as they arrive.
+ * <p>
+ * If the connection drops (the console restarts, or closes an idle
+ * session) the checks in flight fail and the next check reconnects.
+ */
+public class PINSession {
+
+	/**
+	 * How long (in ms) to wait for the console to accept a connection
+	 */
+	public static final int CONNECT_TIMEOUT = 3000;
+
+	/**
+	 * How long (in ms) to wait for the reply to a check
+	 */
+	public static final int REPLY_TIMEOUT = 5000;
+
+	/**
+	 * Host running the console
+	 */
+	String host;
+
+	/**
+	 * Port the console listens on
+	 */
+	int port;
+
+	/**
+	 * The current connection, or null if we're not connected
+	 */
+	Socket socket;
+
+	/**
+	 * Requests go out through here
+	 */
+	PrintStream sout;
+
+	/**
+	 * Source of request ids
+	 */
+	AtomicInteger nextId = new AtomicInteger(1);
+
+	/**
+	 * Checks waiting for their reply, by request id
+	 */
+	ConcurrentHashMap<Integer, BlockingQueue<String>> pending = new ConcurrentHashMap<Integer, BlockingQueue<String>>();
+
+	/**
+	 * Build a session.  Nothing is connected until the first check.
+	 *
+	 * @param host Host running the console
+	 * @param port Port the console listens on
+	 */
+	public PINSession(String host, int port) {
+		this.host = host;
+		this.port = port;
+	}
+
+	/**
+	 * Check a PIN with the console, waiting for the verdict.  Safe to
+	 * call from several threads at once; the checks are pipelined on
+	 * the one connection.
+	 *
+	 * @param pin The PIN to check
+	 *
+	 * @return the console's reply, starting with 300, 400 or 500
+	 *
+	 * @throws IOException if the console can't be reached or doesn't
+	 * answer in time
+	 */
+	public String check(int pin) throws IOException {
+		Integer id = Integer.valueOf(nextId.getAndIncrement());
+		BlockingQueue<String> reply = new ArrayBlockingQueue<String>(1);
+		pending.put(id, reply);
+		try {
+			send(id + " " + pin);
+			String answer = reply.poll(REPLY_TIMEOUT, TimeUnit.MILLISECONDS);
+			if (answer == null)
+				throw new SocketTimeoutException("No reply from admin console");
+			if (answer.length() == 0)
+				throw new IOException("Lost connection to admin console");
+			return answer;
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException("Interrupted waiting for admin console");
+		} finally {
+			pending.remove(id);
+		}
+	}
+
+	/**
+	 * Send one request line, connecting first if need be.
+	 *
+	 * @param line The request
+	 *
+	 * @throws IOException if the console can't be reached
+	 */
+	synchronized void send(String line) throws IOException {
+		if (socket == null)
+			connect();
+		sout.println(line);
+		if (sout.checkError()) {
+			disconnect(socket);
+			throw new IOException("Lost connection to admin console");
+		}
+	}
+
+	/**
+	 * Open the connection, switch it to session mode and start the
+	 * thread that reads replies.
+	 *
+	 * @throws IOException if the console can't be reached or refuses
+	 */
+	void connect() throws IOException {
+		final Socket s = new Socket();
+		s.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT);
+		s.setTcpNoDelay(true);
+		s.setSoTimeout(REPLY_TIMEOUT);
+		final BufferedReader sin = new BufferedReader(new InputStreamReader(s
+				.getInputStream()));
+		PrintStream out = new PrintStream(new BufferedOutputStream(s
+				.getOutputStream()), true);
+		sin.readLine(); // read 'welcome to hackavote'
+		out.println("200 Open session");
+		String opened = sin.readLine();
+		if (opened == null || !opened.startsWith("200")) {
+			s.close();
+			throw new ProtocolException("Admin console refused a session");
+		}
+		s.setSoTimeout(0);
+		socket = s;
+		sout = out;
+
+		Thread reader = new Thread(new Runnable() {
+			public void run() {
+				readReplies(s, sin);
+			}
+		}, "pin-session-reader");
+		reader.setDaemon(true);
+		reader.start();
+	}
+
+	/**
+	 * Hand each reply to the check waiting for it, until the
+	 * connection goes away.
+	 *
+	 * @param s The connection
+	 * @param sin Replies from the console
+	 */
+	void readReplies(Socket s, BufferedReader sin) {
+		try {
+			String line;
+			while ((line = sin.readLine()) != null) {
+				int space = line.indexOf(' ');
+				if (space == -1)
+					continue;
+				BlockingQueue<String> reply;
+				try {
+					reply = pending.get(Integer.valueOf(line.substring(0, space)));
+				} catch (NumberFormatException e) {
+					continue;
+				}
+				if (reply != null)
+					reply.offer(line.substring(space + 1));
+			}
+		} catch (IOException e) {
+			// fall through and fail whatever is in flight
+		}
+		disconnect(s);
+	}
+
+	/**
+	 * Forget a dead connection and fail the checks waiting on it.
+	 *
+	 * @param s The connection that died
+	 */
+	synchronized void disconnect(Socket s) {
+		if (socket != s)
+			return;
+		try {
+			s.close();
+		} catch (IOException e) {
+			// nothing left to clean up
+		}
+		socket = null;
+		sout = null;
+		for (BlockingQueue<String> reply : pending.values())
+			reply.offer("");
+	}
+
+	/**
+	 * Close the session.
+	 */
+	public void close() {
+		Socket s;
+		synchronized (this) {
+			s = socket;
+		}
+		if (s != null)
+			disconnect(s);
+	}
+}
@@ -0,0 +1,209 @@
+/*
+ * "Hack-a-vote", a Direct-Recording Electronic (DRE) voting machine
+ * software implementation.
+ * 
+ * Copyright 2003, Rice University. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ * - Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the
+ * distribution.
+ * 
+ * - Neither the name of Rice University (RICE) nor the names of its
+ * contributors may be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ * 
+ * This software is provided by RICE and the contributors on an "as
+ * is" basis, without any representations or warranties of any kind,
+ * express or implied including, but not limited to, representations
+ * or warranties of non-infringement, merchantability or fitness for a
+ * particular purpose. In no event shall RICE or contributors be
+ * liable for any direct, indirect, incidental, special, exemplary, or
+ * consequential damages (including, but not limited to, procurement
+ * of substitute goods or services; loss of use, data, or profits; or
+ * business interruption) however caused and on any theory of
+ * liability, whether in contract, strict liability, or tort
+ * (including negligence or otherwise) arising in any way out of the
+ * use of this software, even if advised of the possibility of such
+ * damage.
+ */
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.*;
+
+/**
+ * A stock of ready-made PINs.  A background thread draws PINs from a
+ * PINGenerator, throws out any that are already in use, and keeps an
+ * IntRingBuffer topped up with the rest; accepting a voter's PIN then
+ * only has to pop the replacement off the buffer, with no random
+ * number generation on the console's hot path.  If the buffer ever
+ * runs dry, take() makes a PIN itself.
+ * <p>
+ * The generator starts its walk over again once it has been through
+ * every PIN, so a PIN can be drawn a second time.  Each PIN drawn is
+ * claimed until the caller of take() has made it valid and calls
+ * issued(), so a PIN is never handed out twice, even by two threads
+ * racing to issue it.  Once every PIN is in use, take() returns NONE.
+ */
+public class PINSupply {
+
+	/**
+	 * Default number of PINs kept ready
+	 */
+	public static final int DEFAULT_CAPACITY = 4096;
+
+	/**
+	 * How long (in ms) the refill thread sleeps when nobody wakes it
+	 */
+	static final long IDLE_MS = 100;
+
+	/**
+	 * What take() returns once every PIN is in use
+	 */
+	public static final int NONE = IntRingBuffer.EMPTY;
+
+	/**
+	 * Tells the supply which PINs are already in use.
+	 */
+	public interface InUse {
+		/**
+		 * @param pin A PIN
+		 *
+		 * @return true if it's valid at the moment
+		 */
+		boolean contains(int pin);
+	}
+
+	/**
+	 * Where PINs come from
+	 */
+	PINGenerator generator;
+
+	/**
+	 * Which PINs not to hand out
+	 */
+	InUse inUse;
+
+	/**
+	 * The ready PINs
+	 */
+	IntRingBuffer ready;
+
+	/**
+	 * The PINs drawn and not yet issued: in the buffer, or taken and
+	 * on their way to being valid
+	 */
+	StripedIntHashSet buffered;
+
+	/**
+	 * Set once every PIN is in use; the refill thread stops then
+	 */
+	AtomicBoolean exhausted = new AtomicBoolean(false);
+
+	/**
+	 * The refill thread
+	 */
+	Thread refiller;
+
+	/**
+	 * Build a supply and start filling it.
+	 *
+	 * @param generator Where PINs come from
+	 * @param inUse Which PINs not to hand out
+	 * @param capacity How many PINs to keep ready
+	 */
+	public PINSupply(PINGenerator generator, InUse inUse, int capacity) {
+		this.generator = generator;
+		this.inUse = inUse;
+		ready = new IntRingBuffer(capacity);
+		buffered = new StripedIntHashSet(capacity);
+
+		refiller = new Thread(new Runnable() {
+			public void run() {
+				refill();
+			}
+		}, "pin-supply");
+		refiller.setDaemon(true);
+		refiller.start();
+	}
+
+	/**
+	 * Get a PIN that isn't in use.  Call issued() once it has been
+	 * made valid, or dropped.
+	 *
+	 * @return the PIN, or NONE if every PIN is in use
+	 */
+	public int take() {
+		while (true) {
+			int pin = ready.poll();
+			if (ready.size() < ready.capacity() / 2)
+				LockSupport.unpark(refiller);
+			if (pin == IntRingBuffer.EMPTY)
+				return draw();
+			if (!inUse.contains(pin))
+				return pin;
+			buffered.remove(pin);
+		}
+	}
+
+	/**
+	 * Release a PIN from take(), now that it's in use or won't be.
+	 * Until then no one else can draw it.
+	 *
+	 * @param pin The PIN
+	 */
+	public void issued(int pin) {
+		buffered.remove(pin);
+	}
+
+	/**
+	 * Draw a PIN straight from the generator and claim it.  The first
+	 * time there are none left, say so.
+	 *
+	 * @return a PIN that wasn't in use or claimed, or NONE if every
+	 * PIN is
+	 */
+	int draw() {
+		if (exhausted.get())
+			return NONE;
+		for (long tries = 0; tries <= generator.span(); tries++) {
+			int pin = generator.next();
+			// claim it, then check it: a PIN is made valid before
+			// its claim is released, so it can't slip between the two
+			if (!buffered.add(pin))
+				continue;
+			if (!inUse.contains(pin))
+				return pin;
+			buffered.remove(pin);
+		}
+		if (!exhausted.getAndSet(true))
+			System.err.println("Every PIN has been drawn; no more will be issued once the ready ones are gone");
+		return NONE;
+	}
+
+	/**
+	 * The refill thread: top the buffer up, then wait to be told it's
+	 * running low.  Stops once every PIN is in use.
+	 */
+	void refill() {
+		while (!exhausted.get()) {
+			while (ready.size() < ready.capacity()) {
+				int pin = draw();
+				if (pin == NONE)
+					return;
+				if (!ready.offer(pin)) {
+					buffered.remove(pin);
+					break;
+				}
+			}
+			LockSupport.parkNanos(IDLE_MS * 1000000L);
+		}
+	}
+}
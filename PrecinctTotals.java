@@ -0,0 +1,220 @@
+/*
+ * "Hack-a-vote", a Direct-Recording Electronic (DRE) voting machine
+ * software implementation.
+ * 
+ * Copyright 2003, Rice University. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ * - Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the
+ * distribution.
+ * 
+ * - Neither the name of Rice University (RICE) nor the names of its
+ * contributors may be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ * 
+ * This software is provided by RICE and the contributors on an "as
+ * is" basis, without any representations or warranties of any kind,
+ * express or implied including, but not limited to, representations
+ * or warranties of non-infringement, merchantability or fitness for a
+ * particular purpose. In no event shall RICE or contributors be
+ * liable for any direct, indirect, incidental, special, exemplary, or
+ * consequential damages (including, but not limited to, procurement
+ * of substitute goods or services; loss of use, data, or profits; or
+ * business interruption) however caused and on any theory of
+ * liability, whether in contract, strict liability, or tort
+ * (including negligence or otherwise) arising in any way out of the
+ * use of this software, even if advised of the possibility of such
+ * damage.
+ */
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * The console's running totals across every voting machine in the
+ * precinct.  Each machine reports its own totals so far with a "70"
+ * command; the console adds the difference from that machine's last
+ * report into shared counters.  A report that arrives twice, or is
+ * resent after a lost reply, changes nothing, and a machine that
+ * restarts and recovers its ballots picks up where it left off.
+ * <p>
+ * The counters are atomic, so reports from any number of
+ * connections are merged without a lock around the totals.
+ */
+public class PrecinctTotals {
+
+	/**
+	 * Reply accepting a report
+	 */
+	static final String RECORDED = "710 Tally recorded";
+
+	/**
+	 * Reply refusing a report that doesn't parse or doesn't fit
+	 */
+	static final String REFUSED = "910 Tally refused";
+
+	/**
+	 * The ballot form
+	 */
+	BallotForm form;
+
+	/**
+	 * First counter of each contest; the counters for all contests
+	 * are laid end to end
+	 */
+	int[] offset;
+
+	/**
+	 * Votes by contest and candidate, flattened
+	 */
+	AtomicLongArray votes;
+
+	/**
+	 * Ballots cast across the precinct
+	 */
+	AtomicLong ballots = new AtomicLong();
+
+	/**
+	 * Each machine's last report: its ballot count, then its counters
+	 */
+	ConcurrentHashMap<String, long[]> lastReport = new ConcurrentHashMap<String, long[]>();
+
+	/**
+	 * Set when the totals change, cleared by whoever redraws them
+	 */
+	AtomicBoolean dirty = new AtomicBoolean(true);
+
+	/**
+	 * Build empty totals for a form.
+	 *
+	 * @param form The ballot form
+	 */
+	public PrecinctTotals(BallotForm form) {
+		this.form = form;
+		offset = new int[form.contests() + 1];
+		for (int i = 0; i < form.contests(); i++)
+			offset[i + 1] = offset[i] + form.candidates(i);
+		votes = new AtomicLongArray(offset[form.contests()]);
+	}
+
+	/**
+	 * @return the ballot form
+	 */
+	public BallotForm form() {
+		return form;
+	}
+
+	/**
+	 * @param contest A contest
+	 * @param choice A candidate's position in it
+	 *
+	 * @return the candidate's votes across the precinct
+	 */
+	public long votes(int contest, int choice) {
+		return votes.get(offset[contest] + choice);
+	}
+
+	/**
+	 * @return ballots cast across the precinct
+	 */
+	public long ballots() {
+		return ballots.get();
+	}
+
+	/**
+	 * Build a machine's report.
+	 *
+	 * @param machine Names the machine; the same every time it starts
+	 * @param tally The machine's totals
+	 *
+	 * @return "70 Tally &lt;form checksum&gt; &lt;ballots&gt;
+	 * &lt;votes,...&gt; &lt;machine&gt;"
+	 */
+	public static String report(String machine, Tally tally) {
+		long[] counts;
+		long cast;
+		synchronized (tally) {
+			cast = tally.ballots();
+			counts = tally.flatten();
+		}
+		StringBuffer sb = new StringBuffer("70 Tally ");
+		sb.append(tally.form.checksum()).append(' ').append(cast).append(' ');
+		for (int i = 0; i < counts.length; i++) {
+			if (i > 0)
+				sb.append(',');
+			sb.append(counts[i]);
+		}
+		sb.append(' ').append(machine);
+		return sb.toString();
+	}
+
+	/**
+	 * Merge a machine's report and build the protocol reply.
+	 *
+	 * @param line The "70" command
+	 *
+	 * @return the 710 or 910 reply line
+	 */
+	public String reply(String line) {
+		String[] words = line.trim().split(" ", 6);
+		if (words.length < 6)
+			return REFUSED;
+		long[] report = new long[votes.length() + 1];
+		try {
+			if (Integer.parseInt(words[2]) != form.checksum())
+				return REFUSED + ": different ballot form";
+			report[0] = Long.parseLong(words[3]);
+			StringTokenizer st = new StringTokenizer(words[4], ",");
+			if (st.countTokens() != votes.length())
+				return REFUSED;
+			for (int i = 1; i < report.length; i++)
+				report[i] = Long.parseLong(st.nextToken());
+		} catch (NumberFormatException e) {
+			return REFUSED;
+		}
+		merge(words[5], report);
+		return RECORDED;
+	}
+
+	/**
+	 * Add the difference between a machine's report and its last one
+	 * into the totals.  Swapping in the new report is a compare and
+	 * set, so each difference is applied exactly once.
+	 *
+	 * @param machine The machine
+	 * @param report Its ballot count, then its counters
+	 */
+	void merge(String machine, long[] report) {
+		long[] last = lastReport.putIfAbsent(machine, report);
+		if (last == null) {
+			last = new long[report.length];
+		} else if (!lastReport.replace(machine, last, report)) {
+			// Another report from this machine got in first; diff against it
+			merge(machine, report);
+			return;
+		}
+		boolean changed = false;
+		for (int i = 1; i < report.length; i++) {
+			long delta = report[i] - last[i];
+			if (delta != 0) {
+				votes.addAndGet(i - 1, delta);
+				changed = true;
+			}
+		}
+		if (report[0] != last[0]) {
+			ballots.addAndGet(report[0] - last[0]);
+			changed = true;
+		}
+		if (changed)
+			dirty.set(true);
+	}
+}
@@ -38,26 +38,48 @@
 import javax.swing.*;
 import javax.swing.table.*;
 import java.awt.*;
+import java.awt.event.*;
+import java.text.NumberFormat;
 
 /**
  * The table that displays the Results at the bottom of the Console..
+ * One row per contest, showing who leads it, fed by the tallies the
+ * voting machines report.
  * 
  * @author Darwin Cruz <dcruz@cs.stanford.edu>
  */
-
-/** 
- * TableDemo is just like SimpleTableDemo, except that it
- * uses a custom TableModel.
- */
 @SuppressWarnings("serial")
 public class ResultsTable extends JPanel {
-	private boolean DEBUG = false;
 
-	public ResultsTable() {
+	/**
+	 * Rows shown without scrolling
+	 */
+	static final int VISIBLE_ROWS = 4;
+
+	/**
+	 * The rows as last drawn
+	 */
+	ResultsTableModel model;
+
+	/**
+	 * Redraws the changed rows every ConsoleGUI.REFRESH_MS, if the
+	 * totals changed
+	 */
+	javax.swing.Timer refreshTimer;
+
+	/**
+	 * Build the table over the precinct totals and start refreshing
+	 * it.
+	 *
+	 * @param totals The totals, updated from other threads
+	 */
+	public ResultsTable(final PrecinctTotals totals) {
 		super(new GridLayout(1, 0));
 
-		JTable table = new JTable(new ResultsTableModel());
-		table.setPreferredScrollableViewportSize(new Dimension(500, 70));
+		model = new ResultsTableModel(totals);
+		JTable table = new JTable(model);
+		table.setPreferredScrollableViewportSize(new Dimension(500,
+				VISIBLE_ROWS * table.getRowHeight()));
 
 		//Create the scroll pane and add the table to it.
 		JScrollPane scrollPane = new JScrollPane(table);
@@ -65,92 +87,114 @@ public class ResultsTable extends JPanel {
 		//Add the scroll pane to this panel.
 		add(scrollPane);
 
+		// However many reports arrive, the table is redrawn at most
+		// once a refresh, and only the rows that changed.
+		refreshTimer = new javax.swing.Timer(ConsoleGUI.REFRESH_MS,
+				new ActionListener() {
+					public void actionPerformed(ActionEvent e) {
+						if (totals.dirty.getAndSet(false))
+							model.refresh();
+					}
+				});
+		refreshTimer.start();
 	}
 
-	class ResultsTableModel extends AbstractTableModel {
+	/**
+	 * A read-only model over a snapshot of the totals.
+	 */
+	static class ResultsTableModel extends AbstractTableModel {
 		private String[] columnNames = { "Issue", "Winner", "# of Votes",
 				"% of Votes" };
 
-		private Object[][] data = {
-				{ "President", "Mace Windu", "4,234,321", "54%" },
-				{ "Vice-President", "Obi-Wan Kenobi", "6,432,532", "79%" },
-				{ "Secretary of Defense", "Jar-Jar Binks", "5,456,112", "65%" },
-				{ "Secretary of State", "Master Yoda", "9,345,552", "100%" } };
-
-		public int getColumnCount() {
-			return columnNames.length;
-		}
+		/**
+		 * Formats vote counts with grouping
+		 */
+		NumberFormat counts = NumberFormat.getIntegerInstance();
 
-		public int getRowCount() {
-			return data.length;
-		}
+		/**
+		 * Formats shares of the vote
+		 */
+		NumberFormat percents = NumberFormat.getPercentInstance();
 
-		public String getColumnName(int col) {
-			return columnNames[col];
-		}
+		/**
+		 * The totals on display
+		 */
+		PrecinctTotals totals;
 
-		public Object getValueAt(int row, int col) {
-			return data[row][col];
-		}
+		/**
+		 * The cells as last drawn
+		 */
+		Object[][] data;
 
-		/*
-		 * JTable uses this method to determine the default renderer/
-		 * editor for each cell.  If we didn't implement this method,
-		 * then the last column would contain text ("true"/"false"),
-		 * rather than a check box.
+		/**
+		 * Build the model, with every contest at zero.
+		 *
+		 * @param totals The totals
 		 */
-		@SuppressWarnings("unchecked")
-		public Class getColumnClass(int c) {
-			return getValueAt(0, c).getClass();
+		ResultsTableModel(PrecinctTotals totals) {
+			this.totals = totals;
+			data = new Object[totals.form().contests()][];
+			for (int i = 0; i < data.length; i++)
+				data[i] = row(i);
 		}
 
-		/*
-		 * Don't need to implement this method unless your table's
-		 * editable.
+		/**
+		 * Reread the totals, and tell the table which rows changed.
+		 * Call on the event thread.
 		 */
-		public boolean isCellEditable(int row, int col) {
-			//Note that the data/cell address is constant,
-			//no matter where the cell appears onscreen.
-			if (col < 2) {
-				return false;
-			} else {
-				return true;
+		void refresh() {
+			for (int i = 0; i < data.length; i++) {
+				Object[] now = row(i);
+				if (!java.util.Arrays.equals(now, data[i])) {
+					data[i] = now;
+					fireTableRowsUpdated(i, i);
+				}
 			}
 		}
 
-		/*
-		 * Don't need to implement this method unless your table's
-		 * data can change.
+		/**
+		 * @param contest A contest
+		 *
+		 * @return its row as it stands now
 		 */
-		public void setValueAt(Object value, int row, int col) {
-			if (DEBUG) {
-				System.out.println("Setting value at " + row + "," + col
-						+ " to " + value + " (an instance of "
-						+ value.getClass() + ")");
+		Object[] row(int contest) {
+			BallotForm form = totals.form();
+			if (form.candidates(contest) == 0)
+				return new Object[] { form.contest(contest), "", "0", "" };
+			int leader = 0;
+			long lead = totals.votes(contest, 0);
+			long sum = lead;
+			for (int j = 1; j < form.candidates(contest); j++) {
+				long v = totals.votes(contest, j);
+				sum += v;
+				if (v > lead) {
+					lead = v;
+					leader = j;
+				}
 			}
+			if (sum == 0)
+				return new Object[] { form.contest(contest), "", "0", "" };
+			return new Object[] { form.contest(contest),
+					form.candidate(contest, leader).ballotString(),
+					counts.format(lead),
+					percents.format((double) lead / sum) };
+		}
 
-			data[row][col] = value;
-			fireTableCellUpdated(row, col);
+		public int getColumnCount() {
+			return columnNames.length;
+		}
 
-			if (DEBUG) {
-				System.out.println("New value of data:");
-				printDebugData();
-			}
+		public int getRowCount() {
+			return data.length;
 		}
 
-		private void printDebugData() {
-			int numRows = getRowCount();
-			int numCols = getColumnCount();
+		public String getColumnName(int col) {
+			return columnNames[col];
+		}
 
-			for (int i = 0; i < numRows; i++) {
-				System.out.print("    row " + i + ":");
-				for (int j = 0; j < numCols; j++) {
-					System.out.print("  " + data[i][j]);
-				}
-				System.out.println();
-			}
-			System.out.println("--------------------------");
+		public Object getValueAt(int row, int col) {
+			return data[row][col];
 		}
 	}
 
-}
\ No newline at end of file
+}
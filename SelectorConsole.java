@@ -0,0 +1,631 @@
+/*
+ * "Hack-a-vote", a Direct-Recording Electronic (DRE) voting machine
+ * software implementation.
+ * 
+ * Copyright 2003, Rice University. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ * - Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the
+ * distribution.
+ * 
+ * - Neither the name of Rice University (RICE) nor the names of its
+ * contributors may be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ * 
+ * This software is provided by RICE and the contributors on an "as
+ * is" basis, without any representations or warranties of any kind,
+ * express or implied including, but not limited to, representations
+ * or warranties of non-infringement, merchantability or fitness for a
+ * particular purpose. In no event shall RICE or contributors be
+ * liable for any direct, indirect, incidental, special, exemplary, or
+ * consequential damages (including, but not limited to, procurement
+ * of substitute goods or services; loss of use, data, or profits; or
+ * business interruption) however caused and on any theory of
+ * liability, whether in contract, strict liability, or tort
+ * (including negligence or otherwise) arising in any way out of the
+ * use of this software, even if advised of the possibility of such
+ * damage.
+ */
+
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * A non-blocking transport for the administration console. Speaks
+ * exactly the same line protocol as Console's blocking loop, but a few
+ * selector threads multiplex every connection instead of tying up one
+ * thread per voting machine, so a single console host can keep
+ * thousands of booths connected.
+ * <p>
+ * The first selector thread also owns the listening socket and deals
+ * accepted connections out to all selector threads in turn.
+ * <p>
+ * A selector thread never waits on the disk: PIN checks that wait for
+ * the PIN journal, and bulk requests, are answered on a pool of worker
+ * threads, and the reply is handed back to the selector thread to
+ * send.
+ */
+public class SelectorConsole {
+
+	/**
+	 * Longest protocol line we accept; anything longer is garbage and
+	 * the connection is dropped.
+	 */
+	static final int MAX_LINE = 1024;
+
+	/**
+	 * Line terminator written on every reply, matching what
+	 * PrintStream.println sends in the blocking console.
+	 */
+	static final byte[] EOL = System.getProperty("line.separator").getBytes();
+
+	/**
+	 * How often (in ms) each selector thread looks for idle connections
+	 */
+	static final long SWEEP_MS = 1000;
+
+	/**
+	 * Where the connection is in the console protocol.
+	 */
+	enum State {
+		/** Banner sent, waiting for the command line */
+		COMMAND,
+		/** PIN prompt sent, waiting for the PIN */
+		PIN,
+		/** Keep-alive session, every line is an "&lt;id&gt; &lt;PIN&gt;" request */
+		SESSION,
+		/** Conversation over, close once the output has drained */
+		CLOSING
+	}
+
+	/**
+	 * The port we listen on
+	 */
+	int port;
+
+	/**
+	 * The selector threads
+	 */
+	Reactor[] reactors;
+
+	/**
+	 * Which reactor gets the next accepted connection
+	 */
+	int nextReactor = 0;
+
+	/**
+	 * Answers the requests that would block a selector thread
+	 */
+	ExecutorService workers;
+
+	/**
+	 * Build a selector console.
+	 *
+	 * @param port The port to listen on
+	 * @param numSelectors How many selector threads to run
+	 * @param numWorkers How many requests may wait on the disk at once
+	 */
+	public SelectorConsole(int port, int numSelectors, int numWorkers) {
+		this.port = port;
+		reactors = new Reactor[numSelectors];
+		// Each connection has at most one request out at a time, so the
+		// queue is bounded by the number of connections
+		workers = new ThreadPoolExecutor(numWorkers, numWorkers, 0L,
+				TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "console-worker");
+						t.setDaemon(true);
+						return t;
+					}
+				});
+	}
+
+	/**
+	 * Open the listening socket and serve connections forever.  The
+	 * calling thread becomes the first selector thread.
+	 *
+	 * @throws IOException if the port can't be opened
+	 */
+	public void serve() throws IOException {
+		for (int i = 0; i < reactors.length; i++)
+			reactors[i] = new Reactor(i);
+
+		ServerSocketChannel server = ServerSocketChannel.open();
+		server.configureBlocking(false);
+		server.socket().setReuseAddress(true);
+		server.socket().bind(new InetSocketAddress(port),
+				Console.CONNECTION_BACKLOG);
+		server.register(reactors[0].selector, SelectionKey.OP_ACCEPT);
+
+		for (int i = 1; i < reactors.length; i++) {
+			Thread t = new Thread(reactors[i], "console-selector-" + i);
+			t.setDaemon(true);
+			t.start();
+		}
+		reactors[0].run();
+	}
+
+	/**
+	 * Accept every pending connection and hand each one to a reactor.
+	 *
+	 * @param server The listening channel
+	 */
+	void acceptAll(ServerSocketChannel server) {
+		while (true) {
+			SocketChannel ch;
+			try {
+				ch = server.accept();
+			} catch (IOException e) {
+				System.err.println("Error this connection: " + e);
+				return;
+			}
+			if (ch == null)
+				return;
+			Reactor target = reactors[nextReactor];
+			nextReactor = (nextReactor + 1) % reactors.length;
+			target.adopt(ch);
+		}
+	}
+
+	/**
+	 * One selector thread and the connections registered with it.
+	 */
+	class Reactor implements Runnable {
+
+		/**
+		 * Our selector
+		 */
+		Selector selector;
+
+		/**
+		 * Connections accepted elsewhere, waiting to be registered here
+		 */
+		Queue<SocketChannel> incoming = new ConcurrentLinkedQueue<SocketChannel>();
+
+		/**
+		 * Replies made on worker threads, waiting to be sent from here
+		 */
+		Queue<Runnable> answers = new ConcurrentLinkedQueue<Runnable>();
+
+		/**
+		 * Which reactor this is
+		 */
+		int id;
+
+		/**
+		 * The thread running this reactor
+		 */
+		volatile Thread ownerThread;
+
+		/**
+		 * When to next look for idle connections, in ms
+		 */
+		long nextSweep;
+
+		/**
+		 * Build a reactor.
+		 *
+		 * @param id Which reactor this is
+		 *
+		 * @throws IOException if the selector can't be opened
+		 */
+		Reactor(int id) throws IOException {
+			this.id = id;
+			selector = Selector.open();
+		}
+
+		/**
+		 * Take over a freshly accepted connection.  Safe to call from
+		 * any thread.
+		 *
+		 * @param ch The connection
+		 */
+		void adopt(SocketChannel ch) {
+			incoming.add(ch);
+			if (Thread.currentThread() != ownerThread)
+				selector.wakeup();
+		}
+
+		/**
+		 * Run something on this reactor's thread.  Safe to call from
+		 * any thread.
+		 *
+		 * @param task What to run
+		 */
+		void post(Runnable task) {
+			answers.add(task);
+			selector.wakeup();
+		}
+
+		/**
+		 * The selector loop.
+		 */
+		public void run() {
+			ownerThread = Thread.currentThread();
+			nextSweep = System.currentTimeMillis() + SWEEP_MS;
+			while (true) {
+				try {
+					selector.select(SWEEP_MS);
+				} catch (IOException e) {
+					System.err.println("Selector failed: " + e);
+					continue;
+				}
+
+				Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+				while (it.hasNext()) {
+					SelectionKey key = it.next();
+					it.remove();
+					if (!key.isValid())
+						continue;
+					if (key.isAcceptable()) {
+						acceptAll((ServerSocketChannel) key.channel());
+						continue;
+					}
+					Connection c = (Connection) key.attachment();
+					try {
+						if (key.isReadable())
+							c.readLines();
+						if (key.isValid() && key.isWritable())
+							c.flush();
+					} catch (IOException e) {
+						c.close();
+					} catch (RuntimeException e) {
+						// A bug in one conversation mustn't stop the reactor
+						System.err.println("Error this connection: " + e);
+						c.close();
+					}
+				}
+
+				// Includes anything we just accepted ourselves
+				SocketChannel ch;
+				while ((ch = incoming.poll()) != null)
+					register(ch);
+
+				Runnable task;
+				while ((task = answers.poll()) != null) {
+					try {
+						task.run();
+					} catch (RuntimeException e) {
+						System.err.println("Error this connection: " + e);
+					}
+				}
+
+				long now = System.currentTimeMillis();
+				if (now >= nextSweep) {
+					closeIdle(now);
+					nextSweep = now + SWEEP_MS;
+				}
+			}
+		}
+
+		/**
+		 * Drop the connections whose voting machine has gone quiet, as
+		 * the blocking console's socket timeouts do: SESSION_TIMEOUT in
+		 * a keep-alive session, SOCKET_TIMEOUT otherwise.  A connection
+		 * waiting on a worker thread isn't idle.
+		 *
+		 * @param now The time, in ms
+		 */
+		void closeIdle(long now) {
+			Iterator<SelectionKey> it = selector.keys().iterator();
+			while (it.hasNext()) {
+				Object c = it.next().attachment();
+				if (!(c instanceof Connection))
+					continue; // the listening socket
+				Connection conn = (Connection) c;
+				long limit = conn.state == State.SESSION
+						? Console.SESSION_TIMEOUT : Console.SOCKET_TIMEOUT;
+				if (!conn.busy && now - conn.lastActive > limit)
+					conn.close();
+			}
+		}
+
+		/**
+		 * Register a new connection and greet it.
+		 *
+		 * @param ch The connection
+		 */
+		void register(SocketChannel ch) {
+			try {
+				ch.configureBlocking(false);
+				ch.socket().setTcpNoDelay(true);
+				SelectionKey key = ch.register(selector, SelectionKey.OP_READ);
+				Connection c = new Connection(key, this);
+				key.attach(c);
+				c.reply(Console.BANNER);
+				c.flush();
+			} catch (IOException e) {
+				try {
+					ch.close();
+				} catch (IOException e2) {
+					// nothing left to clean up
+				}
+			}
+		}
+	}
+
+	/**
+	 * Per-connection protocol state and buffers.
+	 */
+	class Connection {
+
+		/**
+		 * Our registration with the selector
+		 */
+		SelectionKey key;
+
+		/**
+		 * The reactor we belong to
+		 */
+		Reactor reactor;
+
+		/**
+		 * The channel to the voting machine
+		 */
+		SocketChannel channel;
+
+		/**
+		 * Bytes read but not yet consumed as complete lines
+		 */
+		ByteBuffer in = ByteBuffer.allocate(MAX_LINE);
+
+		/**
+		 * Replies not yet written, in write mode
+		 */
+		ByteBuffer out = ByteBuffer.allocate(256);
+
+		/**
+		 * Where we are in the protocol
+		 */
+		State state = State.COMMAND;
+
+		/**
+		 * Whether a line is being answered on a worker thread.  Nothing
+		 * more is read until it has been answered.
+		 */
+		boolean busy = false;
+
+		/**
+		 * Lines that arrived while busy, in order
+		 */
+		Queue<String> waiting = new ArrayDeque<String>();
+
+		/**
+		 * When the voting machine last sent or took anything, in ms
+		 */
+		long lastActive = System.currentTimeMillis();
+
+		/**
+		 * Build the state for a new connection.
+		 *
+		 * @param key The connection's selection key
+		 * @param reactor The reactor it's registered with
+		 */
+		Connection(SelectionKey key, Reactor reactor) {
+			this.key = key;
+			this.reactor = reactor;
+			this.channel = (SocketChannel) key.channel();
+		}
+
+		/**
+		 * Read whatever is available and act on every complete line.
+		 *
+		 * @throws IOException if the connection fails
+		 */
+		void readLines() throws IOException {
+			int n = channel.read(in);
+			if (n < 0) {
+				close();
+				return;
+			}
+			if (n > 0)
+				lastActive = System.currentTimeMillis();
+			in.flip();
+			int start = in.position();
+			for (int i = start; i < in.limit(); i++) {
+				if (in.get(i) != '\n')
+					continue;
+				int end = i;
+				if (end > start && in.get(end - 1) == '\r')
+					end--;
+				String line = new String(in.array(), start, end - start,
+						"ISO-8859-1");
+				start = i + 1;
+				if (busy)
+					waiting.add(line);
+				else if (state != State.CLOSING)
+					handleLine(line);
+			}
+			in.position(start);
+			in.compact();
+			if (!in.hasRemaining()) {
+				// A full buffer with no newline in it
+				close();
+				return;
+			}
+			flush();
+		}
+
+		/**
+		 * Advance the protocol by one line from the voting machine.
+		 *
+		 * @param line The line, without its terminator
+		 */
+		void handleLine(String line) {
+			switch (state) {
+			case COMMAND:
+				if (line.startsWith("50")) {
+					reply(Console.WEAK_LIST_HEADER);
+					String list = Console.weakPasswordList();
+					System.out.println(list);
+					reply(list);
+					state = State.CLOSING;
+				} else if (line.startsWith("60")) {
+					final String command = line;
+					offload(new Callable<String[]>() {
+						public String[] call() {
+							return Console.bulkReply(command);
+						}
+					});
+					state = State.CLOSING;
+				} else if (line.startsWith("70")) {
+					reply(Console.tallyReply(line));
+					state = State.CLOSING;
+				} else if (line.startsWith("200")) {
+					reply(Console.SESSION_OPEN);
+					state = State.SESSION;
+				} else {
+					reply(Console.PIN_PROMPT);
+					state = State.PIN;
+				}
+				break;
+			case PIN:
+				final String pin = line.trim();
+				if (Console.pinJournal == null)
+					reply(Console.checkPIN(pin));
+				else
+					offload(new Callable<String[]>() {
+						public String[] call() {
+							return new String[] { Console.checkPIN(pin) };
+						}
+					});
+				state = State.CLOSING;
+				break;
+			case SESSION:
+				final String request = line;
+				if (Console.pinJournal == null)
+					reply(Console.sessionReply(request));
+				else
+					offload(new Callable<String[]>() {
+						public String[] call() {
+							return new String[] { Console.sessionReply(request) };
+						}
+					});
+				break;
+			default:
+				break;
+			}
+		}
+
+		/**
+		 * Answer a line on a worker thread, for answers that wait on
+		 * the disk or take long to make.  The reply is sent from the
+		 * selector thread once it's ready.
+		 *
+		 * @param answer Makes the reply lines
+		 */
+		void offload(final Callable<String[]> answer) {
+			busy = true;
+			workers.execute(new Runnable() {
+				public void run() {
+					String[] lines;
+					try {
+						lines = answer.call();
+					} catch (Exception e) {
+						System.err.println("Error this connection: " + e);
+						lines = null;
+					}
+					final String[] reply = lines;
+					reactor.post(new Runnable() {
+						public void run() {
+							try {
+								answered(reply);
+							} catch (IOException e) {
+								close();
+							}
+						}
+					});
+				}
+			});
+		}
+
+		/**
+		 * Send a reply made on a worker thread, then act on the lines
+		 * that arrived meanwhile.  Runs on the selector thread.
+		 *
+		 * @param lines The reply lines, or null if making them failed
+		 *
+		 * @throws IOException if the connection fails
+		 */
+		void answered(String[] lines) throws IOException {
+			busy = false;
+			if (!key.isValid())
+				return; // the voting machine went away
+			if (lines == null) {
+				close();
+				return;
+			}
+			for (int i = 0; i < lines.length; i++)
+				reply(lines[i]);
+			while (!busy && state != State.CLOSING && !waiting.isEmpty())
+				handleLine(waiting.poll());
+			flush();
+		}
+
+		/**
+		 * Queue a reply line.
+		 *
+		 * @param line The line, without its terminator
+		 */
+		void reply(String line) {
+			int need = line.length() + EOL.length;
+			if (out.remaining() < need) {
+				ByteBuffer bigger = ByteBuffer.allocate(Math.max(
+						out.capacity() * 2, out.position() + need));
+				out.flip();
+				bigger.put(out);
+				out = bigger;
+			}
+			for (int i = 0; i < line.length(); i++)
+				out.put((byte) line.charAt(i));
+			out.put(EOL);
+		}
+
+		/**
+		 * Write as much queued output as the socket takes, and close
+		 * the connection once a finished conversation has drained.
+		 *
+		 * @throws IOException if the connection fails
+		 */
+		void flush() throws IOException {
+			out.flip();
+			if (channel.write(out) > 0)
+				lastActive = System.currentTimeMillis();
+			boolean drained = !out.hasRemaining();
+			out.compact();
+			int read = busy ? 0 : SelectionKey.OP_READ;
+			if (!drained) {
+				key.interestOps(read | SelectionKey.OP_WRITE);
+			} else if (state == State.CLOSING && !busy) {
+				close();
+			} else {
+				key.interestOps(read);
+			}
+		}
+
+		/**
+		 * Drop the connection.
+		 */
+		void close() {
+			key.cancel();
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// nothing left to clean up
+			}
+		}
+	}
+}
@@ -119,14 +119,29 @@ public class SelfTester {
 		for (int i = 0; i < howMany; i++) {
 			bg.displayFirst();
 
-			IniFile ballotFile = null;
+			// The test ballot, contest by contest; read, never rewritten
+			final HashMap<String, String> testCand = new HashMap<String, String>();
+			final HashMap<String, String> testParty = new HashMap<String, String>();
 			if (ballotFileDir != null) {
 				File f = new File(ballotFileDir + "/ballot" + (i + 1) + ".txt");
 				if (!f.exists()) {
 					break;
 				}
-				ballotFile = new IniFile(ballotFileDir + "/ballot" + (i + 1)
-						+ ".txt");
+				try {
+					IniFile.parse(f.getPath(), new IniFile.Handler() {
+						public void value(String subject, String variable,
+								String value) {
+							if (variable.equals("Candidate"))
+								testCand.put(subject, value);
+							else if (variable.equals("Party"))
+								testParty.put(subject, value);
+						}
+					});
+				} catch (IOException e) {
+					System.err.println("Self-test failed: can't read " + f
+							+ ": " + e.getMessage());
+					System.exit(-1);
+				}
 			}
 
 			// Vote in each panel.
@@ -149,10 +164,12 @@ public class SelfTester {
 					}
 				} else {
 					String electionName = bg.panels[j].title;
-					String testVoteCand = ballotFile.getValue(electionName,
-							"Candidate");
-					String testVoteParty = ballotFile.getValue(electionName,
-							"Party");
+					String testVoteCand = testCand.get(electionName);
+					String testVoteParty = testParty.get(electionName);
+					if (testVoteCand == null)
+						testVoteCand = "";
+					if (testVoteParty == null)
+						testVoteParty = "";
 					String expectedName = testVoteCand + " (" + testVoteParty
 							+ ")";
 					ListIterator it = buttonL.listIterator();
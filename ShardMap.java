@@ -0,0 +1,182 @@
+/*
+ * "Hack-a-vote", a Direct-Recording Electronic (DRE) voting machine
+ * software implementation.
+ * 
+ * Copyright 2003, Rice University. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ * - Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the
+ * distribution.
+ * 
+ * - Neither the name of Rice University (RICE) nor the names of its
+ * contributors may be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ * 
+ * This software is provided by RICE and the contributors on an "as
+ * is" basis, without any representations or warranties of any kind,
+ * express or implied including, but not limited to, representations
+ * or warranties of non-infringement, merchantability or fitness for a
+ * particular purpose. In no event shall RICE or contributors be
+ * liable for any direct, indirect, incidental, special, exemplary, or
+ * consequential damages (including, but not limited to, procurement
+ * of substitute goods or services; loss of use, data, or profits; or
+ * business interruption) however caused and on any theory of
+ * liability, whether in contract, strict liability, or tort
+ * (including negligence or otherwise) arising in any way out of the
+ * use of this software, even if advised of the possibility of such
+ * damage.
+ */
+
+import java.net.*;
+import java.util.*;
+
+/**
+ * Splits the PIN space among several consoles.  Each shard owns one
+ * contiguous slice of the PINs of a given width, and only ever issues
+ * and checks PINs from its own slice, so the consoles share no state
+ * and a voting machine can tell from the PIN alone which console to
+ * ask.  Shards are numbered from 0, in the order their consoles are
+ * listed on the voting machine's command line.
+ */
+public class ShardMap {
+
+	/**
+	 * Smallest PIN in the whole space
+	 */
+	long lo;
+
+	/**
+	 * How many PINs are in the whole space
+	 */
+	long span;
+
+	/**
+	 * How many shards the space is split into
+	 */
+	int shards;
+
+	/**
+	 * Split all the PINs of a given width into shards.
+	 *
+	 * @param width Number of digits per PIN
+	 * @param shards How many shards
+	 */
+	public ShardMap(int width, int shards) {
+		this.lo = PINGenerator.lowest(width);
+		this.span = PINGenerator.lowest(width + 1) - lo;
+		if (shards < 1 || shards > span)
+			throw new IllegalArgumentException("Can't split " + span
+					+ " PINs into " + shards + " shards");
+		this.shards = shards;
+	}
+
+	/**
+	 * @return how many shards there are
+	 */
+	public int shards() {
+		return shards;
+	}
+
+	/**
+	 * @param k A shard
+	 *
+	 * @return the smallest PIN shard k owns
+	 */
+	public long lo(int k) {
+		return lo + span * k / shards;
+	}
+
+	/**
+	 * @param k A shard
+	 *
+	 * @return one past the largest PIN shard k owns
+	 */
+	public long hi(int k) {
+		return lo + span * (k + 1) / shards;
+	}
+
+	/**
+	 * Find the shard that owns a PIN.  PINs outside the space (a
+	 * mistyped PIN with too many digits, say) go to shard 0, which
+	 * will turn them down like any other wrong PIN.
+	 *
+	 * @param pin The PIN
+	 *
+	 * @return the shard that owns it
+	 */
+	public int shardOf(int pin) {
+		long offset = pin - lo;
+		if (offset < 0 || offset >= span)
+			return 0;
+		// Close to the inverse of lo(k); fix up the rounding
+		int k = (int) (offset * shards / span);
+		while (lo(k) > pin)
+			k--;
+		while (hi(k) <= pin)
+			k++;
+		return k;
+	}
+
+	/**
+	 * Parse a shard given as "k/n": shard k of n, counting from 0.
+	 *
+	 * @param spec The shard
+	 *
+	 * @return { k, n }, or null if spec isn't of that form
+	 */
+	public static int[] parseShard(String spec) {
+		int slash = spec.indexOf('/');
+		if (slash < 0)
+			return null;
+		try {
+			int k = Integer.parseInt(spec.substring(0, slash));
+			int n = Integer.parseInt(spec.substring(slash + 1));
+			if (n < 1 || k < 0 || k >= n)
+				return null;
+			return new int[] { k, n };
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Parse a list of consoles given as "host[:port],host[:port],...".
+	 * A console listed without a port is on Console.CONSOLE_PORT.
+	 *
+	 * @param list The consoles, shard 0 first
+	 *
+	 * @return their addresses, unresolved
+	 *
+	 * @throws IllegalArgumentException if a port isn't a port
+	 */
+	public static InetSocketAddress[] parseHosts(String list) {
+		StringTokenizer st = new StringTokenizer(list, ",");
+		InetSocketAddress[] hosts = new InetSocketAddress[st.countTokens()];
+		for (int i = 0; i < hosts.length; i++) {
+			String host = st.nextToken().trim();
+			int port = Console.CONSOLE_PORT;
+			int colon = host.lastIndexOf(':');
+			if (colon >= 0) {
+				try {
+					port = Integer.parseInt(host.substring(colon + 1));
+				} catch (NumberFormatException e) {
+					port = -1;
+				}
+				if (port < 1 || port > 65535)
+					throw new IllegalArgumentException("Bad port in \"" + host
+							+ "\"");
+				host = host.substring(0, colon);
+			}
+			hosts[i] = InetSocketAddress.createUnresolved(host, port);
+		}
+		return hosts;
+	}
+}
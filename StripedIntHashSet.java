@@ -0,0 +1,218 @@
+/*
+ * "Hack-a-vote", a Direct-Recording Electronic (DRE) voting machine
+ * software implementation.
+ * 
+ * Copyright 2003, Rice University. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ * - Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the
+ * distribution.
+ * 
+ * - Neither the name of Rice University (RICE) nor the names of its
+ * contributors may be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ * 
+ * This software is provided by RICE and the contributors on an "as
+ * is" basis, without any representations or warranties of any kind,
+ * express or implied including, but not limited to, representations
+ * or warranties of non-infringement, merchantability or fitness for a
+ * particular purpose. In no event shall RICE or contributors be
+ * liable for any direct, indirect, incidental, special, exemplary, or
+ * consequential damages (including, but not limited to, procurement
+ * of substitute goods or services; loss of use, data, or profits; or
+ * business interruption) however caused and on any theory of
+ * liability, whether in contract, strict liability, or tort
+ * (including negligence or otherwise) arising in any way out of the
+ * use of this software, even if advised of the possibility of such
+ * damage.
+ */
+
+import java.util.*;
+
+/**
+ * A thread-safe set of ints, split into independently locked
+ * IntHashSet stripes.  A value always lives in the same stripe, so
+ * single-value operations only ever take that stripe's lock, and
+ * threads checking different PINs rarely wait on each other.
+ */
+public class StripedIntHashSet {
+
+	/**
+	 * Default number of stripes
+	 */
+	public static final int DEFAULT_STRIPES = 64;
+
+	/**
+	 * The stripes; each one is its own lock
+	 */
+	IntHashSet[] stripes;
+
+	/**
+	 * Build an empty set with the default number of stripes.
+	 *
+	 * @param expected How many values the set should hold without
+	 * growing
+	 */
+	public StripedIntHashSet(int expected) {
+		this(expected, DEFAULT_STRIPES);
+	}
+
+	/**
+	 * Build an empty set.
+	 *
+	 * @param expected How many values the set should hold without
+	 * growing
+	 * @param numStripes How many stripes to split the set into; rounded
+	 * up to a power of two
+	 */
+	public StripedIntHashSet(int expected, int numStripes) {
+		int n = 1;
+		while (n < numStripes)
+			n <<= 1;
+		stripes = new IntHashSet[n];
+		for (int i = 0; i < n; i++)
+			stripes[i] = new IntHashSet(expected / n + 1);
+	}
+
+	/**
+	 * @param v A value
+	 *
+	 * @return the stripe v belongs to
+	 */
+	IntHashSet stripeOf(int v) {
+		// Use the high bits; the stripe's own table uses the low ones
+		return stripes[(IntHashSet.mix(v) >>> 24) & (stripes.length - 1)];
+	}
+
+	/**
+	 * @param v The value to look for
+	 *
+	 * @return true if v is in the set
+	 */
+	public boolean contains(int v) {
+		IntHashSet s = stripeOf(v);
+		synchronized (s) {
+			return s.contains(v);
+		}
+	}
+
+	/**
+	 * Add a value.
+	 *
+	 * @param v The value to add
+	 *
+	 * @return true if it wasn't already in the set
+	 */
+	public boolean add(int v) {
+		IntHashSet s = stripeOf(v);
+		synchronized (s) {
+			return s.add(v);
+		}
+	}
+
+	/**
+	 * Remove a value.  Of any number of threads racing to remove the
+	 * same value, exactly one sees true.
+	 *
+	 * @param v The value to remove
+	 *
+	 * @return true if it was in the set
+	 */
+	public boolean remove(int v) {
+		IntHashSet s = stripeOf(v);
+		synchronized (s) {
+			return s.remove(v);
+		}
+	}
+
+	/**
+	 * @return how many values are in the set; only a snapshot while
+	 * other threads are changing it
+	 */
+	public int size() {
+		int n = 0;
+		for (int i = 0; i < stripes.length; i++) {
+			synchronized (stripes[i]) {
+				n += stripes[i].size();
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Remove and return a member of the set picked at random.
+	 *
+	 * @param r The random source
+	 *
+	 * @return the removed member
+	 *
+	 * @throws NoSuchElementException if the set is empty
+	 */
+	public int removeRandom(Random r) {
+		int start = r.nextInt(stripes.length);
+		for (int k = 0; k < stripes.length; k++) {
+			IntHashSet s = stripes[(start + k) & (stripes.length - 1)];
+			synchronized (s) {
+				if (s.size() > 0) {
+					int v = s.randomElement(r);
+					s.remove(v);
+					return v;
+				}
+			}
+		}
+		throw new NoSuchElementException();
+	}
+
+	/**
+	 * Pick a member of the set at random, leaving it in the set.
+	 *
+	 * @param r The random source
+	 *
+	 * @return the member
+	 *
+	 * @throws NoSuchElementException if the set is empty
+	 */
+	public int randomElement(Random r) {
+		int start = r.nextInt(stripes.length);
+		for (int k = 0; k < stripes.length; k++) {
+			IntHashSet s = stripes[(start + k) & (stripes.length - 1)];
+			synchronized (s) {
+				if (s.size() > 0)
+					return s.randomElement(r);
+			}
+		}
+		throw new NoSuchElementException();
+	}
+
+	/**
+	 * Copy the members of the set into an array.  Each stripe is
+	 * copied atomically, but not the set as a whole.
+	 *
+	 * @return the members
+	 */
+	public int[] toArray() {
+		int[][] parts = new int[stripes.length][];
+		int n = 0;
+		for (int i = 0; i < stripes.length; i++) {
+			synchronized (stripes[i]) {
+				parts[i] = stripes[i].toArray();
+			}
+			n += parts[i].length;
+		}
+		int[] out = new int[n];
+		int pos = 0;
+		for (int i = 0; i < parts.length; i++) {
+			System.arraycopy(parts[i], 0, out, pos, parts[i].length);
+			pos += parts[i].length;
+		}
+		return out;
+	}
+}
@@ -0,0 +1,414 @@
+/*
+ * "Hack-a-vote", a Direct-Recording Electronic (DRE) voting machine
+ * software implementation.
+ * 
+ * Copyright 2003, Rice University. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ * - Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the
+ * distribution.
+ * 
+ * - Neither the name of Rice University (RICE) nor the names of its
+ * contributors may be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ * 
+ * This software is provided by RICE and the contributors on an "as
+ * is" basis, without any representations or warranties of any kind,
+ * express or implied including, but not limited to, representations
+ * or warranties of non-infringement, merchantability or fitness for a
+ * particular purpose. In no event shall RICE or contributors be
+ * liable for any direct, indirect, incidental, special, exemplary, or
+ * consequential damages (including, but not limited to, procurement
+ * of substitute goods or services; loss of use, data, or profits; or
+ * business interruption) however caused and on any theory of
+ * liability, whether in contract, strict liability, or tort
+ * (including negligence or otherwise) arising in any way out of the
+ * use of this software, even if advised of the possibility of such
+ * damage.
+ */
+
+import java.io.*;
+import java.util.concurrent.*;
+
+/**
+ * Counts a stored set of ballots in parallel.  The ballots are split
+ * into ranges on a ForkJoinPool; each range is counted into its own
+ * contest-by-candidate histogram, with no sharing between threads,
+ * and the histograms are summed as the ranges join.  Works on a ballot
+ * journal, a ballot archive, or a ballot box of ballotN.txt files.
+ * <p>
+ * Run "java Tabulator" to recount an exported ballot box.
+ */
+public class Tabulator {
+
+	/**
+	 * Encoded ballots per range
+	 */
+	static final int RANGE = 1 << 16;
+
+	/**
+	 * ballotN.txt files per range; each one is a file to open and parse
+	 */
+	static final int FILE_RANGE = 256;
+
+	/**
+	 * Counts one range of ballots.
+	 */
+	interface Counter {
+		/**
+		 * Count ballots first .. end-1.
+		 *
+		 * @param first The first ballot, from 0
+		 * @param end One past the last ballot
+		 * @param counts Votes by contest and candidate position, to
+		 * add to
+		 */
+		void count(long first, long end, long[][] counts) throws IOException;
+	}
+
+	/**
+	 * The pool the ranges run on
+	 */
+	ForkJoinPool pool;
+
+	/**
+	 * Build a tabulator.
+	 *
+	 * @param threads How many threads to count on
+	 */
+	public Tabulator(int threads) {
+		pool = new ForkJoinPool(threads);
+	}
+
+	/**
+	 * Count a range of ballots, splitting it in two until the halves
+	 * are small enough to count directly.
+	 */
+	@SuppressWarnings("serial")
+	static class Count extends RecursiveTask<long[][]> {
+
+		/**
+		 * The ballot form
+		 */
+		BallotForm form;
+
+		/**
+		 * Counts a range directly
+		 */
+		Counter counter;
+
+		/**
+		 * First ballot of the range
+		 */
+		long first;
+
+		/**
+		 * One past the last ballot of the range
+		 */
+		long end;
+
+		/**
+		 * Largest range to count directly
+		 */
+		long leaf;
+
+		/**
+		 * Build a count.
+		 *
+		 * @param form The ballot form
+		 * @param counter Counts a range directly
+		 * @param first First ballot of the range
+		 * @param end One past the last ballot
+		 * @param leaf Largest range to count directly
+		 */
+		Count(BallotForm form, Counter counter, long first, long end, long leaf) {
+			this.form = form;
+			this.counter = counter;
+			this.first = first;
+			this.end = end;
+			this.leaf = leaf;
+		}
+
+		protected long[][] compute() {
+			if (end - first <= leaf) {
+				long[][] counts = new long[form.contests()][];
+				for (int i = 0; i < counts.length; i++)
+					counts[i] = new long[form.candidates(i)];
+				try {
+					counter.count(first, end, counts);
+				} catch (IOException e) {
+					throw new CountFailed(e);
+				}
+				return counts;
+			}
+			long mid = first + (end - first) / 2;
+			Count left = new Count(form, counter, first, mid, leaf);
+			left.fork();
+			long[][] counts = new Count(form, counter, mid, end, leaf)
+					.compute();
+			long[][] leftCounts = left.join();
+			for (int i = 0; i < counts.length; i++)
+				for (int j = 0; j < counts[i].length; j++)
+					counts[i][j] += leftCounts[i][j];
+			return counts;
+		}
+	}
+
+	/**
+	 * Carries an IOException out of a Count.
+	 */
+	@SuppressWarnings("serial")
+	static class CountFailed extends RuntimeException {
+		/**
+		 * @param cause What went wrong
+		 */
+		CountFailed(IOException cause) {
+			super(cause);
+		}
+	}
+
+	/**
+	 * Add one ballot to a range's counts.
+	 *
+	 * @param form The ballot form
+	 * @param ballot The encoded ballot
+	 * @param counts Votes by contest and candidate position, to add to
+	 * @param index The ballot, from 0, for errors
+	 * @param source Where the ballot came from, for errors
+	 *
+	 * @throws IOException if a choice isn't a candidate on the form,
+	 * as in a damaged ballot
+	 */
+	static void addBallot(BallotForm form, long[] ballot, long[][] counts,
+			long index, Object source) throws IOException {
+		for (int i = 0; i < counts.length; i++) {
+			int choice = form.get(ballot, i);
+			if (choice >= counts[i].length)
+				throw new IOException("ballot " + (index + 1) + " in "
+						+ source + " has no candidate " + (choice + 1)
+						+ " for " + form.contest(i));
+			counts[i][choice]++;
+		}
+	}
+
+	/**
+	 * Count ballots 0 .. size-1.
+	 *
+	 * @param form The ballot form
+	 * @param size How many ballots
+	 * @param leaf Largest range to count directly
+	 * @param counter Counts a range directly
+	 *
+	 * @return the tally
+	 *
+	 * @throws IOException if the ballots can't be read
+	 */
+	Tally tabulate(BallotForm form, long size, long leaf, Counter counter)
+			throws IOException {
+		Tally tally = new Tally(form);
+		if (size == 0)
+			return tally;
+		try {
+			tally.add(pool.invoke(new Count(form, counter, 0, size, leaf)), size);
+		} catch (CountFailed e) {
+			throw (IOException) e.getCause();
+		}
+		return tally;
+	}
+
+	/**
+	 * Count the ballots in a journal.
+	 *
+	 * @param form The ballot form
+	 * @param journal The journal; count it before appending to it, or
+	 * after closing it
+	 *
+	 * @return the tally
+	 *
+	 * @throws IOException if the journal can't be read
+	 */
+	public Tally tabulate(final BallotForm form, final BallotJournal journal)
+			throws IOException {
+		return tabulate(form, journal.ballots(), RANGE, new Counter() {
+			public void count(long first, long end, long[][] counts)
+					throws IOException {
+				BallotJournal.Reader r = journal.reader(first, end - first);
+				try {
+					long[] ballot = form.newBallot();
+					for (long k = first; k < end; k++) {
+						if (!r.next(ballot))
+							throw new IOException("ballot journal ended early");
+						addBallot(form, ballot, counts, k,
+								"the ballot journal");
+					}
+				} finally {
+					r.close();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Count the ballots in an archive.
+	 *
+	 * @param archive The archive
+	 *
+	 * @return the tally
+	 *
+	 * @throws IOException if a ballot is corrupt
+	 */
+	public Tally tabulate(final BallotArchive archive) throws IOException {
+		final BallotForm form = archive.form();
+		return tabulate(form, archive.size(), RANGE, new Counter() {
+			public void count(long first, long end, long[][] counts)
+					throws IOException {
+				long[] ballot = form.newBallot();
+				for (long k = first; k < end; k++) {
+					archive.read(k, ballot);
+					addBallot(form, ballot, counts, k, archive.path());
+				}
+			}
+		});
+	}
+
+	/**
+	 * Count the ballotN.txt files in a ballot box.
+	 *
+	 * @param form The ballot form they were cast on
+	 * @param dir The ballot box directory
+	 *
+	 * @return the tally
+	 *
+	 * @throws IOException if a ballot can't be read or doesn't fit
+	 * the form
+	 */
+	public Tally tabulate(final BallotForm form, final String dir)
+			throws IOException {
+		final InternTable names = BallotArchive.ballotNames(form);
+		return tabulate(form, BallotArchive.countBallotFiles(dir), FILE_RANGE,
+				new Counter() {
+					public void count(long first, long end, long[][] counts)
+							throws IOException {
+						MappedIniReader reader = new MappedIniReader(names);
+						long[] ballot = form.newBallot();
+						for (long k = first; k < end; k++) {
+							BallotArchive.readBallot(form, reader, dir
+									+ "/ballot" + (k + 1) + ".txt", ballot);
+							addBallot(form, ballot, counts, k, dir);
+						}
+					}
+				});
+	}
+
+	/**
+	 * Stop the pool's threads.
+	 */
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	/**
+	 * Recount an exported ballot box.
+	 */
+	public static void main(String[] args) {
+		int threads = Runtime.getRuntime().availableProcessors();
+		String formFile = "form";
+		String box = null;
+
+		/* Go through the args for arguments */
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-threads")) {
+				if ((i + 1) < args.length) {
+					i++;
+					try {
+						threads = Integer.parseInt(args[i]);
+					} catch (NumberFormatException e) {
+						threads = 0;
+					}
+					if (threads < 1)
+						errorExit("-threads requires a positive number");
+				} else
+					errorExit("-threads requires an argument");
+			} else if (args[i].equals("-formfile")) {
+				if ((i + 1) < args.length) {
+					i++;
+					formFile = args[i];
+				} else
+					errorExit("-formfile requires an argument");
+			} else if (args[i].equals("-h")) {
+				printHelp();
+				System.exit(0);
+			} else if (box == null && !args[i].startsWith("-")) {
+				box = args[i];
+			} else
+				errorExit("unknown command line option \"" + args[i] + "\"");
+		}
+		if (box == null) {
+			printHelp();
+			System.exit(-1);
+		}
+
+		Tabulator t = new Tabulator(threads);
+		try {
+			File f = new File(box);
+			if (f.isDirectory())
+				f = new File(box, BallotArchive.FILE_NAME);
+			long start = System.nanoTime();
+			Tally tally;
+			if (f.isFile()) {
+				BallotArchive archive = new BallotArchive(f);
+				try {
+					tally = t.tabulate(archive);
+				} finally {
+					archive.close();
+				}
+			} else {
+				if (!new File(formFile).canRead())
+					errorExit("Can't read ballot form file " + formFile);
+				tally = t.tabulate(FormCompiler.load(formFile), box);
+			}
+			long elapsed = System.nanoTime() - start;
+			System.out.print(tally.report("Vote totals"));
+			System.out.println();
+			System.out.println("Counted " + tally.ballots() + " ballots in "
+					+ elapsed / 1000000 + "ms on " + threads + " threads ("
+					+ (long) (tally.ballots() * 1e9 / elapsed) + " ballots/s)");
+		} catch (IOException e) {
+			errorExit(e.getMessage());
+		} finally {
+			t.shutdown();
+		}
+	}
+
+	/**
+	 * Command-line help
+	 */
+	static void printHelp() {
+		System.out.println("Tabulator [options] {ballot box}");
+		System.out.println("Recount a ballot box: a directory of ballot files, or an archive");
+		System.out
+				.println("-formfile {file}\tBallot form the ballot files were cast on, default 'form'");
+		System.out
+				.println("-threads {n}\tHow many threads to count on, default one per core");
+		System.out.println("-h\t\tDisplay this help");
+	}
+
+	/**
+	 * Exit on error.
+	 *
+	 * @param errstring Error string to display on exit.
+	 */
+	static void errorExit(String errstring) {
+		System.err.println("Error: " + errstring);
+		System.err.println("Exiting.");
+		System.exit(-1);
+	}
+}
@@ -0,0 +1,170 @@
+/*
+ * "Hack-a-vote", a Direct-Recording Electronic (DRE) voting machine
+ * software implementation.
+ * 
+ * Copyright 2003, Rice University. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 
+ * - Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ * 
+ * - Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the
+ * distribution.
+ * 
+ * - Neither the name of Rice University (RICE) nor the names of its
+ * contributors may be used to endorse or promote products derived
+ * from this software without specific prior written permission.
+ * 
+ * This software is provided by RICE and the contributors on an "as
+ * is" basis, without any representations or warranties of any kind,
+ * express or implied including, but not limited to, representations
+ * or warranties of non-infringement, merchantability or fitness for a
+ * particular purpose. In no event shall RICE or contributors be
+ * liable for any direct, indirect, incidental, special, exemplary, or
+ * consequential damages (including, but not limited to, procurement
+ * of substitute goods or services; loss of use, data, or profits; or
+ * business interruption) however caused and on any theory of
+ * liability, whether in contract, strict liability, or tort
+ * (including negligence or otherwise) arising in any way out of the
+ * use of this software, even if advised of the possibility of such
+ * damage.
+ */
+
+/**
+ * Running vote totals for one ballot form: a count for every
+ * candidate in every contest, kept up to date as each ballot is
+ * recorded, so the totals can be read at any time without a recount.
+ */
+public class Tally {
+
+	/**
+	 * The ballot form
+	 */
+	BallotForm form;
+
+	/**
+	 * Votes by contest and candidate position
+	 */
+	long[][] counts;
+
+	/**
+	 * Ballots counted
+	 */
+	long ballots;
+
+	/**
+	 * Build an empty tally.
+	 *
+	 * @param form The ballot form
+	 */
+	public Tally(BallotForm form) {
+		this.form = form;
+		counts = new long[form.contests()][];
+		for (int i = 0; i < counts.length; i++)
+			counts[i] = new long[form.candidates(i)];
+	}
+
+	/**
+	 * Count a ballot.
+	 *
+	 * @param ballot The ballot, encoded by the form
+	 */
+	public synchronized void add(long[] ballot) {
+		for (int i = 0; i < counts.length; i++)
+			counts[i][form.get(ballot, i)]++;
+		ballots++;
+	}
+
+	/**
+	 * Add in counts made elsewhere.
+	 *
+	 * @param more Votes by contest and candidate position, shaped
+	 * like this tally's
+	 * @param moreBallots How many ballots those votes came from
+	 */
+	public synchronized void add(long[][] more, long moreBallots) {
+		for (int i = 0; i < counts.length; i++)
+			for (int j = 0; j < counts[i].length; j++)
+				counts[i][j] += more[i][j];
+		ballots += moreBallots;
+	}
+
+	/**
+	 * Add in another tally of the same form.
+	 *
+	 * @param other The other tally
+	 */
+	public void add(Tally other) {
+		long[][] more;
+		long moreBallots;
+		synchronized (other) {
+			more = new long[other.counts.length][];
+			for (int i = 0; i < more.length; i++)
+				more[i] = other.counts[i].clone();
+			moreBallots = other.ballots;
+		}
+		add(more, moreBallots);
+	}
+
+	/**
+	 * @param contest A contest
+	 * @param choice A candidate's position in it
+	 *
+	 * @return the candidate's votes so far
+	 */
+	public synchronized long count(int contest, int choice) {
+		return counts[contest][choice];
+	}
+
+	/**
+	 * @return every candidate's votes so far, contest after contest
+	 */
+	public synchronized long[] flatten() {
+		int n = 0;
+		for (int i = 0; i < counts.length; i++)
+			n += counts[i].length;
+		long[] flat = new long[n];
+		n = 0;
+		for (int i = 0; i < counts.length; i++) {
+			System.arraycopy(counts[i], 0, flat, n, counts[i].length);
+			n += counts[i].length;
+		}
+		return flat;
+	}
+
+	/**
+	 * @return how many ballots have been counted
+	 */
+	public synchronized long ballots() {
+		return ballots;
+	}
+
+	/**
+	 * Describe the totals, contest by contest.
+	 *
+	 * @param title The first line
+	 *
+	 * @return the totals, one candidate per line
+	 */
+	public synchronized String report(String title) {
+		StringBuffer sb = new StringBuffer(title);
+		sb.append("\n");
+		for (int i = 0; i < counts.length; i++) {
+			sb.append("\n");
+			sb.append(form.contest(i));
+			sb.append("\n");
+			for (int j = 0; j < counts[i].length; j++) {
+				sb.append(form.candidate(i, j).ballotString());
+				sb.append(" received ");
+				sb.append(counts[i][j]);
+				sb.append(" votes.\n");
+			}
+		}
+		return sb.toString();
+	}
+}